@@ -0,0 +1,80 @@
+package com.example.demo.carga;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+// Parametros do teste de carga, recebidos como chave=valor na linha de comando
+// Exemplo: taxa=500 duracao=60 aquecimento=10 mistura=POST:20,GET:60,LIST:15,DELETE:5
+@Getter
+public class ConfiguracaoCarga {
+
+    // Requisições iniciadas por segundo, independente de quantas ainda estão em andamento (modelo aberto)
+    private final int taxa;
+
+    // Tempo medido, depois do aquecimento
+    private final Duration duracao;
+
+    // Tempo inicial com a mesma carga, descartado das medições (JIT, pool de conexões, caches)
+    private final Duration aquecimento;
+
+    // Quantos usuarios são criados antes do teste, para os GET e DELETE terem ids existentes
+    private final int usuarios;
+
+    // Peso de cada operação no sorteio
+    private final Map<Operacao, Integer> mistura;
+
+    // Url de uma aplicação já em execução. Vazio sobe a DemoApplication local em uma porta livre
+    private final String url;
+
+    // Profile do spring ao subir a aplicação local, por exemplo reactive para comparar com a versão webflux + R2DBC
+    // Ignorado quando a url é informada
+    private final String perfil;
+
+    // Pasta dos histogramas e do resumo
+    private final String saida;
+
+    // Tempo maximo de uma requisição, as que passarem disso contam como erro
+    private final Duration timeout;
+
+    public ConfiguracaoCarga(String[] args) {
+        var valores = new HashMap<String, String>();
+        for (var arg : args) {
+            var separador = arg.indexOf('=');
+            if (separador < 1) {
+                throw new IllegalArgumentException("Argumento invalido, use chave=valor: " + arg);
+            }
+            valores.put(arg.substring(0, separador), arg.substring(separador + 1));
+        }
+
+        taxa = Integer.parseInt(valores.getOrDefault("taxa", "200"));
+        duracao = Duration.ofSeconds(Long.parseLong(valores.getOrDefault("duracao", "30")));
+        aquecimento = Duration.ofSeconds(Long.parseLong(valores.getOrDefault("aquecimento", "5")));
+        usuarios = Integer.parseInt(valores.getOrDefault("usuarios", "1000"));
+        mistura = mistura(valores.getOrDefault("mistura", "POST:20,GET:60,LIST:15,DELETE:5"));
+        url = valores.getOrDefault("url", "");
+        perfil = valores.getOrDefault("perfil", "");
+        saida = valores.getOrDefault("saida", "target/carga");
+        timeout = Duration.ofSeconds(Long.parseLong(valores.getOrDefault("timeout", "10")));
+
+        if (taxa < 1) {
+            throw new IllegalArgumentException("taxa precisa ser maior que zero");
+        }
+    }
+
+    private Map<Operacao, Integer> mistura(String texto) {
+        var resultado = new EnumMap<Operacao, Integer>(Operacao.class);
+        for (var item : texto.split(",")) {
+            var partes = item.split(":");
+            resultado.put(Operacao.valueOf(partes[0].trim().toUpperCase()), Integer.parseInt(partes[1].trim()));
+        }
+        if (resultado.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("A mistura precisa ter pelo menos uma operação com peso maior que zero");
+        }
+        return resultado;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.example.demo.carga;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latencias e erros por operação
+// Os histogramas guardam microssegundos de 1us até 1 minuto com 3 digitos de precisão, usando memória fixa
+class Metricas {
+
+    private static final long MAXIMO_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<Operacao, Histogram> latencias = new EnumMap<>(Operacao.class);
+    private final Map<Operacao, LongAdder> erros = new EnumMap<>(Operacao.class);
+
+    Metricas() {
+        for (var operacao : Operacao.values()) {
+            latencias.put(operacao, new ConcurrentHistogram(MAXIMO_MICROS, 3));
+            erros.put(operacao, new LongAdder());
+        }
+    }
+
+    // A latencia é medida a partir do momento em que a requisição deveria ter sido enviada, não de quando foi enviada
+    // Se o gerador atrasar (gc, cpu, fila no cliente), o atraso entra na medição ao inves de sumir (coordinated omission)
+    void registrar(Operacao operacao, long previstoNanos, long fimNanos, boolean sucesso) {
+        var micros = Math.min(TimeUnit.NANOSECONDS.toMicros(fimNanos - previstoNanos), MAXIMO_MICROS);
+        latencias.get(operacao).recordValue(Math.max(micros, 1));
+        if (!sucesso) {
+            erros.get(operacao).increment();
+        }
+    }
+
+    // Grava um .hgrm por operação (formato do HdrHistogram, pode ser aberto no HistogramLogAnalyzer ou no plotter online)
+    // e um resumo.json com os percentis em milissegundos, para comparar uma execução com outra
+    // servidor são as métricas da jvm da aplicação lidas no fim do teste (threads e heap)
+    void gravar(Path pasta, ConfiguracaoCarga configuracao, Map<String, Object> servidor) throws IOException {
+        Files.createDirectories(pasta);
+
+        var total = new Histogram(MAXIMO_MICROS, 3);
+        long totalErros = 0;
+        var operacoes = new LinkedHashMap<String, Object>();
+        for (var operacao : Operacao.values()) {
+            var histograma = latencias.get(operacao);
+            if (histograma.getTotalCount() == 0) {
+                continue;
+            }
+            total.add(histograma);
+            totalErros += erros.get(operacao).sum();
+
+            try (var saida = new PrintStream(Files.newOutputStream(pasta.resolve(operacao.name().toLowerCase() + ".hgrm")))) {
+                histograma.outputPercentileDistribution(saida, 1000.0); // Valores em milissegundos
+            }
+            operacoes.put(operacao.name(), resumo(histograma, erros.get(operacao).sum(), configuracao));
+        }
+
+        var resumo = new LinkedHashMap<String, Object>();
+        resumo.put("taxa", configuracao.getTaxa());
+        resumo.put("duracaoSegundos", configuracao.getDuracao().toSeconds());
+        resumo.put("aquecimentoSegundos", configuracao.getAquecimento().toSeconds());
+        resumo.put("mistura", configuracao.getMistura());
+        resumo.put("total", resumo(total, totalErros, configuracao));
+        resumo.put("operacoes", operacoes);
+        resumo.put("servidor", servidor);
+
+        new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(pasta.resolve("resumo.json").toFile(), resumo);
+    }
+
+    void imprimir(PrintStream saida) {
+        saida.printf("%-8s %10s %8s %10s %10s %10s %10s %10s%n", "operacao", "quantidade", "erros", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms");
+        for (var operacao : Operacao.values()) {
+            var histograma = latencias.get(operacao);
+            if (histograma.getTotalCount() == 0) {
+                continue;
+            }
+            saida.printf("%-8s %10d %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n", operacao, histograma.getTotalCount(), erros.get(operacao).sum(),
+                    ms(histograma, 50), ms(histograma, 90), ms(histograma, 99), ms(histograma, 99.9), histograma.getMaxValue() / 1000.0);
+        }
+    }
+
+    private Map<String, Object> resumo(Histogram histograma, long quantidadeErros, ConfiguracaoCarga configuracao) {
+        var resumo = new LinkedHashMap<String, Object>();
+        resumo.put("quantidade", histograma.getTotalCount());
+        resumo.put("erros", quantidadeErros);
+        resumo.put("vazao", (double) histograma.getTotalCount() / configuracao.getDuracao().toSeconds());
+        resumo.put("p50Ms", ms(histograma, 50));
+        resumo.put("p90Ms", ms(histograma, 90));
+        resumo.put("p99Ms", ms(histograma, 99));
+        resumo.put("p999Ms", ms(histograma, 99.9));
+        resumo.put("maxMs", histograma.getMaxValue() / 1000.0);
+        return resumo;
+    }
+
+    private double ms(Histogram histograma, double percentil) {
+        return histograma.getValueAtPercentile(percentil) / 1000.0;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.example.demo.carga;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Chamadas feitas pelo teste de carga em /api/v1/usuario
+public enum Operacao {
+
+    // Cria um usuario novo, o id retornado passa a ser usado pelos GET e DELETE
+    POST {
+        @Override
+        HttpRequest.Builder requisicao(String url, long id) {
+            var numero = ThreadLocalRandom.current().nextInt(1_000_000);
+            // O email é unico por usuario, então recebe um sufixo aleatorio para não repetir entre as chamadas
+            var corpo = "{\"nome\":\"Usuario " + numero + "\",\"email\":\"usuario" + numero + "-" + UUID.randomUUID() + "@email.com\"}";
+            return HttpRequest.newBuilder(URI.create(url + "/api/v1/usuario"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(corpo));
+        }
+    },
+
+    // Busca por id
+    GET {
+        @Override
+        HttpRequest.Builder requisicao(String url, long id) {
+            return HttpRequest.newBuilder(URI.create(url + "/api/v1/usuario/" + id)).GET();
+        }
+    },
+
+    // Primeira pagina da listagem por cursor
+    LIST {
+        @Override
+        HttpRequest.Builder requisicao(String url, long id) {
+            return HttpRequest.newBuilder(URI.create(url + "/api/v1/usuario?cursor=&size=20")).GET();
+        }
+    },
+
+    // Exclusão logica, repetir em um id já excluido continua retornando 204
+    DELETE {
+        @Override
+        HttpRequest.Builder requisicao(String url, long id) {
+            return HttpRequest.newBuilder(URI.create(url + "/api/v1/usuario/" + id)).DELETE();
+        }
+    };
+
+    // id é um usuario existente sorteado, ignorado pelas operações que não precisam dele
+    abstract HttpRequest.Builder requisicao(String url, long id);
+
+}
@@ -0,0 +1,271 @@
+package com.example.demo.carga;
+
+import com.example.demo.DemoApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+// Teste de carga da UsuarioApi em modelo aberto: as requisições começam em uma taxa fixa (taxa por segundo),
+// sem esperar as anteriores terminarem. Um gerador fechado (N threads, cada uma esperando a resposta antes de enviar a proxima)
+// diminui o envio justamente quando o servidor fica lento, e os percentis altos parecem melhores do que são
+//
+// Executado pelo profile carga do pom.xml, os parametros estão em ConfiguracaoCarga
+public class TesteCarga {
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    private final ConfiguracaoCarga configuracao;
+
+    private final HttpClient httpClient;
+
+    // Ids existentes, usados pelos GET e DELETE. Os POST do teste também entram aqui
+    private final List<Long> ids = new CopyOnWriteArrayList<>();
+
+    private final Metricas metricas = new Metricas();
+
+    // Requisições enviadas e ainda sem resposta. Com a taxa acima do que o servidor responde elas se acumulam,
+    // e o pico mostra se o teste chegou a ocupar todas as threads do tomcat (server.tomcat.threads.max, 200)
+    private final AtomicInteger requisicoesEmAndamento = new AtomicInteger();
+    private final AtomicInteger picoRequisicoesEmAndamento = new AtomicInteger();
+
+    // Heap e threads da aplicação lidos a cada segundo durante o teste, o valor do fim sozinho
+    // pode cair logo depois de um gc ou depois que as threads ociosas do tomcat terminam
+    private final List<double[]> amostras = new CopyOnWriteArrayList<>();
+
+    // Sorteio da operação: cada operação ocupa um intervalo proporcional ao seu peso
+    private final Operacao[] sorteio;
+
+    public TesteCarga(ConfiguracaoCarga configuracao) {
+        this.configuracao = configuracao;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(configuracao.getTimeout())
+                .build();
+
+        var operacoes = new ArrayList<Operacao>();
+        configuracao.getMistura().forEach((operacao, peso) -> {
+            for (int i = 0; i < peso; i++) {
+                operacoes.add(operacao);
+            }
+        });
+        this.sorteio = operacoes.toArray(new Operacao[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var configuracao = new ConfiguracaoCarga(args);
+
+        ConfigurableApplicationContext contexto = null;
+        var url = configuracao.getUrl();
+        if (url.isEmpty()) {
+            contexto = new SpringApplicationBuilder(DemoApplication.class)
+                    .profiles(configuracao.getPerfil().isEmpty() ? new String[0] : new String[] { configuracao.getPerfil() })
+                    .properties(
+                            "server.port=0",
+                            "spring.main.banner-mode=off",
+                            "spring.datasource.url=jdbc:h2:mem:carga;DB_CLOSE_DELAY=-1",
+                            "logging.level.root=WARN")
+                    .run();
+            url = "http://localhost:" + contexto.getEnvironment().getProperty("local.server.port");
+        }
+
+        try {
+            var teste = new TesteCarga(configuracao);
+            teste.popular(url);
+            var amostrador = teste.amostrar(url, contexto != null);
+            try {
+                teste.executar(url);
+            } finally {
+                amostrador.shutdownNow();
+            }
+            var servidor = teste.servidor(url);
+
+            var pasta = Path.of(configuracao.getSaida());
+            teste.metricas.gravar(pasta, configuracao, servidor);
+            teste.metricas.imprimir(System.out);
+            System.out.println("Servidor: " + servidor);
+            System.out.println("Histogramas e resumo gravados em " + pasta.toAbsolutePath());
+        } finally {
+            if (contexto != null) {
+                contexto.close();
+            }
+        }
+    }
+
+    // Cria os usuarios iniciais pelo endpoint de lote
+    // A versão reativa não tem o endpoint de lote, nesse caso os usuarios são criados um a um
+    private void popular(String url) throws Exception {
+        var tamanhoLote = 500;
+        for (int inicio = 0; inicio < configuracao.getUsuarios(); inicio += tamanhoLote) {
+            var corpo = new StringBuilder("[");
+            for (int i = inicio; i < Math.min(inicio + tamanhoLote, configuracao.getUsuarios()); i++) {
+                corpo.append(i == inicio ? "" : ",")
+                        .append("{\"nome\":\"Usuario ").append(i).append("\",\"email\":\"usuario").append(i).append("@email.com\"}");
+            }
+            var resposta = httpClient.send(HttpRequest.newBuilder(URI.create(url + "/api/v1/usuario/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(corpo.append("]").toString()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (resposta.statusCode() == 404 || resposta.statusCode() == 405) {
+                popularIndividualmente(url);
+                return;
+            }
+            if (resposta.statusCode() != 200) {
+                throw new IllegalStateException("Falha ao criar os usuarios iniciais: " + resposta.statusCode() + " " + resposta.body());
+            }
+            adicionarIds(resposta.body());
+        }
+        System.out.println(ids.size() + " usuarios criados antes do teste");
+    }
+
+    private void popularIndividualmente(String url) {
+        var envios = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+        for (int i = 0; i < configuracao.getUsuarios(); i++) {
+            envios.add(httpClient.sendAsync(Operacao.POST.requisicao(url, 0).build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        for (var envio : envios) {
+            var resposta = envio.join();
+            if (resposta.statusCode() != 201) {
+                throw new IllegalStateException("Falha ao criar os usuarios iniciais: " + resposta.statusCode() + " " + resposta.body());
+            }
+            adicionarIds(resposta.body());
+        }
+        System.out.println(ids.size() + " usuarios criados um a um antes do teste");
+    }
+
+    // Amostra heap e threads a cada segundo, a partir do inicio do aquecimento
+    // A aplicação local é lida direto da jvm: com o servidor saturado as chamadas ao actuator esperam na mesma fila
+    // das requisições do teste e quase todas as amostras se perderiam
+    private ScheduledExecutorService amostrar(String url, boolean local) {
+        var amostrador = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "carga-amostras");
+            thread.setDaemon(true);
+            return thread;
+        });
+        amostrador.scheduleAtFixedRate(() -> {
+            try {
+                amostras.add(local
+                        ? new double[] { ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024.0 * 1024), ManagementFactory.getThreadMXBean().getThreadCount() }
+                        : new double[] { heapMb(url), metrica(url, "jvm.threads.live", "") });
+            } catch (Exception exception) {
+                // Uma amostra perdida (timeout com o servidor saturado) não invalida o teste
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+        return amostrador;
+    }
+
+    // Threads e heap da aplicação, no fim do teste e os maiores e medios das amostras, e o pico de requisições em andamento
+    // Com a aplicação local elas incluem também as threads e o heap do proprio gerador, que são os mesmos nos dois profiles
+    private Map<String, Object> servidor(String url) throws Exception {
+        var servidor = new LinkedHashMap<String, Object>();
+        servidor.put("requisicoesEmAndamentoPico", picoRequisicoesEmAndamento.get());
+        servidor.put("threadsAtivas", metrica(url, "jvm.threads.live", ""));
+        servidor.put("threadsPico", metrica(url, "jvm.threads.peak", ""));
+        servidor.put("threadsMedia", Math.round(amostras.stream().mapToDouble(amostra -> amostra[1]).average().orElse(Double.NaN)));
+        servidor.put("heapUsadoMb", Math.round(heapMb(url)));
+        servidor.put("heapPicoMb", Math.round(amostras.stream().mapToDouble(amostra -> amostra[0]).max().orElse(Double.NaN)));
+        servidor.put("heapMedioMb", Math.round(amostras.stream().mapToDouble(amostra -> amostra[0]).average().orElse(Double.NaN)));
+        servidor.put("amostras", amostras.size());
+        return servidor;
+    }
+
+    private double heapMb(String url) throws Exception {
+        return metrica(url, "jvm.memory.used", "?tag=area:heap") / (1024 * 1024);
+    }
+
+    private double metrica(String url, String nome, String filtro) throws Exception {
+        var resposta = httpClient.send(HttpRequest.newBuilder(URI.create(url + "/actuator/metrics/" + nome + filtro))
+                        .timeout(configuracao.getTimeout())
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (resposta.statusCode() != 200) {
+            return Double.NaN;
+        }
+        return new ObjectMapper().readTree(resposta.body()).path("measurements").path(0).path("value").asDouble(Double.NaN);
+    }
+
+    private void executar(String url) {
+        var intervalo = TimeUnit.SECONDS.toNanos(1) / configuracao.getTaxa();
+        var inicio = System.nanoTime();
+        var fimAquecimento = inicio + configuracao.getAquecimento().toNanos();
+        var fim = fimAquecimento + configuracao.getDuracao().toNanos();
+
+        // Conta as requisições em andamento, para esperar todas terminarem no final
+        var emAndamento = new Phaser(1);
+
+        for (long i = 0; ; i++) {
+            // O horario de cada requisição é fixo desde o inicio, um atraso aqui não empurra as seguintes
+            var previsto = inicio + i * intervalo;
+            if (previsto >= fim) {
+                break;
+            }
+            esperarAte(previsto);
+
+            var operacao = sorteio[ThreadLocalRandom.current().nextInt(sorteio.length)];
+            var requisicao = operacao.requisicao(url, idAleatorio())
+                    .timeout(configuracao.getTimeout())
+                    .build();
+            var medir = previsto >= fimAquecimento;
+
+            emAndamento.register();
+            picoRequisicoesEmAndamento.accumulateAndGet(requisicoesEmAndamento.incrementAndGet(), Math::max);
+            httpClient.sendAsync(requisicao, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((resposta, erro) -> {
+                        requisicoesEmAndamento.decrementAndGet();
+                        var termino = System.nanoTime();
+                        var sucesso = erro == null && resposta.statusCode() < 400;
+                        if (medir) {
+                            metricas.registrar(operacao, previsto, termino, sucesso);
+                        }
+                        if (sucesso && operacao == Operacao.POST) {
+                            adicionarIds(resposta.body());
+                        }
+                        emAndamento.arriveAndDeregister();
+                    });
+        }
+
+        emAndamento.arriveAndAwaitAdvance();
+    }
+
+    private void esperarAte(long nanos) {
+        long restante;
+        while ((restante = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(restante);
+        }
+    }
+
+    private long idAleatorio() {
+        return ids.isEmpty() ? 1 : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private void adicionarIds(String corpo) {
+        var ids = new ArrayList<Long>();
+        var matcher = ID.matcher(corpo);
+        while (matcher.find()) {
+            ids.add(Long.parseLong(matcher.group(1)));
+        }
+        this.ids.addAll(ids);
+    }
+
+}
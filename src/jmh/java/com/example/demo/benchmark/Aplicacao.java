@@ -0,0 +1,85 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.DemoApplication;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.service.UsuarioLoteService;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Sobe a aplicação sem o servidor web, com um H2 em memória populado com a quantidade de usuarios do parametro
+// O mesmo estado é compartilhado por todas as threads de um benchmark, a aplicação sobe uma vez por fork
+@State(Scope.Benchmark)
+public class Aplicacao {
+
+    // Quantos nomes diferentes existem, o filtro por nome encontra usuarios / QUANTIDADE_NOMES usuarios
+    static final int QUANTIDADE_NOMES = 1000;
+
+    // Quantidade de usuarios inseridos antes das medições, alterar com -p usuarios=100000
+    @Param("10000")
+    public int usuarios;
+
+    private ConfigurableApplicationContext contexto;
+
+    private long primeiroId;
+
+    @Setup
+    public void iniciar() {
+        contexto = new SpringApplicationBuilder(DemoApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        "usuario.busca.indexar-na-inicializacao=false",
+                        "logging.level.root=WARN")
+                .run();
+
+        // Popula usando o mesmo caminho do endpoint de lote, em pedaços commitados separadamente
+        var loteService = bean(UsuarioLoteService.class);
+        for (int inicio = 0; inicio < usuarios; inicio += loteService.getTamanhoLote()) {
+            var lote = IntStream.range(inicio, Math.min(inicio + loteService.getTamanhoLote(), usuarios))
+                    .mapToObj(Aplicacao::usuario)
+                    .collect(Collectors.toList());
+            var resultado = loteService.salvarPedaco(lote, inicio);
+            if (inicio == 0) {
+                primeiroId = resultado.get(0).getUsuario().getId();
+            }
+        }
+    }
+
+    @TearDown
+    public void encerrar() {
+        contexto.close();
+    }
+
+    <T> T bean(Class<T> tipo) {
+        return contexto.getBean(tipo);
+    }
+
+    // O menor id inserido, os proximos usuarios - 1 ids também existem
+    long primeiroId() {
+        return primeiroId;
+    }
+
+    // Um id existente qualquer. As sequences geram os ids em ordem, a partir do primeiro id inserido
+    long idAleatorio() {
+        return primeiroId + ThreadLocalRandom.current().nextInt(usuarios);
+    }
+
+    static UsuarioRequest usuario(int i) {
+        return UsuarioRequest.builder()
+                .nome("Usuario " + (i % QUANTIDADE_NOMES))
+                .email("usuario" + i + "@email.com")
+                .build();
+    }
+
+}
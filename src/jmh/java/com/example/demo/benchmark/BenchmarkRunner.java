@@ -0,0 +1,29 @@
+package com.example.demo.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Ponto de entrada dos benchmarks, executado pelo profile jmh do pom.xml
+// Aceita os mesmos argumentos da linha de comando do JMH, por exemplo:
+// ./mvnw -P jmh test-compile exec:exec -Djmh.args="Listagem -p tamanhoPagina=500 -f 1"
+// Além dos argumentos informados, sempre liga o profiler de GC (alocação por operação, gc.alloc.rate.norm)
+// e grava o resultado em target/jmh-result.json, para comparar uma execução com outra
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        var linhaDeComando = new CommandLineOptions(args);
+
+        var opcoes = new OptionsBuilder()
+                .parent(linhaDeComando)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result.json")
+                .build();
+
+        new Runner(opcoes).run();
+    }
+
+}
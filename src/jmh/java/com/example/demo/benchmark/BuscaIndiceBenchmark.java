@@ -0,0 +1,73 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.service.UsuarioBuscaIndice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Busca do autocomplete (/search) direto no indice em memória, com o tempo de cada busca amostrado (percentis p99, p999)
+// Antes das medições o indice é montado do banco e a memória ocupada por ele é impressa, medida pelo heap usado
+// depois de um gc com e sem o indice. Para um numero proximo da produção: -p usuarios=1000000 -jvmArgs -Xmx4g
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuscaIndiceBenchmark {
+
+    // prefixo: palavra inteira do nome e o começo de um email, que encontram muitos usuarios
+    // digitacao: nome com letras trocadas, encontrado apenas pelos trigramas
+    @Param({ "prefixo", "digitacao" })
+    public String consulta;
+
+    private UsuarioBuscaIndice usuarioBuscaIndice;
+
+    private int usuarios;
+
+    @Setup
+    public void preparar(Aplicacao aplicacao) {
+        usuarioBuscaIndice = aplicacao.bean(UsuarioBuscaIndice.class);
+        usuarios = aplicacao.usuarios;
+
+        // O lote de Aplicacao já indexou os usuarios um a um, a medição começa sem nada
+        usuarioBuscaIndice.limpar();
+        var semIndice = heapUsado();
+        var inicio = System.currentTimeMillis();
+        usuarioBuscaIndice.reconstruir();
+        var duracao = System.currentTimeMillis() - inicio;
+        var comIndice = heapUsado();
+        System.out.printf("%nIndice com %d usuarios montado em %d ms, %d MB de heap (%d bytes por usuario)%n",
+                usuarioBuscaIndice.tamanho(), duracao, (comIndice - semIndice) / (1024 * 1024), (comIndice - semIndice) / Math.max(1, usuarios));
+    }
+
+    @Benchmark
+    public List<Long> buscar() {
+        var numero = ThreadLocalRandom.current().nextInt(usuarios);
+        var texto = "prefixo".equals(consulta)
+                ? "usuario " + (numero % Aplicacao.QUANTIDADE_NOMES) + " usuario" + numero / 10
+                : "usaurio " + (numero % Aplicacao.QUANTIDADE_NOMES);
+        return usuarioBuscaIndice.buscar(texto, 10);
+    }
+
+    private static long heapUsado() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// findById com e sem o cache, sempre com um id existente escolhido aleatoriamente
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuscaPorIdBenchmark {
+
+    private UsuarioService usuarioService;
+
+    private UsuarioRepository usuarioRepository;
+
+    @Setup
+    public void preparar(Aplicacao aplicacao) {
+        usuarioService = aplicacao.bean(UsuarioService.class);
+        usuarioRepository = aplicacao.bean(UsuarioRepository.class);
+    }
+
+    // Passa pelo cache, que depois do aquecimento contém a maior parte dos ids
+    @Benchmark
+    public UsuarioResponse servico(Aplicacao aplicacao) {
+        return usuarioService.findById(aplicacao.idAleatorio());
+    }
+
+    // Sempre vai ao banco, com a consulta que retorna o UsuarioResponse direto
+    @Benchmark
+    public Optional<UsuarioResponse> repositorio(Aplicacao aplicacao) {
+        return usuarioRepository.findResponseById(aplicacao.idAleatorio());
+    }
+
+}
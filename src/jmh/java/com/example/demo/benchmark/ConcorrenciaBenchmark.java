@@ -0,0 +1,112 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.PreconditionFailedException;
+import com.example.demo.service.UsuarioService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Varias threads atualizando os mesmos usuarios ao mesmo tempo
+// Compara a atualização sem controle (a ultima escrita vence) com a atualização condicionada à versão (If-Match),
+// que lê a versão e só grava se ninguém alterou o usuario nesse meio tempo
+// Com poucos usuarios disputados (-p disputados=1) quase toda escrita concorre com outra, com muitos quase nenhuma
+// O throughput de cada benchmark conta as tentativas, e os contadores gravados e conflitos mostram quantas
+// delas foram aplicadas e quantas receberam 412. Alterar a quantidade de threads com -t
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ConcorrenciaBenchmark {
+
+    // Quantos usuarios, dentre os primeiros inseridos, recebem as escritas
+    @Param({ "1", "100" })
+    public int disputados;
+
+    private UsuarioService usuarioService;
+
+    private long primeiroId;
+
+    @Setup
+    public void preparar(Aplicacao aplicacao) {
+        usuarioService = aplicacao.bean(UsuarioService.class);
+        primeiroId = aplicacao.primeiroId();
+    }
+
+    // Contadores por thread, somados pelo JMH no resultado como operações por tempo
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Resultado {
+
+        public long gravados;
+
+        public long conflitos;
+
+    }
+
+    // Sem If-Match: toda escrita é aplicada, sobrescrevendo a anterior sem saber dela
+    @Benchmark
+    public UsuarioResponse ultimaEscritaVence(Resultado resultado) {
+        var usuarioResponse = usuarioService.saveOrUpdate(request());
+        resultado.gravados++;
+        return usuarioResponse;
+    }
+
+    // Lê a versão (normalmente do cache, como no GET) e grava apenas nela. Um conflito não grava nada
+    @Benchmark
+    public UsuarioResponse comIfMatch(Resultado resultado) {
+        var request = request();
+        var versao = usuarioService.findById(request.getId()).getVersao();
+        try {
+            var usuarioResponse = usuarioService.saveOrUpdate(request, versao);
+            resultado.gravados++;
+            return usuarioResponse;
+        } catch (PreconditionFailedException preconditionFailedException) {
+            resultado.conflitos++;
+            return null;
+        }
+    }
+
+    // O que um cliente faria ao receber 412: lê de novo e tenta até conseguir gravar
+    @Benchmark
+    public UsuarioResponse comIfMatchERetentativa(Resultado resultado) {
+        var request = request();
+        while (true) {
+            var versao = usuarioService.findById(request.getId()).getVersao();
+            try {
+                var usuarioResponse = usuarioService.saveOrUpdate(request, versao);
+                resultado.gravados++;
+                return usuarioResponse;
+            } catch (PreconditionFailedException preconditionFailedException) {
+                resultado.conflitos++;
+            }
+        }
+    }
+
+    private UsuarioRequest request() {
+        var i = ThreadLocalRandom.current().nextInt(disputados);
+        return UsuarioRequest.builder()
+                .id(primeiroId + i)
+                .nome("Usuario " + i)
+                .email("usuario" + i + "@email.com")
+                .build();
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Inserção de um usuario por vez (saveOrUpdate) e em lote (saveOrUpdateAll)
+// O tempo é por operação: para comparar os dois, divida o tempo do lote pelo tamanhoLote
+// A tabela cresce durante a medição, por isso as iterações são curtas
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsercaoBenchmark {
+
+    @Param({ "100" })
+    public int tamanhoLote;
+
+    private UsuarioService usuarioService;
+
+    private UsuarioRequest usuarioRequest;
+
+    private List<UsuarioRequest> lote;
+
+    @Setup
+    public void preparar(Aplicacao aplicacao) {
+        usuarioService = aplicacao.bean(UsuarioService.class);
+        usuarioRequest = Aplicacao.usuario(1);
+        lote = IntStream.range(0, tamanhoLote)
+                .mapToObj(Aplicacao::usuario)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public UsuarioResponse individual() {
+        return usuarioService.saveOrUpdate(usuarioRequest);
+    }
+
+    @Benchmark
+    public List<UsuarioLoteItemResponse> lote() {
+        return usuarioService.saveOrUpdateAll(lote);
+    }
+
+}
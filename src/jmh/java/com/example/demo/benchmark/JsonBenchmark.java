@@ -0,0 +1,57 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+// Serialização da resposta da listagem, que é o que a controller devolve para o spring escrever no corpo
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({ "10", "100", "500" })
+    public int quantidade;
+
+    private ObjectMapper objectMapper;
+
+    private List<UsuarioResponse> usuarios;
+
+    @Setup
+    public void preparar() {
+        // Mesmo builder usado pelo spring boot para criar o ObjectMapper da aplicação
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        var agora = LocalDateTime.now();
+        usuarios = LongStream.range(0, quantidade)
+                .mapToObj(i -> new UsuarioResponse(i, "Usuario " + i, "usuario" + i + "@email.com", agora, true, 0, agora))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public byte[] serializar() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(usuarios);
+    }
+
+}
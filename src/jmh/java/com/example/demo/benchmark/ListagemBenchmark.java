@@ -0,0 +1,103 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// findAll (paginação por offset) e findAllByCursor com varios tamanhos de pagina, combinações de filtro e posições da pagina
+// No offset o banco percorre e descarta todas as linhas antes da pagina, então o custo cresce com a posição.
+// No cursor a consulta começa direto depois do ultimo usuario da pagina anterior
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListagemBenchmark {
+
+    @Param({ "10", "100", "500" })
+    public int tamanhoPagina;
+
+    // nenhum: todos os usuarios, ativos ou não
+    // ativo: o filtro padrão da api (ativo=true)
+    // nome: ativo e um nome, usuarios / 1000 resultados
+    // nome-email: ativo e nome OU email, a união de ids
+    @Param({ "nenhum", "ativo", "nome", "nome-email" })
+    public String filtro;
+
+    // Onde a pagina medida começa, em porcentagem dos resultados do filtro: 0 é a primeira pagina, 90 uma das ultimas
+    @Param({ "0", "50", "90" })
+    public int posicao;
+
+    private UsuarioService usuarioService;
+
+    private UsuarioFilter usuarioFilter;
+
+    private Pageable pagina;
+
+    // Cursor recebido na pagina anterior à medida, vazio para a primeira
+    private String cursor;
+
+    @Setup
+    public void preparar(Aplicacao aplicacao) {
+        usuarioService = aplicacao.bean(UsuarioService.class);
+
+        usuarioFilter = new UsuarioFilter();
+        switch (filtro) {
+            case "nenhum":
+                usuarioFilter.setAtivo(null);
+                break;
+            case "ativo":
+                break;
+            case "nome":
+                usuarioFilter.setNome("Usuario 7");
+                break;
+            case "nome-email":
+                usuarioFilter.setNome("Usuario 7");
+                usuarioFilter.setEmail("usuario8@email.com");
+                break;
+            default:
+                throw new IllegalArgumentException("Filtro desconhecido: " + filtro);
+        }
+
+        // Percorre as paginas pelo cursor, guardando o cursor de inicio de cada uma, e escolhe a da posição pedida
+        var cursores = new ArrayList<String>();
+        var proximo = "";
+        while (proximo != null) {
+            cursores.add(proximo);
+            proximo = usuarioService.findAllByCursor(usuarioFilter, proximo, tamanhoPagina).getProximoCursor();
+        }
+        var indice = Math.min(cursores.size() - 1, cursores.size() * posicao / 100);
+        pagina = PageRequest.of(indice, tamanhoPagina, Sort.by("nome", "id"));
+        cursor = cursores.get(indice);
+    }
+
+    @Benchmark
+    public List<UsuarioResponse> offset() {
+        return usuarioService.findAll(usuarioFilter, pagina);
+    }
+
+    @Benchmark
+    public List<UsuarioResponse> cursor() {
+        return usuarioService.findAllByCursor(usuarioFilter, cursor, tamanhoPagina).getUsuarios();
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioCriterio;
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.mapper.usuario.UsuarioMapper;
+import com.example.demo.mapper.usuario.UsuarioResponseMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// Mapeamentos entre entidade e DTOs, sem spring e sem banco
+// Os mappers não tem dependencias, então são instanciados diretamente
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapeamentoBenchmark {
+
+    private final UsuarioMapper usuarioMapper = new UsuarioMapper();
+
+    private final UsuarioResponseMapper usuarioResponseMapper = new UsuarioResponseMapper();
+
+    private Usuario usuario;
+
+    private UsuarioRequest usuarioRequest;
+
+    private UsuarioFilter usuarioFilter;
+
+    @Setup
+    public void preparar() {
+        usuario = Usuario.builder()
+                .id(1L)
+                .nome("João da Silva")
+                .email("joao_da_silva@email.com")
+                .dataHoraCriacao(LocalDateTime.now())
+                .build();
+        usuarioRequest = Aplicacao.usuario(1);
+        usuarioFilter = new UsuarioFilter();
+        usuarioFilter.setNome("João da Silva");
+        usuarioFilter.setEmail("joao_da_silva@email.com");
+    }
+
+    @Benchmark
+    public UsuarioResponse entidadeParaResponse() {
+        return usuarioResponseMapper.fromUsuario(usuario);
+    }
+
+    @Benchmark
+    public Usuario requestParaEntidade() {
+        return usuarioMapper.fromUsuarioRequest(usuarioRequest);
+    }
+
+    @Benchmark
+    public UsuarioCriterio filtroParaCriterio() {
+        return usuarioMapper.fromUsuarioFilter(usuarioFilter);
+    }
+
+}
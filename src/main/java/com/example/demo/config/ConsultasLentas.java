@@ -0,0 +1,164 @@
+package com.example.demo.config;
+
+import com.example.demo.dto.sql.ConsultaLentaResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.proxy.ParameterSetOperation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+// Registra os comandos sql que demoraram mais que usuario.sql.lenta.limite, com o plano de execução do banco (EXPLAIN)
+// Permite descobrir qual combinação de filtro e ordenação está lenta e se falta indice, sem ligar o log de todo sql
+// Os registros ficam em memória em um buffer circular de tamanho fixo: quando enche, o mais antigo é descartado
+// Consultados em GET /api/v1/admin/sql/lentas
+//
+// Recebe as execuções pelo datasource-proxy, como QueryExecutionListener (ver DataSourceProxyConfig)
+@Slf4j
+@Component
+public class ConsultasLentas implements QueryExecutionListener {
+
+    private final long limiteMs;
+
+    private final int capacidade;
+
+    // Buffer circular, o acesso é sincronizado pois as consultas terminam em varias threads
+    private final ArrayDeque<ConsultaLentaResponse> registros;
+
+    // O mesmo sql lento costuma se repetir, o plano é guardado por alguns minutos para não executar um EXPLAIN a cada vez
+    // Um EXPLAIN que falhou não é guardado, a proxima execução lenta tenta de novo
+    private final Cache<String, String> planos;
+
+    public ConsultasLentas(@Value("${usuario.sql.lenta.limite:200ms}") Duration limite,
+                           @Value("${usuario.sql.lenta.capacidade:100}") int capacidade) {
+        this.limiteMs = limite.toMillis();
+        this.capacidade = capacidade;
+        this.registros = new ArrayDeque<>(capacidade);
+        this.planos = Caffeine.newBuilder()
+                .maximumSize(capacidade)
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .build();
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        if (execInfo.getElapsedTime() < limiteMs) {
+            return;
+        }
+
+        for (var queryInfo : queryInfoList) {
+            // Em um batch, os parametros do primeiro item representam o formato dos demais
+            var parametros = queryInfo.getParametersList().isEmpty() ? List.<ParameterSetOperation>of() : ordenar(queryInfo.getParametersList().get(0));
+            var sql = queryInfo.getQuery();
+
+            var registro = ConsultaLentaResponse.builder()
+                    .dataHora(LocalDateTime.now())
+                    .duracaoMs(execInfo.getElapsedTime())
+                    .sql(sql)
+                    .parametros(parametros.stream()
+                            .map(parametro -> valor(parametro) == null ? "null" : valor(parametro).getClass().getSimpleName())
+                            .collect(Collectors.toList()))
+                    .origem(RepositoryOrigem.atual())
+                    .plano(select(sql) ? plano(execInfo.getStatement(), sql, parametros) : null)
+                    .build();
+
+            log.warn("Consulta lenta ({} ms) vinda de {}: {}", registro.getDuracaoMs(),
+                    registro.getOrigem() == null ? "fora de um repository" : registro.getOrigem(), sql);
+            synchronized (registros) {
+                if (registros.size() == capacidade) {
+                    registros.removeFirst();
+                }
+                registros.addLast(registro);
+            }
+        }
+    }
+
+    // Os registros do mais recente para o mais antigo
+    public List<ConsultaLentaResponse> listar() {
+        synchronized (registros) {
+            var lista = new ArrayList<>(registros);
+            lista.sort(Comparator.comparing(ConsultaLentaResponse::getDataHora).reversed());
+            return lista;
+        }
+    }
+
+    private String plano(Statement statement, String sql, List<ParameterSetOperation> parametros) {
+        var plano = planos.getIfPresent(sql);
+        if (plano != null) {
+            return plano;
+        }
+        try {
+            plano = explicar(statement, sql, parametros);
+        } catch (SQLException | RuntimeException exception) {
+            log.debug("Não foi possivel executar o EXPLAIN de {}", sql, exception);
+            return "EXPLAIN indisponivel: " + exception.getMessage();
+        }
+        planos.put(sql, plano);
+        return plano;
+    }
+
+    // Executa EXPLAIN <sql> com os mesmos parametros, na mesma conexão da consulta
+    // Funciona no H2 e no MySQL, que retornam o plano como um resultado comum (uma coluna no H2, uma tabela no MySQL)
+    // Com o EXPLAIN na mesma conexão, ele enxerga as mesmas tabelas e a mesma transação da consulta original
+    private String explicar(Statement statement, String sql, List<ParameterSetOperation> parametros) throws SQLException {
+        try (var explain = statement.getConnection().prepareStatement("EXPLAIN " + sql)) {
+            for (var parametro : parametros) {
+                explain.setObject((Integer) parametro.getArgs()[0], valor(parametro));
+            }
+
+            var plano = new StringBuilder();
+            try (var resultado = explain.executeQuery()) {
+                var colunas = resultado.getMetaData().getColumnCount();
+                if (colunas > 1) {
+                    for (int i = 1; i <= colunas; i++) {
+                        plano.append(i > 1 ? "\t" : "").append(resultado.getMetaData().getColumnLabel(i));
+                    }
+                    plano.append('\n');
+                }
+                while (resultado.next()) {
+                    for (int i = 1; i <= colunas; i++) {
+                        plano.append(i > 1 ? "\t" : "").append(resultado.getString(i));
+                    }
+                    plano.append('\n');
+                }
+            }
+            return plano.toString().trim();
+        }
+    }
+
+    private boolean select(String sql) {
+        return sql.stripLeading().toLowerCase(Locale.ROOT).startsWith("select");
+    }
+
+    // Apenas os set* com indice (setString(1, ...), setLong(2, ...)), na ordem do indice
+    private List<ParameterSetOperation> ordenar(List<ParameterSetOperation> parametros) {
+        return parametros.stream()
+                .filter(parametro -> parametro.getArgs().length >= 2 && parametro.getArgs()[0] instanceof Integer)
+                .sorted(Comparator.comparing(parametro -> (Integer) parametro.getArgs()[0]))
+                .collect(Collectors.toList());
+    }
+
+    // setNull(indice, tipo) não tem valor, os demais set* tem o valor no segundo argumento
+    private Object valor(ParameterSetOperation parametro) {
+        return ParameterSetOperation.isSetNullParameterOperation(parametro) ? null : parametro.getArgs()[1];
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.example.demo.config;
+
+import net.ttddyy.dsproxy.listener.DataSourceQueryCountListener;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.util.stream.Collectors;
+
+// Envolve o DataSource criado pelo spring boot (HikariCP) com o datasource-proxy
+// Todo comando sql executado passa pelos QueryExecutionListener declarados como bean, que podem contar ou medir as execuções
+// Sem nenhum listener o DataSource original é usado sem alteração
+@Configuration
+public class DataSourceProxyConfig {
+
+    // static: um BeanPostProcessor precisa ser criado antes dos outros beans, sem depender da instancia dessa classe
+    @Bean
+    public static BeanPostProcessor dataSourceProxyPostProcessor(ObjectProvider<QueryExecutionListener> listeners) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource)) {
+                    return bean;
+                }
+                var listenersAtivos = listeners.orderedStream().collect(Collectors.toList());
+                if (listenersAtivos.isEmpty()) {
+                    return bean;
+                }
+
+                var builder = ProxyDataSourceBuilder.create((DataSource) bean).name(beanName);
+                listenersAtivos.forEach(builder::listener);
+                return builder.build();
+            }
+        };
+    }
+
+    // Conta os comandos por tipo (select, insert, update, delete) na thread atual, lidos pelo SqlContagemFilter
+    // Ligado por usuario.sql.contagem, desligado por padrão no application.yaml e ligado nos testes
+    @Bean
+    @ConditionalOnProperty(name = "usuario.sql.contagem", havingValue = "true")
+    public DataSourceQueryCountListener dataSourceQueryCountListener() {
+        return new DataSourceQueryCountListener();
+    }
+
+}
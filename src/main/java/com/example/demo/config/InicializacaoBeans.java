@@ -0,0 +1,121 @@
+package com.example.demo.config;
+
+import com.example.demo.dto.inicializacao.InicializacaoBeanResponse;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Mede o tempo de criação de cada bean singleton: da instanciação (antes do construtor) até o fim da inicialização
+// (@PostConstruct, afterPropertiesSet e os demais BeanPostProcessors)
+// As dependencias são criadas no meio da criação de quem depende delas, por isso cada thread guarda a pilha dos beans
+// em criação, e o tempo de cada dependencia é descontado do tempo proprio de quem está abaixo dela na pilha
+//
+// Adicionado diretamente ao BeanFactory pelo InicializacaoTempos antes do refresh, assim mede desde o primeiro bean
+class InicializacaoBeans implements InstantiationAwareBeanPostProcessor {
+
+    private static final double NANOS_POR_MS = 1_000_000d;
+
+    private final ConfigurableListableBeanFactory beanFactory;
+
+    private final ThreadLocal<ArrayDeque<Medicao>> emCriacao = ThreadLocal.withInitial(ArrayDeque::new);
+
+    // Apenas singletons são medidos, então a lista não cresce depois que todos foram criados
+    private final List<InicializacaoBeanResponse> criados = new ArrayList<>();
+
+    private volatile boolean subiu;
+
+    InicializacaoBeans(ConfigurableListableBeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) {
+        // Beans internos e não singletons (prototype, request) não tem medição propria, o tempo deles fica com quem os criou
+        if (beanFactory.containsBeanDefinition(beanName) && beanFactory.getMergedBeanDefinition(beanName).isSingleton()) {
+            emCriacao.get().push(new Medicao(beanName, System.nanoTime()));
+        }
+        return null;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        // Os objetos criados por um FactoryBean também passam por aqui, com o nome do FactoryBean já medido,
+        // e não estão na pilha. Um bean que falhou na criação fica na pilha e é descartado quando quem estava abaixo termina
+        var pilha = emCriacao.get();
+        if (pilha.stream().noneMatch(medicao -> medicao.nome.equals(beanName))) {
+            return bean;
+        }
+        var medicao = pilha.pop();
+        while (!medicao.nome.equals(beanName)) {
+            medicao = pilha.pop();
+        }
+
+        var total = System.nanoTime() - medicao.inicio;
+        if (!pilha.isEmpty()) {
+            pilha.peek().dependencias += total;
+        }
+
+        var registro = InicializacaoBeanResponse.builder()
+                .nome(beanName)
+                .tipo(ClassUtils.getUserClass(bean).getName())
+                .origem(origem(beanName))
+                .totalMs(Math.round(total / NANOS_POR_MS * 100) / 100d)
+                .proprioMs(Math.round((total - medicao.dependencias) / NANOS_POR_MS * 100) / 100d)
+                .depoisDeSubir(subiu)
+                .build();
+        synchronized (criados) {
+            criados.add(registro);
+        }
+        return bean;
+    }
+
+    // Chamado quando a aplicação fica pronta, os beans criados depois disso foram adiados pelo lazy-initialization
+    void subiu() {
+        subiu = true;
+    }
+
+    List<InicializacaoBeanResponse> listar() {
+        synchronized (criados) {
+            return new ArrayList<>(criados);
+        }
+    }
+
+    // Um bean declarado por um método @Bean vem da classe de configuração que tem o método
+    // (nas auto-configurações o nome do bean da configuração já é o nome da classe)
+    // Os demais (@Component, repositories, configurações) são a sua propria origem
+    private String origem(String beanName) {
+        var definicao = beanFactory.getMergedBeanDefinition(beanName);
+        var fabrica = definicao.getFactoryBeanName();
+        if (fabrica != null && beanFactory.containsBeanDefinition(fabrica)) {
+            var classe = beanFactory.getMergedBeanDefinition(fabrica).getBeanClassName();
+            return classe != null ? semProxy(classe) : fabrica;
+        }
+        return definicao.getBeanClassName() != null ? semProxy(definicao.getBeanClassName()) : beanName;
+    }
+
+    // As classes @Configuration são trocadas por uma subclasse gerada pelo cglib (Classe$$EnhancerBySpringCGLIB$$...)
+    private String semProxy(String classe) {
+        var separador = classe.indexOf(ClassUtils.CGLIB_CLASS_SEPARATOR);
+        return separador < 0 ? classe : classe.substring(0, separador);
+    }
+
+    private static class Medicao {
+
+        private final String nome;
+
+        private final long inicio;
+
+        private long dependencias;
+
+        private Medicao(String nome, long inicio) {
+            this.nome = nome;
+            this.inicio = inicio;
+        }
+
+    }
+
+}
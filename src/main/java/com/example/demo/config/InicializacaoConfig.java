@@ -0,0 +1,25 @@
+package com.example.demo.config;
+
+import com.example.demo.service.UsuarioArquivamentoService;
+import com.example.demo.service.UsuarioDesativacaoFila;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+
+// Beans criados ao subir mesmo com spring.main.lazy-initialization ligado (profile rapido)
+// Sem o profile todos os beans já são criados ao subir e essa configuração não tem efeito
+@Configuration
+public class InicializacaoConfig {
+
+    // O EntityManagerFactory começa a montar o hibernate enquanto o resto da aplicação sobe (em outra thread, com o
+    // bootstrap-mode deferred), e não na primeira requisição. Ele também dispara as migrações do flyway
+    // O arquivamento e a fila de desativação agendam as suas tarefas ao serem criados, e ninguém os usa antes disso
+    // static: o filtro é lido antes da criação dos beans, sem depender da instancia dessa classe
+    @Bean
+    public static LazyInitializationExcludeFilter inicializacaoBeansAoSubir() {
+        return LazyInitializationExcludeFilter.forBeanTypes(EntityManagerFactory.class, UsuarioArquivamentoService.class, UsuarioDesativacaoFila.class);
+    }
+
+}
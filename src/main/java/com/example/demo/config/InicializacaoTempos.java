@@ -0,0 +1,205 @@
+package com.example.demo.config;
+
+import com.example.demo.dto.inicializacao.InicializacaoBeanResponse;
+import com.example.demo.dto.inicializacao.InicializacaoFaseResponse;
+import com.example.demo.dto.inicializacao.InicializacaoOrigemResponse;
+import com.example.demo.dto.inicializacao.InicializacaoResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationContextInitializedEvent;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartingEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.web.context.support.ServletRequestHandledEvent;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Mede quanto tempo a aplicação leva para subir, do inicio da jvm até a primeira requisição atendida, separado por fase
+// e por bean (ver InicializacaoBeans). Serve para comparar versões e configurações (profile rapido, arquivo cds)
+// O resultado fica no log quando a aplicação fica pronta, em GET /api/v1/admin/inicializacao e nas metricas
+// aplicacao.inicializacao.fase (duração de cada fase) e aplicacao.inicializacao.marco (pronto e primeira-requisicao)
+//
+// Registrado em META-INF/spring.factories, e não como bean, para receber os eventos do spring boot desde o inicio,
+// antes do contexto existir. Cada SpringApplication cria a sua instancia, que se registra no contexto como bean
+@Slf4j
+public class InicializacaoTempos implements ApplicationListener<ApplicationEvent>, Ordered {
+
+    public static final String BEAN = "inicializacaoTempos";
+
+    // Cada fase termina no evento correspondente e começa no fim da anterior, a primeira começa com a jvm
+    private static final Map<Class<?>, String> FASES = Map.of(
+            // Carregamento da jvm e das classes até o SpringApplication.run
+            ApplicationStartingEvent.class, "jvm",
+            // Leitura das propriedades (application.yaml, profiles, variaveis de ambiente)
+            ApplicationEnvironmentPreparedEvent.class, "ambiente",
+            // Criação do contexto e ApplicationContextInitializers
+            ApplicationContextInitializedEvent.class, "contexto",
+            // Registro da classe principal como fonte de beans
+            ApplicationPreparedEvent.class, "fontes",
+            // Leitura das configurações e auto-configurações, criação dos beans (hibernate incluso) e do servidor web
+            ContextRefreshedEvent.class, "beans",
+            // ApplicationStartedEvent, ApplicationRunners e CommandLineRunners
+            ApplicationReadyEvent.class, "runners");
+
+    // Listeners do ApplicationReadyEvent (preenchimento de colunas, indice de busca, filtro de emails), a aplicação só aceita requisições depois deles
+    private static final String FASE_EVENTOS_PRONTO = "eventos-pronto";
+
+    private final long inicioJvm = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    // Nome da fase -> fim dela, em ms desde o inicio da jvm, na ordem em que terminaram
+    private final Map<String, Long> fases = new LinkedHashMap<>();
+
+    private ConfigurableApplicationContext contexto;
+
+    private InicializacaoBeans beans;
+
+    private volatile Long prontoMs;
+
+    private volatile Long primeiraRequisicaoMs;
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ServletRequestHandledEvent) {
+            if (primeiraRequisicaoMs == null) {
+                primeiraRequisicao();
+            }
+            return;
+        }
+
+        var fase = FASES.get(event.getClass());
+        if (fase != null) {
+            marcar(fase);
+        }
+
+        if (event instanceof ApplicationPreparedEvent) {
+            // O contexto já existe mas nenhum bean foi criado ainda
+            contexto = ((ApplicationPreparedEvent) event).getApplicationContext();
+            beans = new InicializacaoBeans(contexto.getBeanFactory());
+            contexto.getBeanFactory().addBeanPostProcessor(beans);
+            contexto.getBeanFactory().registerSingleton(BEAN, this);
+        } else if (event instanceof AvailabilityChangeEvent
+                && ((AvailabilityChangeEvent<?>) event).getState() == ReadinessState.ACCEPTING_TRAFFIC && prontoMs == null) {
+            pronto();
+        }
+    }
+
+    // Antes dos demais listeners, assim o tempo deles fica na fase seguinte
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    public InicializacaoResponse relatorio(int limite) {
+        var criados = beans == null ? List.<InicializacaoBeanResponse>of() : beans.listar();
+
+        var origens = criados.stream()
+                .collect(Collectors.groupingBy(InicializacaoBeanResponse::getOrigem))
+                .entrySet().stream()
+                .map(origem -> InicializacaoOrigemResponse.builder()
+                        .origem(origem.getKey())
+                        .beans(origem.getValue().size())
+                        .proprioMs(Math.round(origem.getValue().stream().mapToDouble(InicializacaoBeanResponse::getProprioMs).sum() * 100) / 100d)
+                        .build())
+                .sorted(Comparator.comparingDouble(InicializacaoOrigemResponse::getProprioMs).reversed())
+                .limit(limite)
+                .collect(Collectors.toList());
+
+        return InicializacaoResponse.builder()
+                .prontoMs(prontoMs)
+                .primeiraRequisicaoMs(primeiraRequisicaoMs)
+                .fases(listarFases())
+                .beansCriados(criados.size())
+                .beans(criados.stream()
+                        .sorted(Comparator.comparingDouble(InicializacaoBeanResponse::getProprioMs).reversed())
+                        .limit(limite)
+                        .collect(Collectors.toList()))
+                .origens(origens)
+                .build();
+    }
+
+    private synchronized void marcar(String fase) {
+        // Um contexto filho também publica ContextRefreshedEvent, vale o primeiro
+        fases.putIfAbsent(fase, System.currentTimeMillis() - inicioJvm);
+    }
+
+    private synchronized List<InicializacaoFaseResponse> listarFases() {
+        var lista = new ArrayList<InicializacaoFaseResponse>();
+        var anterior = 0L;
+        for (var fase : fases.entrySet()) {
+            lista.add(InicializacaoFaseResponse.builder()
+                    .nome(fase.getKey())
+                    .duracaoMs(fase.getValue() - anterior)
+                    .fimMs(fase.getValue())
+                    .build());
+            anterior = fase.getValue();
+        }
+        return lista;
+    }
+
+    private void pronto() {
+        marcar(FASE_EVENTOS_PRONTO);
+        prontoMs = System.currentTimeMillis() - inicioJvm;
+        beans.subiu();
+
+        var ambiente = contexto.getEnvironment();
+        contexto.getBeanProvider(MeterRegistry.class).ifAvailable(this::registrarMetricas);
+
+        if (ambiente.getProperty("usuario.inicializacao.relatorio", Boolean.class, true)) {
+            var relatorio = relatorio(ambiente.getProperty("usuario.inicializacao.relatorio-limite", Integer.class, 10));
+            log.info("Aplicação pronta em {} ms desde o inicio da jvm, {} beans criados. Fases: {}", prontoMs, relatorio.getBeansCriados(),
+                    relatorio.getFases().stream().map(fase -> fase.getNome() + " " + fase.getDuracaoMs() + " ms").collect(Collectors.joining(", ")));
+            log.info("Beans mais demorados (tempo proprio): {}", relatorio.getBeans().stream()
+                    .map(bean -> bean.getNome() + " " + bean.getProprioMs() + " ms").collect(Collectors.joining(", ")));
+            log.info("Configurações mais demoradas (soma dos beans): {}", relatorio.getOrigens().stream()
+                    .map(origem -> origem.getOrigem() + " " + origem.getProprioMs() + " ms").collect(Collectors.joining(", ")));
+        }
+
+        // Execução de treino do arquivo cds (profile maven cds): as classes usadas para subir já foram carregadas
+        if (ambiente.getProperty("usuario.inicializacao.encerrar-apos-subir", Boolean.class, false)) {
+            log.info("Encerrando a aplicação depois de subir (usuario.inicializacao.encerrar-apos-subir)");
+            System.exit(SpringApplication.exit(contexto));
+        }
+    }
+
+    private void primeiraRequisicao() {
+        primeiraRequisicaoMs = System.currentTimeMillis() - inicioJvm;
+        log.info("Primeira requisição atendida {} ms depois do inicio da jvm", primeiraRequisicaoMs);
+    }
+
+    private void registrarMetricas(MeterRegistry meterRegistry) {
+        for (var fase : listarFases()) {
+            TimeGauge.builder("aplicacao.inicializacao.fase", fase, TimeUnit.MILLISECONDS, InicializacaoFaseResponse::getDuracaoMs)
+                    .tag("fase", fase.getNome())
+                    .description("Duração de cada fase da inicialização da aplicação")
+                    .register(meterRegistry);
+        }
+        TimeGauge.builder("aplicacao.inicializacao.marco", this, TimeUnit.MILLISECONDS, tempos -> tempos.prontoMs)
+                .tag("marco", "pronto")
+                .description("Tempo desde o inicio da jvm até cada marco da inicialização")
+                .register(meterRegistry);
+        // NaN até a primeira requisição
+        TimeGauge.builder("aplicacao.inicializacao.marco", this, TimeUnit.MILLISECONDS,
+                tempos -> tempos.primeiraRequisicaoMs == null ? Double.NaN : tempos.primeiraRequisicaoMs)
+                .tag("marco", "primeira-requisicao")
+                .description("Tempo desde o inicio da jvm até cada marco da inicialização")
+                .register(meterRegistry);
+    }
+
+}
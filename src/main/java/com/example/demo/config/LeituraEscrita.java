@@ -0,0 +1,48 @@
+package com.example.demo.config;
+
+import java.util.function.Supplier;
+
+// Indica se as leituras da thread atual precisam ir para o banco primario mesmo sendo somente leitura
+// Usado pelo LeituraEscritaDataSource quando usuario.leitura.replicas está configurado, sem ele não tem efeito
+public final class LeituraEscrita {
+
+    private static final ThreadLocal<Boolean> PRIMARIO = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private LeituraEscrita() {
+    }
+
+    // Executa a ação lendo do primario. Para leituras cujo resultado fica guardado em memória (caches, indices):
+    // uma replica atrasada deixaria ali um valor antigo até ele expirar
+    public static <T> T noPrimario(Supplier<T> acao) {
+        var anterior = PRIMARIO.get();
+        PRIMARIO.set(Boolean.TRUE);
+        try {
+            return acao.get();
+        } finally {
+            PRIMARIO.set(anterior);
+        }
+    }
+
+    // Leva a escolha da thread atual para uma ação que vai rodar em outra thread (executores), que não herda o ThreadLocal
+    // Sem isso uma requisição marcada para ler do primario (ver LeituraEscritaFilter) leria das replicas nessas ações
+    public static <T> Supplier<T> propagar(Supplier<T> acao) {
+        if (!PRIMARIO.get()) {
+            return acao;
+        }
+        return () -> noPrimario(acao);
+    }
+
+    static boolean isPrimario() {
+        return PRIMARIO.get();
+    }
+
+    // Usados pelo LeituraEscritaFilter, que marca a requisição inteira
+    static void usarPrimario() {
+        PRIMARIO.set(Boolean.TRUE);
+    }
+
+    static void liberar() {
+        PRIMARIO.remove();
+    }
+
+}
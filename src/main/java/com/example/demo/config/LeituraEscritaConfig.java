@@ -0,0 +1,59 @@
+package com.example.demo.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Separa leituras e escritas entre bancos diferentes, ligado apenas quando usuario.leitura.replicas está configurado
+// O spring.datasource continua sendo o primario, e cada url de usuario.leitura.replicas vira um pool de conexões
+// com o mesmo usuario, senha e configurações do hikari. As transações somente leitura vão para as replicas
+// (ver LeituraEscritaDataSource) e o LeituraEscritaFilter garante que o cliente leia o que acabou de escrever
+//
+// As replicas são só leitura para a aplicação: a replicação dos dados é feita pelo banco
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty("usuario.leitura.replicas")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class LeituraEscritaConfig {
+
+    private PoolsHikari pools;
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties dataSourceProperties, Environment environment, MeterRegistry meterRegistry,
+                                 @Value("${usuario.leitura.replicas}") List<String> replicas) {
+        pools = new PoolsHikari(dataSourceProperties, environment, meterRegistry);
+        var primario = pools.criar(dataSourceProperties.determineUrl(), LeituraEscritaDataSource.PRIMARIO);
+
+        var replicasPorNome = new LinkedHashMap<String, DataSource>();
+        for (int i = 0; i < replicas.size(); i++) {
+            var nome = "replica-" + (i + 1);
+            var replica = pools.criar(replicas.get(i).trim(), nome);
+            replica.setReadOnly(true);
+            replicasPorNome.put(nome, replica);
+        }
+
+        // O JPA pede a conexão ao abrir a transação, antes de o spring marcar a transação como somente leitura
+        // Com o LazyConnectionDataSourceProxy a conexão real só é escolhida no primeiro comando sql
+        return new LazyConnectionDataSourceProxy(new LeituraEscritaDataSource(primario, replicasPorNome));
+    }
+
+    @PreDestroy
+    public void fecharPools() {
+        if (pools != null) {
+            pools.fechar();
+        }
+    }
+
+}
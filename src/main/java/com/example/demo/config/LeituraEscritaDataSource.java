@@ -0,0 +1,42 @@
+package com.example.demo.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// DataSource que escolhe o banco a cada conexão: transações somente leitura (@Transactional(readOnly = true))
+// vão para uma das replicas, em rodizio, e todo o resto vai para o primario
+// A escolha depende da transação já ter começado, por isso ele sempre fica atrás de um LazyConnectionDataSourceProxy,
+// que só pede a conexão no primeiro comando sql (ver LeituraEscritaConfig)
+class LeituraEscritaDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARIO = "primario";
+
+    private final List<String> replicas;
+
+    private final AtomicInteger proxima = new AtomicInteger();
+
+    LeituraEscritaDataSource(DataSource primario, Map<String, DataSource> replicas) {
+        var alvos = new HashMap<Object, Object>(replicas);
+        alvos.put(PRIMARIO, primario);
+        setTargetDataSources(alvos);
+        setDefaultTargetDataSource(primario);
+        this.replicas = List.copyOf(replicas.keySet());
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        // Fora de transação (criação das tabelas, por exemplo) e em qualquer escrita, sempre o primario
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || LeituraEscrita.isPrimario()) {
+            return PRIMARIO;
+        }
+        return replicas.get(Math.floorMod(proxima.getAndIncrement(), replicas.size()));
+    }
+
+}
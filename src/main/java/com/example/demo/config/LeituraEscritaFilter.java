@@ -0,0 +1,83 @@
+package com.example.demo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+
+// Lê-o-que-escreveu: depois de uma alteração o cliente lê do primario por usuario.leitura.janela-primario,
+// pois as replicas podem ainda não ter recebido a alteração
+// Toda requisição que altera dados (POST, PUT, PATCH, DELETE) devolve um cookie com o horario até quando o cliente lê
+// do primario. Requisições com esse cookie dentro do prazo fazem todas as leituras no primario
+// O prazo fica no cookie, e não na memória do servidor, então vale para qualquer instancia da aplicação
+// O cookie vem do cliente, que pode trocar o valor: um prazo acima de agora + janela é limitado a agora + janela, assim
+// ninguém prende as suas leituras no primario por mais tempo que a janela configurada
+@Component
+@Profile("!reactive")
+@ConditionalOnProperty("usuario.leitura.replicas")
+public class LeituraEscritaFilter extends OncePerRequestFilter {
+
+    public static final String COOKIE = "usuario-primario-ate";
+
+    private static final Set<String> ALTERACOES = Set.of("POST", "PUT", "PATCH", "DELETE");
+
+    private final Duration janela;
+
+    public LeituraEscritaFilter(@Value("${usuario.leitura.janela-primario:5s}") Duration janela) {
+        this.janela = janela;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        var agora = System.currentTimeMillis();
+
+        // O cookie precisa ir antes do corpo da resposta. Mesmo que a alteração falhe, ler do primario não tem problema
+        if (ALTERACOES.contains(request.getMethod())) {
+            var cookie = new Cookie(COOKIE, String.valueOf(agora + janela.toMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, janela.toSeconds()));
+            response.addCookie(cookie);
+        }
+
+        if (Math.min(primarioAte(request), agora + janela.toMillis()) <= agora) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        try {
+            LeituraEscrita.usarPrimario();
+            filterChain.doFilter(request, response);
+        } finally {
+            LeituraEscrita.liberar();
+        }
+    }
+
+    private static long primarioAte(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return 0;
+        }
+        return Arrays.stream(request.getCookies())
+                .filter(cookie -> COOKIE.equals(cookie.getName()))
+                .mapToLong(cookie -> {
+                    try {
+                        return Long.parseLong(cookie.getValue());
+                    } catch (NumberFormatException numberFormatException) {
+                        return 0;
+                    }
+                })
+                .max()
+                .orElse(0);
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.example.demo.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cria pools de conexão com a mesma configuração do spring.datasource e do spring.datasource.hikari, trocando apenas a url
+// Usado quando a aplicação fala com mais de um banco (replicas de leitura, shards). Os pools não são beans,
+// para não aparecerem como mais de um DataSource para o JPA, por isso quem cria também precisa fechar (ver fechar)
+class PoolsHikari {
+
+    private final DataSourceProperties dataSourceProperties;
+
+    private final Environment environment;
+
+    private final MeterRegistry meterRegistry;
+
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    PoolsHikari(DataSourceProperties dataSourceProperties, Environment environment, MeterRegistry meterRegistry) {
+        this.dataSourceProperties = dataSourceProperties;
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // O nome do pool aparece nas metricas hikaricp.* (tag pool)
+    HikariDataSource criar(String url, String nome) {
+        var pool = dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .url(url)
+                .build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        pool.setPoolName(nome);
+        pool.setMetricRegistry(meterRegistry);
+        pools.add(pool);
+        return pool;
+    }
+
+    void fechar() {
+        pools.forEach(HikariDataSource::close);
+    }
+
+}
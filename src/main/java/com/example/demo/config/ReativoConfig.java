@@ -0,0 +1,47 @@
+package com.example.demo.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.web.ReactivePageableHandlerMethodArgumentResolver;
+import org.springframework.data.web.ReactiveSortHandlerMethodArgumentResolver;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.result.method.annotation.ArgumentResolverConfigurer;
+
+// Configurações necessarias apenas no profile reactive
+@Configuration
+@Profile("reactive")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReativoConfig implements WebFluxConfigurer {
+
+    // Quando existe uma conexão R2DBC o spring boot deixa de criar o datasource jdbc, e sem ele o JPA não sobe
+    // O JPA continua sendo usado para criar as tabelas e pelos demais serviços, então o datasource é criado aqui,
+    // com as mesmas propriedades spring.datasource do application.yaml
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties dataSourceProperties) {
+        return dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+    }
+
+    // Com o tomcat no classpath (spring-boot-starter-web) o spring boot prefere ele também para o webflux
+    // Declarando a fabrica do netty, o servidor passa a ser o netty, com poucas threads de event loop
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    // O spring boot só registra o Pageable como parametro de controller no spring mvc
+    // No webflux o resolver precisa ser adicionado manualmente, com o mesmo comportamento (@PageableDefault, sort=campo,DESC)
+    @Override
+    public void configureArgumentResolvers(ArgumentResolverConfigurer configurer) {
+        configurer.addCustomResolver(new ReactivePageableHandlerMethodArgumentResolver(new ReactiveSortHandlerMethodArgumentResolver()));
+    }
+
+}
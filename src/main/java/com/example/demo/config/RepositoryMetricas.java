@@ -0,0 +1,66 @@
+package com.example.demo.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Mede o tempo de cada método chamado nos repositories (findById, findSlice, saveAll...), publicado como spring.data.repository.invocations
+// Junto com http.server.requests (tempo total do endpoint) e hikaricp.connections.acquire (espera por uma conexão)
+// mostra se uma requisição lenta está no banco, no pool ou no restante (serialização, regras do serviço)
+//
+// @Aspect intercepta as chamadas que combinam com a expressão do @Around, sem alterar os repositories
+// A expressão pega todos os métodos de qualquer interface que extenda Repository do spring data
+@Aspect
+@Component
+public class RepositoryMetricas {
+
+    private static final String METRICA = "spring.data.repository.invocations";
+
+    private final MeterRegistry meterRegistry;
+
+    // Classe do proxy -> nome do repository, calculado uma vez por repository
+    private final Map<Class<?>, String> nomes = new ConcurrentHashMap<>();
+
+    public RepositoryMetricas(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object medir(ProceedingJoinPoint joinPoint) throws Throwable {
+        var inicio = Timer.start(meterRegistry);
+        var excecao = "none";
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable throwable) {
+            excecao = throwable.getClass().getSimpleName();
+            throw throwable;
+        } finally {
+            inicio.stop(Timer.builder(METRICA)
+                    .description("Tempo das chamadas aos repositories")
+                    .tag("repository", nomeRepository(joinPoint.getThis()))
+                    .tag("method", joinPoint.getSignature().getName())
+                    .tag("exception", excecao)
+                    .register(meterRegistry));
+        }
+    }
+
+    // O método pode ter sido declarado em CrudRepository ou JpaRepository (findById, saveAll)
+    // O nome usado é o da interface da aplicação (UsuarioRepository), a primeira implementada pelo proxy do spring data
+    private String nomeRepository(Object proxy) {
+        return nomes.computeIfAbsent(proxy.getClass(), classe -> Arrays.stream(AopProxyUtils.proxiedUserInterfaces(proxy))
+                .filter(Repository.class::isAssignableFrom)
+                .findFirst()
+                .map(Class::getSimpleName)
+                .orElse(classe.getSimpleName()));
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.example.demo.config;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+// Guarda, durante a chamada de um repository, qual método e com quais tipos de argumento ele foi chamado
+// Ex: UsuarioRepository.findSlice(UsuarioCriterio, PageRequest)
+// Apenas os tipos: os valores (nomes, emails) iriam parar no log e na resposta de /api/v1/admin/sql/lentas
+// Usado pelo ConsultasLentas para dizer de onde veio um sql lento
+@Aspect
+@Component
+public class RepositoryOrigem {
+
+    private static final ThreadLocal<String> ATUAL = new ThreadLocal<>();
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object registrar(ProceedingJoinPoint joinPoint) throws Throwable {
+        var anterior = ATUAL.get();
+
+        // Um repository pode chamar outro (ou a si mesmo), a origem é sempre a chamada mais externa
+        if (anterior == null) {
+            ATUAL.set(joinPoint.getSignature().getDeclaringType().getSimpleName() + "." + joinPoint.getSignature().getName()
+                    + Arrays.stream(joinPoint.getArgs())
+                    .map(argumento -> argumento == null ? "null" : argumento.getClass().getSimpleName())
+                    .collect(Collectors.joining(", ", "(", ")")));
+        }
+        try {
+            return joinPoint.proceed();
+        } finally {
+            if (anterior == null) {
+                ATUAL.remove();
+            }
+        }
+    }
+
+    // Origem da chamada de repository em andamento na thread atual, ou null fora de um repository
+    static String atual() {
+        return ATUAL.get();
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.example.demo.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+
+// DataSource que escolhe o shard a cada conexão, de acordo com o shard da thread atual (ver Shards)
+// Assim como o LeituraEscritaDataSource, fica atrás de um LazyConnectionDataSourceProxy (ver ShardingConfig)
+class ShardDataSource extends AbstractRoutingDataSource {
+
+    ShardDataSource(List<? extends DataSource> shards) {
+        var alvos = new HashMap<Object, Object>();
+        for (int i = 0; i < shards.size(); i++) {
+            alvos.put(i, shards.get(i));
+        }
+        setTargetDataSources(alvos);
+        setDefaultTargetDataSource(shards.get(0));
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return Shards.atual();
+    }
+
+}
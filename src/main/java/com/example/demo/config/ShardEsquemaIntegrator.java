@@ -0,0 +1,36 @@
+package com.example.demo.config;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+
+// O spring.jpa.hibernate.ddl-auto cria as tabelas apenas no banco da conexão sem shard, o shard 0
+// Esse integrator é chamado pelo hibernate ao montar o EntityManagerFactory e aplica a mesma ação nos demais shards
+// A exclusão das tabelas no fim (create-drop) não é repetida nos outros shards
+class ShardEsquemaIntegrator implements Integrator {
+
+    private final int quantidade;
+
+    ShardEsquemaIntegrator(int quantidade) {
+        this.quantidade = quantidade;
+    }
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        var configuracoes = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        for (int shard = 1; shard < quantidade; shard++) {
+            Shards.noShard(shard, () -> {
+                SchemaManagementToolCoordinator.process(metadata, serviceRegistry, configuracoes, acao -> { });
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.example.demo.config;
+
+import com.example.demo.domain.model.UsuarioIdGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+// Distribui a tabela usuario entre varios bancos, ligado apenas quando usuario.sharding.shards está configurado
+// Cada url de usuario.sharding.shards vira um pool de conexões (shard-0, shard-1, ...) com o mesmo usuario, senha e
+// configurações do hikari do spring.datasource, cuja url deixa de ser usada
+//
+// O shard de um usuario faz parte do id dele (ver UsuarioIdGenerator), então buscar, alterar e excluir por id vai direto
+// ao shard certo, e as listagens consultam todos os shards em paralelo e juntam os resultados (ver UsuarioShards)
+// A ordem das urls não pode mudar depois que existirem usuarios gravados, e não é usado junto com usuario.leitura.replicas
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty("usuario.sharding.shards")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ShardingConfig {
+
+    private final List<String> shards;
+
+    private final int instancia;
+
+    private PoolsHikari pools;
+
+    public ShardingConfig(@Value("${usuario.sharding.shards}") List<String> shards,
+                          @Value("${usuario.sharding.instancia:0}") int instancia) {
+        if (shards.size() > UsuarioIdGenerator.MAXIMO_SHARDS) {
+            throw new IllegalStateException("usuario.sharding.shards aceita no maximo " + UsuarioIdGenerator.MAXIMO_SHARDS + " shards");
+        }
+        if (instancia < 0 || instancia >= UsuarioIdGenerator.MAXIMO_INSTANCIAS) {
+            throw new IllegalStateException("usuario.sharding.instancia deve estar entre 0 e " + (UsuarioIdGenerator.MAXIMO_INSTANCIAS - 1));
+        }
+        this.shards = shards;
+        this.instancia = instancia;
+    }
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties dataSourceProperties, Environment environment, MeterRegistry meterRegistry) {
+        pools = new PoolsHikari(dataSourceProperties, environment, meterRegistry);
+        var pools = new ArrayList<DataSource>();
+        for (int i = 0; i < shards.size(); i++) {
+            pools.add(this.pools.criar(shards.get(i).trim(), "shard-" + i));
+        }
+
+        // O shard é escolhido pelo serviço depois de a transação começar, então a conexão real só pode ser pedida
+        // no primeiro comando sql, o que o LazyConnectionDataSourceProxy garante
+        return new LazyConnectionDataSourceProxy(new ShardDataSource(pools));
+    }
+
+    // O gerador de ids é criado pelo hibernate, então recebe a configuração pelas propriedades do hibernate
+    // O integrator cria as tabelas nos shards além do primeiro (quando o ddl-auto cria, sem o flyway)
+    // Com o open-in-view o EntityManager dura a requisição inteira, e por padrão guarda a conexão da primeira transação
+    // até o fim dela. Devolvendo a conexão ao fim de cada transação, uma requisição pode ter uma transação em cada shard
+    // (lote, importação e exportação)
+    @Bean
+    public HibernatePropertiesCustomizer shardingHibernatePropertiesCustomizer() {
+        return propriedades -> {
+            propriedades.put(AvailableSettings.CONNECTION_HANDLING, PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+            propriedades.put(UsuarioIdGenerator.SHARDS, shards.size());
+            propriedades.put(UsuarioIdGenerator.INSTANCIA, instancia);
+            propriedades.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER,
+                    (IntegratorProvider) () -> List.of(new ShardEsquemaIntegrator(shards.size())));
+        };
+    }
+
+    // Com o flyway ligado (profile rapido) as migrações são aplicadas em cada shard, uma depois da outra
+    // O flyway pede as conexões ao dataSource acima, que as direciona para o shard atual
+    @Bean
+    public FlywayMigrationStrategy shardingFlywayMigrationStrategy() {
+        return flyway -> {
+            for (int shard = 0; shard < shards.size(); shard++) {
+                Shards.noShard(shard, flyway::migrate);
+            }
+        };
+    }
+
+    @PreDestroy
+    public void fecharPools() {
+        if (pools != null) {
+            pools.fechar();
+        }
+    }
+
+}
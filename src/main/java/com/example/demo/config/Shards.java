@@ -0,0 +1,36 @@
+package com.example.demo.config;
+
+import java.util.function.Supplier;
+
+// Indica em qual shard as operações da thread atual devem ser executadas
+// Usado pelo ShardDataSource e pelo gerador de ids quando usuario.sharding.shards está configurado, sem ele não tem efeito
+// Sem shard informado tudo vai para o shard 0
+public final class Shards {
+
+    private static final ThreadLocal<Integer> ATUAL = new ThreadLocal<>();
+
+    private Shards() {
+    }
+
+    // Executa a ação no shard informado. Dentro de uma transação o shard precisa ser escolhido antes do primeiro
+    // comando sql, que é quando a conexão real é pedida ao ShardDataSource (ver ShardingConfig)
+    public static <T> T noShard(int shard, Supplier<T> acao) {
+        var anterior = ATUAL.get();
+        ATUAL.set(shard);
+        try {
+            return acao.get();
+        } finally {
+            if (anterior == null) {
+                ATUAL.remove();
+            } else {
+                ATUAL.set(anterior);
+            }
+        }
+    }
+
+    public static int atual() {
+        var shard = ATUAL.get();
+        return shard == null ? 0 : shard;
+    }
+
+}
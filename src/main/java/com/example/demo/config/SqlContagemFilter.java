@@ -0,0 +1,72 @@
+package com.example.demo.config;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// Informa quantos comandos sql cada requisição executou, nos headers X-Sql-* da resposta e no log (nivel debug)
+// Ex: X-Sql-Select: 1, X-Sql-Update: 1. Facilita perceber uma consulta a mais escondida em uma alteração,
+// e os testes usam esses headers para garantir a quantidade de consultas de cada endpoint
+//
+// A contagem é feita pelo DataSourceQueryCountListener (DataSourceProxyConfig), por thread,
+// então considera apenas o que foi executado na thread da requisição
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "usuario.sql.contagem", havingValue = "true")
+public class SqlContagemFilter extends OncePerRequestFilter {
+
+    public static final String HEADER_SELECT = "X-Sql-Select";
+    public static final String HEADER_INSERT = "X-Sql-Insert";
+    public static final String HEADER_UPDATE = "X-Sql-Update";
+    public static final String HEADER_DELETE = "X-Sql-Delete";
+    public static final String HEADER_OUTROS = "X-Sql-Other";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        QueryCountHolder.clear();
+
+        // Os headers precisam ser enviados antes do corpo, mas a contagem só é conhecida no fim
+        // Por isso o corpo fica em memória até o fim da requisição. A exportação escreve o corpo conforme lê do banco
+        // e não pode ser guardada em memória, então recebe apenas a linha de log
+        if (request.getRequestURI().endsWith("/export")) {
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                registrar(request, QueryCountHolder.getGrandTotal());
+                QueryCountHolder.clear();
+            }
+            return;
+        }
+
+        var respostaEmMemoria = new ContentCachingResponseWrapper(response);
+        try {
+            filterChain.doFilter(request, respostaEmMemoria);
+        } finally {
+            var contagem = QueryCountHolder.getGrandTotal();
+            respostaEmMemoria.setHeader(HEADER_SELECT, String.valueOf(contagem.getSelect()));
+            respostaEmMemoria.setHeader(HEADER_INSERT, String.valueOf(contagem.getInsert()));
+            respostaEmMemoria.setHeader(HEADER_UPDATE, String.valueOf(contagem.getUpdate()));
+            respostaEmMemoria.setHeader(HEADER_DELETE, String.valueOf(contagem.getDelete()));
+            respostaEmMemoria.setHeader(HEADER_OUTROS, String.valueOf(contagem.getOther()));
+            registrar(request, contagem);
+            QueryCountHolder.clear();
+            respostaEmMemoria.copyBodyToResponse();
+        }
+    }
+
+    private void registrar(HttpServletRequest request, QueryCount contagem) {
+        log.debug("{} {}: {} select, {} insert, {} update, {} delete, {} outros", request.getMethod(), request.getRequestURI(),
+                contagem.getSelect(), contagem.getInsert(), contagem.getUpdate(), contagem.getDelete(), contagem.getOther());
+    }
+
+}
@@ -4,21 +4,46 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
 
 @Entity // Indica para o java que essa classe é de entidade de banco de dados, é usada em JPQL quando necessário (ver repository que terá um exemplo)
-@Table(name = "usuario") // Caso não seja anotada com @Table e passado um name, a tabela de banco criada será o nome da classe. Essa anotação não é obrigatória
+@Table(name = "usuario", // Caso não seja anotada com @Table e passado um name, a tabela de banco criada será o nome da classe. Essa anotação não é obrigatória
+        indexes = {
+                @Index(name = "idx_usuario_nome_id", columnList = "nome_usuario, id"), // Indice usado pela ordenação padrão e pela paginação por cursor
+                @Index(name = "idx_usuario_ativo_nome_id", columnList = "ativo, nome_usuario, id"), // O mesmo, para a listagem padrão que filtra por ativo
+                @Index(name = "idx_usuario_nome_busca", columnList = "nome_busca"), // Busca por nome sem diferenciar maiusculas
+                // Busca por email sem diferenciar maiusculas. Unico: como a coluna é o email em minusculas, "A@x.com" e "a@x.com"
+                // são o mesmo email. Usuarios sem email (null) não entram na comparação
+                @Index(name = Usuario.INDICE_EMAIL, columnList = "email_busca", unique = true),
+                @Index(name = "idx_usuario_ativo_inativacao", columnList = "ativo, data_hora_inativacao") // Busca dos usuarios a arquivar
+        })
 @Data // Anotação do lombok para GET, SET, Equals, HashCode e ToString
 @Builder // Anotação do lombok para criar um metodo do padrão builder para essa classe
 @NoArgsConstructor // Cria um construtor vazio usando lombok
 @AllArgsConstructor // Cria um construtor com todos os parametros usando lombok
 public class Usuario {
 
+    // Nome do indice unico de email, aparece na mensagem de erro do banco quando o email já está em uso
+    public static final String INDICE_EMAIL = "idx_usuario_email_busca";
+
     @Id // Indica para o java que esse campo é o Id da tabela
-    @GeneratedValue(strategy = GenerationType.IDENTITY) // Indica para o banco que o método de geração será usado tipo identity do banco
-    // Nem todos bancos suportam esse tipo de geração, podendo usar sequences também, como no oracle ou uma tabela de controle auto gerenciada
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "usuario_seq") // Indica que o id será gerado a partir de uma sequence
+    // Com GenerationType.IDENTITY o hibernate precisa executar cada insert imediatamente para descobrir o id gerado pelo banco,
+    // o que impede que os inserts sejam agrupados em batch JDBC (ver hibernate.jdbc.batch_size no application.yaml)
+    // Com allocationSize maior que 1 o hibernate usa o otimizador pooled: busca um bloco de ids por vez na sequence
+    // e gera os proximos em memória. Em bancos sem sequence (como o mysql) o hibernate simula a sequence com uma tabela
+    // O UsuarioIdGenerator é essa mesma sequence, mas com sharding gera ids que indicam o shard do usuario
+    @GenericGenerator(name = "usuario_seq", strategy = "com.example.demo.domain.model.UsuarioIdGenerator", parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "usuario_seq"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50")
+    })
     private Long id;
 
     @Column(name = "nome_usuario", nullable = false) // Indica que é uma coluna e permite algumas configurações
@@ -36,4 +61,61 @@ public class Usuario {
     @Builder.Default
     private boolean ativo = true;
 
+    // Controle de concorrencia otimista: a versão aumenta em 1 a cada alteração do usuario
+    // Com @Version o hibernate inclui "where versao = ?" nos updates da entidade e falha se outra transação alterou antes
+    // Os updates feitos com @Query precisam incrementar a versão eles mesmos (ver UsuarioRepository)
+    // É também o ETag do usuario, enviado no If-Match para atualizar apenas se ninguém alterou desde a leitura
+    // Primitivo para o spring data continuar decidindo entre insert e update pelo id
+    @Version
+    @Column(nullable = false)
+    private long versao;
+
+    // Ultima alteração do usuario, inclusive a exclusão. Enviada na resposta, o ETag do GET vem da versão (ver UsuarioApiController)
+    // Preenchida pelo antesDeGravar e pelos updates feitos com @Query, sempre com Usuario.agora()
+    @Column(name = "data_hora_atualizacao", nullable = false)
+    @Builder.Default
+    private LocalDateTime dataHoraAtualizacao = agora();
+
+    // Quando o usuario foi excluido, nulo enquanto ele estiver ativo
+    // Usado para arquivar os usuarios excluidos há muito tempo (ver UsuarioArquivamentoService)
+    @Column(name = "data_hora_inativacao")
+    private LocalDateTime dataHoraInativacao;
+
+    // Copias de nome e email em minusculas, usadas apenas nos filtros
+    // Uma consulta com lower(nome_usuario) = ? não usa o indice da coluna, já uma coluna normalizada com indice sim
+    // São preenchidas automaticamente antes de inserir ou atualizar (ver normalizarBusca)
+    @Column(name = "nome_busca")
+    private String nomeBusca;
+
+    @Column(name = "email_busca")
+    private String emailBusca;
+
+    // @PrePersist e @PreUpdate fazem o hibernate chamar esse método antes de todo insert e update da entidade
+    // Updates feitos direto com @Query não passam por aqui, precisam preencher as colunas de busca e a data de atualização também
+    // O @PreUpdate só é chamado quando alguma coluna mudou, então salvar sem alterações não muda a data de atualização
+    // O JPA permite apenas um método por evento em cada classe, por isso os dois passos ficam juntos aqui
+    @PrePersist
+    @PreUpdate
+    public void antesDeGravar() {
+        normalizarBusca();
+        dataHoraAtualizacao = agora();
+    }
+
+    public void normalizarBusca() {
+        nomeBusca = normalizar(nome);
+        emailBusca = normalizar(email);
+    }
+
+    // Data e hora atual em milissegundos, usada nas datas de atualização
+    // Os bancos guardam frações de segundo com precisões diferentes, e alguns arredondam o que não cabe
+    // Cortando antes de gravar, o valor que volta do banco é igual ao que ficou em memória, e o ETag também
+    public static LocalDateTime agora() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    // A mesma normalização precisa ser usada ao gravar e ao filtrar, por isso fica em um unico lugar
+    public static String normalizar(String valor) {
+        return valor == null ? null : valor.toLowerCase(Locale.ROOT);
+    }
+
 }
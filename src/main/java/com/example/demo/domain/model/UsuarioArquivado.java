@@ -0,0 +1,59 @@
+package com.example.demo.domain.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+// Usuarios excluidos há mais tempo que usuario.arquivamento.inativo-ha, movidos da tabela usuario
+// Assim a tabela usuario (e os seus indices) guarda praticamente só os usuarios ativos, que são os consultados
+// As colunas são as mesmas de Usuario, com o mesmo id, mais a data do arquivamento
+// As linhas são copiadas com insert ... select (ver UsuarioArquivadoRepository), essa entidade é usada apenas nas leituras
+@Entity
+@Table(name = "usuario_archive")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsuarioArquivado {
+
+    @Id // Sem @GeneratedValue, o id é o mesmo que o usuario tinha na tabela usuario
+    private Long id;
+
+    @Column(name = "nome_usuario", nullable = false)
+    private String nome;
+
+    @Column
+    private String email;
+
+    @Column(nullable = false)
+    private LocalDateTime dataHoraCriacao;
+
+    @Column(nullable = false)
+    private boolean ativo;
+
+    @Column(name = "nome_busca")
+    private String nomeBusca;
+
+    @Column(name = "email_busca")
+    private String emailBusca;
+
+    @Column(nullable = false)
+    private long versao;
+
+    @Column(name = "data_hora_atualizacao", nullable = false)
+    private LocalDateTime dataHoraAtualizacao;
+
+    @Column(name = "data_hora_inativacao")
+    private LocalDateTime dataHoraInativacao;
+
+    @Column(name = "data_hora_arquivamento", nullable = false)
+    private LocalDateTime dataHoraArquivamento;
+
+}
@@ -0,0 +1,89 @@
+package com.example.demo.domain.model;
+
+import com.example.demo.config.Shards;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+// Gerador do id de Usuario. Sem sharding é a sequence de sempre (SequenceStyleGenerator, o mesmo do @SequenceGenerator)
+// Com sharding (usuario.sharding.shards) cada banco teria a sua propria sequence e os ids se repetiriam entre os shards,
+// então o id é montado em memória no estilo snowflake, com 63 bits:
+//
+//   41 bits de milissegundos desde 2020 | 8 bits do shard | 6 bits da instancia | 8 bits de sequencia no milissegundo
+//
+// O shard fica dentro do id, então basta o id para saber em qual banco o usuario está (ver shardDe), sem tabela de rotas
+// A instancia (usuario.sharding.instancia) diferencia as aplicações que geram ids ao mesmo tempo, cada uma precisa de uma diferente
+// Os ids continuam crescendo com o tempo, o que mantem os inserts no fim do indice da chave primaria
+public class UsuarioIdGenerator extends SequenceStyleGenerator {
+
+    // Propriedades do hibernate preenchidas pelo ShardingConfig
+    public static final String SHARDS = "usuario.sharding.quantidade";
+    public static final String INSTANCIA = "usuario.sharding.instancia";
+
+    private static final long EPOCA = 1577836800000L; // 2020-01-01T00:00:00Z
+    private static final int BITS_SEQUENCIA = 8;
+    private static final int BITS_INSTANCIA = 6;
+    private static final int BITS_SHARD = 8;
+
+    public static final int MAXIMO_SHARDS = 1 << BITS_SHARD;
+    public static final int MAXIMO_INSTANCIAS = 1 << BITS_INSTANCIA;
+    private static final int MAXIMO_SEQUENCIA = 1 << BITS_SEQUENCIA;
+
+    private boolean sharding;
+
+    private long instancia;
+
+    private long ultimoMilissegundo;
+
+    private int sequencia;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) {
+        super.configure(type, params, serviceRegistry);
+        var configuracoes = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        sharding = configuracoes.containsKey(SHARDS);
+        instancia = ConfigurationHelper.getInt(INSTANCIA, configuracoes, 0);
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        if (!sharding) {
+            return super.generate(session, object);
+        }
+        // O shard da thread atual é o mesmo da conexão em que o insert vai ser executado
+        return proximo(Shards.atual());
+    }
+
+    private synchronized long proximo(int shard) {
+        // Se o relogio voltar, continua no ultimo milissegundo usado para não repetir ids
+        var agora = Math.max(System.currentTimeMillis(), ultimoMilissegundo);
+        if (agora == ultimoMilissegundo) {
+            sequencia++;
+            // A sequencia do milissegundo acabou, o proximo id usa o milissegundo seguinte
+            if (sequencia == MAXIMO_SEQUENCIA) {
+                agora++;
+                sequencia = 0;
+            }
+        } else {
+            sequencia = 0;
+        }
+        ultimoMilissegundo = agora;
+
+        return (agora - EPOCA) << (BITS_SHARD + BITS_INSTANCIA + BITS_SEQUENCIA)
+                | (long) shard << (BITS_INSTANCIA + BITS_SEQUENCIA)
+                | instancia << BITS_SEQUENCIA
+                | sequencia;
+    }
+
+    // Shard em que o usuario com esse id foi gravado
+    public static int shardDe(long id) {
+        return (int) (id >>> (BITS_INSTANCIA + BITS_SEQUENCIA)) & (MAXIMO_SHARDS - 1);
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.example.demo.domain.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+
+// Mapeamento da mesma tabela usuario para o R2DBC, usado apenas pelo profile reactive
+// O R2DBC não entende as anotações do JPA (javax.persistence), por isso é uma classe separada de Usuario
+// Aqui não existe @PrePersist, sequence automatica nem controle de alterações: cada operação é um comando sql explicito
+// (ver UsuarioReativoRepository)
+@Table("usuario")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsuarioReativo {
+
+    @Id
+    private Long id;
+
+    @Column("nome_usuario")
+    private String nome;
+
+    @Column("email")
+    private String email;
+
+    @Column("data_hora_criacao")
+    private LocalDateTime dataHoraCriacao;
+
+    // Sem @Version: os updates do UsuarioReativoRepository incrementam a versão no proprio sql
+    @Column("versao")
+    private long versao;
+
+    @Column("data_hora_atualizacao")
+    private LocalDateTime dataHoraAtualizacao;
+
+    @Column("ativo")
+    private boolean ativo;
+
+    @Column("nome_busca")
+    private String nomeBusca;
+
+    @Column("email_busca")
+    private String emailBusca;
+
+}
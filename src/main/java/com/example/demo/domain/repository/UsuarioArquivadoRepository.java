@@ -0,0 +1,47 @@
+package com.example.demo.domain.repository;
+
+import com.example.demo.domain.model.UsuarioArquivado;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+// Tabela usuario_archive, ver UsuarioArquivado
+public interface UsuarioArquivadoRepository extends JpaRepository<UsuarioArquivado, Long> {
+
+    // Mesma consulta de UsuarioRepository.findResponseById, na tabela de arquivados
+    @Transactional(readOnly = true)
+    @Query("select " + UsuarioRepositoryCustom.NOVO_RESPONSE + " from UsuarioArquivado u where u.id = :id")
+    Optional<UsuarioResponse> findResponseById(Long id);
+
+    @Transactional(readOnly = true)
+    @Query("select " + UsuarioRepositoryCustom.NOVO_RESPONSE + " from UsuarioArquivado u where u.id in :ids")
+    List<UsuarioResponse> findAllResponseByIdIn(Collection<Long> ids);
+
+    // insert ... select copia as linhas direto no banco, sem carregar as entidades na aplicação
+    // O JPQL não tem insert, por isso sql nativo (valido no H2 e no mysql)
+    // Só copia quem continua inativo, o mesmo filtro do delete em UsuarioRepository.deleteInativosById
+    @Modifying
+    @Query(nativeQuery = true, value = "insert into usuario_archive (id, nome_usuario, email, data_hora_criacao, ativo, nome_busca, email_busca, versao, data_hora_atualizacao, data_hora_inativacao, data_hora_arquivamento) "
+            + "select id, nome_usuario, email, data_hora_criacao, ativo, nome_busca, email_busca, versao, data_hora_atualizacao, data_hora_inativacao, :agora from usuario where id in :ids and ativo = false")
+    int arquivarTodosById(Collection<Long> ids, LocalDateTime agora);
+
+    // Caminho inverso, usado quando um usuario arquivado é atualizado (e com isso reativado)
+    // A linha volta já com o nome e o email da atualização: o email arquivado não é reservado e pode ter sido
+    // cadastrado por outro usuario depois do arquivamento, e copiá-lo esbarraria no indice unico de email_busca
+    @Modifying
+    @Query(nativeQuery = true, value = "insert into usuario (id, nome_usuario, email, data_hora_criacao, ativo, nome_busca, email_busca, versao, data_hora_atualizacao, data_hora_inativacao) "
+            + "select id, :nome, :email, data_hora_criacao, ativo, :nomeBusca, :emailBusca, versao, data_hora_atualizacao, data_hora_inativacao from usuario_archive where id = :id")
+    int restaurarById(Long id, String nome, String nomeBusca, String email, String emailBusca);
+
+    @Modifying
+    @Query("delete from UsuarioArquivado u where u.id = :id")
+    int removerById(Long id);
+
+}
@@ -0,0 +1,18 @@
+package com.example.demo.domain.repository;
+
+import lombok.Builder;
+import lombok.Data;
+
+// Filtro da listagem de usuarios, já no formato usado pelas consultas de UsuarioRepositoryImpl
+// Os campos nulos não filtram. ativo restringe o resultado, enquanto id, nome e email são alternativas entre si:
+// é retornado o usuario que tiver o id OU o nome OU o email informados
+@Data
+@Builder
+public class UsuarioCriterio {
+
+    private Long id;
+    private String nome; // Normalizado, comparado com a coluna nome_busca
+    private String email; // Normalizado, comparado com a coluna email_busca
+    private Boolean ativo;
+
+}
@@ -0,0 +1,36 @@
+package com.example.demo.domain.repository;
+
+import com.example.demo.domain.model.UsuarioReativo;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+// Equivalente reativo do UsuarioRepository, usado apenas pelo profile reactive
+// Os métodos retornam Mono (zero ou um resultado) e Flux (zero ou varios), que só executam quando alguém se inscreve
+// Diferente do JPA, aqui as @Query são sql nativo, com os nomes das colunas
+public interface UsuarioReativoRepository extends R2dbcRepository<UsuarioReativo, Long>, UsuarioReativoRepositoryCustom {
+
+    // Mesmo update do UsuarioRepository.updateDadosById, retorna a quantidade de linhas alteradas
+    @Modifying
+    @Query("update usuario set nome_usuario = :nome, nome_busca = :nomeBusca, email = :email, email_busca = :emailBusca, ativo = true, "
+            + "data_hora_inativacao = null, data_hora_atualizacao = :agora, versao = versao + 1 where id = :id")
+    Mono<Integer> updateDadosById(Long id, String nome, String nomeBusca, String email, String emailBusca, LocalDateTime agora);
+
+    // Mesmo update do UsuarioRepository.updateDadosByIdAndVersao, aplicado apenas na versão informada (If-Match)
+    @Modifying
+    @Query("update usuario set nome_usuario = :nome, nome_busca = :nomeBusca, email = :email, email_busca = :emailBusca, ativo = true, "
+            + "data_hora_inativacao = null, data_hora_atualizacao = :agora, versao = versao + 1 where id = :id and versao = :versao")
+    Mono<Integer> updateDadosByIdAndVersao(Long id, long versao, String nome, String nomeBusca, String email, String emailBusca, LocalDateTime agora);
+
+    // Exclusão logica em um unico comando, sem buscar o usuario antes
+    // As datas de inativação e de atualização e a versão só mudam na primeira exclusão
+    @Modifying
+    @Query("update usuario set data_hora_inativacao = case when ativo then :agora else data_hora_inativacao end, "
+            + "data_hora_atualizacao = case when ativo then :agora else data_hora_atualizacao end, "
+            + "versao = case when ativo then versao + 1 else versao end, ativo = false where id = :id")
+    Mono<Integer> desativarById(Long id, LocalDateTime agora);
+
+}
@@ -0,0 +1,23 @@
+package com.example.demo.domain.repository;
+
+import com.example.demo.domain.model.UsuarioReativo;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Consultas do UsuarioReativoRepository montadas manualmente em UsuarioReativoRepositoryImpl
+// Recebem o mesmo UsuarioCriterio das consultas do JPA
+public interface UsuarioReativoRepositoryCustom {
+
+    // As linhas são emitidas conforme chegam do banco e conforme o consumidor pede (backpressure)
+    Flux<UsuarioReativo> findAll(UsuarioCriterio criterio, Pageable pageable);
+
+    // Paginação por keyset, igual a UsuarioRepositoryCustom.findAllAfter
+    Flux<UsuarioReativo> findAllAfter(UsuarioCriterio criterio, String nome, Long id, int limite);
+
+    Mono<Long> count(UsuarioCriterio criterio);
+
+    // Insere com um id da sequence usuario_seq, a mesma usada pelo hibernate
+    Mono<UsuarioReativo> inserir(UsuarioReativo usuario);
+
+}
@@ -0,0 +1,184 @@
+package com.example.demo.domain.repository;
+
+import com.example.demo.domain.model.UsuarioReativo;
+import com.example.demo.exception.BadRequestException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Implementação das consultas de UsuarioReativoRepositoryCustom com o DatabaseClient do spring data r2dbc
+// Os filtros seguem as mesmas regras de UsuarioRepositoryImpl: ativo restringe, id, nome e email são alternativas entre si
+public class UsuarioReativoRepositoryImpl implements UsuarioReativoRepositoryCustom {
+
+    private static final String SELECT = "select id, nome_usuario, email, data_hora_criacao, versao, data_hora_atualizacao, ativo, nome_busca, email_busca from usuario";
+
+    // Campos que podem ser usados no sort, com a coluna correspondente
+    private static final Map<String, String> ORDENAVEIS = Map.of(
+            "id", "id",
+            "nome", "nome_usuario",
+            "email", "email",
+            "dataHoraCriacao", "data_hora_criacao",
+            "ativo", "ativo");
+
+    // Deve ser igual ao allocationSize da sequence em Usuario
+    private static final long TAMANHO_BLOCO_IDS = 50;
+
+    private final DatabaseClient databaseClient;
+
+    // Bloco de ids reservado na sequence, usado em memória como o otimizador pooled do hibernate
+    private long proximoId;
+    private long ultimoId = -1;
+
+    public UsuarioReativoRepositoryImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Flux<UsuarioReativo> findAll(UsuarioCriterio criterio, Pageable pageable) {
+        var filtro = filtro(criterio);
+        var sql = new StringBuilder(SELECT).append(filtro.where()).append(orderBy(pageable.getSort()));
+        if (pageable.isPaged()) {
+            sql.append(" limit :limite offset :deslocamento");
+            filtro.parametros.put("limite", pageable.getPageSize());
+            filtro.parametros.put("deslocamento", pageable.getOffset());
+        }
+        return executar(sql.toString(), filtro.parametros)
+                .as(UsuarioReativo.class)
+                .fetch()
+                .all();
+    }
+
+    @Override
+    public Flux<UsuarioReativo> findAllAfter(UsuarioCriterio criterio, String nome, Long id, int limite) {
+        var filtro = filtro(criterio);
+        if (nome != null && id != null) {
+            filtro.adicionar("(nome_usuario > :cursorNome or (nome_usuario = :cursorNome and id > :cursorId))");
+            filtro.parametros.put("cursorNome", nome);
+            filtro.parametros.put("cursorId", id);
+        }
+        filtro.parametros.put("limite", limite);
+        return executar(SELECT + filtro.where() + " order by nome_usuario asc, id asc limit :limite", filtro.parametros)
+                .as(UsuarioReativo.class)
+                .fetch()
+                .all();
+    }
+
+    @Override
+    public Mono<Long> count(UsuarioCriterio criterio) {
+        var filtro = filtro(criterio);
+        return executar("select count(*) from usuario" + filtro.where(), filtro.parametros)
+                .map(linha -> linha.get(0, Long.class))
+                .one();
+    }
+
+    @Override
+    public Mono<UsuarioReativo> inserir(UsuarioReativo usuario) {
+        return proximoId()
+                .flatMap(id -> {
+                    usuario.setId(id);
+                    return databaseClient.insert()
+                            .into(UsuarioReativo.class)
+                            .using(usuario)
+                            .then();
+                })
+                .thenReturn(usuario);
+    }
+
+    // A sequence é incrementada de 50 em 50, e o valor lido é o fim de um bloco de 50 ids reservado para quem leu
+    // É a mesma regra do otimizador pooled do hibernate, assim os ids gerados aqui e pelo JPA nunca se repetem
+    private Mono<Long> proximoId() {
+        return Mono.defer(() -> {
+            synchronized (this) {
+                if (proximoId <= ultimoId) {
+                    return Mono.just(proximoId++);
+                }
+            }
+            return databaseClient.execute("select next value for usuario_seq")
+                    .map(linha -> linha.get(0, Long.class))
+                    .one()
+                    .map(fimBloco -> {
+                        // O primeiro valor da sequence (1) não tem um bloco inteiro antes dele
+                        var inicioBloco = fimBloco >= TAMANHO_BLOCO_IDS ? fimBloco - TAMANHO_BLOCO_IDS + 1 : fimBloco;
+                        synchronized (this) {
+                            proximoId = inicioBloco + 1;
+                            ultimoId = fimBloco;
+                        }
+                        return inicioBloco;
+                    });
+        });
+    }
+
+    private DatabaseClient.GenericExecuteSpec executar(String sql, Map<String, Object> parametros) {
+        var execucao = databaseClient.execute(sql);
+        for (var parametro : parametros.entrySet()) {
+            execucao = execucao.bind(parametro.getKey(), parametro.getValue());
+        }
+        return execucao;
+    }
+
+    private Filtro filtro(UsuarioCriterio criterio) {
+        var filtro = new Filtro();
+
+        var alternativas = new ArrayList<String>();
+        if (criterio.getId() != null) {
+            alternativas.add("id = :id");
+            filtro.parametros.put("id", criterio.getId());
+        }
+        if (criterio.getNome() != null) {
+            alternativas.add("nome_busca = :nome");
+            filtro.parametros.put("nome", criterio.getNome());
+        }
+        if (criterio.getEmail() != null) {
+            alternativas.add("email_busca = :email");
+            filtro.parametros.put("email", criterio.getEmail());
+        }
+        if (!alternativas.isEmpty()) {
+            filtro.adicionar(alternativas.stream().collect(Collectors.joining(" or ", "(", ")")));
+        }
+
+        if (criterio.getAtivo() != null) {
+            filtro.adicionar("ativo = :ativo");
+            filtro.parametros.put("ativo", criterio.getAtivo());
+        }
+        return filtro;
+    }
+
+    private String orderBy(Sort sort) {
+        if (sort.isUnsorted()) {
+            return "";
+        }
+        return sort.stream()
+                .map(ordem -> {
+                    var coluna = ORDENAVEIS.get(ordem.getProperty());
+                    if (coluna == null) {
+                        throw new BadRequestException("Não é possivel ordenar por " + ordem.getProperty());
+                    }
+                    return coluna + (ordem.isAscending() ? " asc" : " desc");
+                })
+                .collect(Collectors.joining(", ", " order by ", ""));
+    }
+
+    private static class Filtro {
+
+        private final List<String> condicoes = new ArrayList<>();
+        private final Map<String, Object> parametros = new LinkedHashMap<>();
+
+        private void adicionar(String condicao) {
+            condicoes.add(condicao);
+        }
+
+        private String where() {
+            return condicoes.isEmpty() ? "" : condicoes.stream().collect(Collectors.joining(" and ", " where ", ""));
+        }
+
+    }
+
+}
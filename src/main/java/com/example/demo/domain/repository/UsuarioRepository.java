@@ -1,15 +1,28 @@
 package com.example.demo.domain.repository;
 
 import com.example.demo.domain.model.Usuario;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 // Faz o CRUD completo e mais algumas opções de filtragem, apenas por extender de jparepository
 // O primeiro parametro de jparepository é o tipo da classe de entidade, o segundo o tipo do Id dessa classe
 // Nenhum codigo precisa ser implementado, é isso que faz o spring data
-public interface UsuarioRepository extends JpaRepository<Usuario, Long> {
+// Extende também UsuarioRepositoryCustom, que tem as consultas implementadas manualmente em UsuarioRepositoryImpl
+public interface UsuarioRepository extends JpaRepository<Usuario, Long>, UsuarioRepositoryCustom {
 
     // Criando uma query JPQL para exemplificar, atenção que aqui valem os nomes das classes e objetos java
     // Sendo possivel retornar DTOs usando new e o nome completo do DTO, inclusive pacote
@@ -25,4 +38,93 @@ public interface UsuarioRepository extends JpaRepository<Usuario, Long> {
     // A consulta abaixo fará a mesma coisa que a de cima, só foram feitas de formas diferentes
     // Procure por querybyname spring data para ver mais
     List<Usuario> findAllByIdAndNomeOrderByNomeDesc(Long id, String nome);
+
+    // @Modifying indica que a @Query altera dados, e por isso retorna a quantidade de linhas afetadas
+    // Atualiza apenas as colunas que podem mudar, direto no banco, sem carregar a entidade antes
+    // Precisa ser chamado dentro de uma transação (@Transactional no serviço)
+    // As colunas de busca e a data de atualização recebem os valores do serviço, pois esse update não passa pelo @PreUpdate da entidade
+    // Pelo mesmo motivo a versão é incrementada aqui, o @Version só vale para a entidade
+    @Modifying
+    @Query("update Usuario u set u.nome = :nome, u.nomeBusca = :nomeBusca, u.email = :email, u.emailBusca = :emailBusca, u.ativo = true, "
+            + "u.dataHoraInativacao = null, u.dataHoraAtualizacao = :agora, u.versao = u.versao + 1 where u.id = :id")
+    int updateDadosById(Long id, String nome, String nomeBusca, String email, String emailBusca, LocalDateTime agora);
+
+    // O mesmo update, aplicado apenas se o usuario ainda estiver na versão informada
+    // A verificação acontece no proprio update, sem um select antes: 0 linhas alteradas significa
+    // que o usuario não existe ou que outra requisição já o alterou
+    @Modifying
+    @Query("update Usuario u set u.nome = :nome, u.nomeBusca = :nomeBusca, u.email = :email, u.emailBusca = :emailBusca, u.ativo = true, "
+            + "u.dataHoraInativacao = null, u.dataHoraAtualizacao = :agora, u.versao = u.versao + 1 where u.id = :id and u.versao = :versao")
+    int updateDadosByIdAndVersao(Long id, long versao, String nome, String nomeBusca, String email, String emailBusca, LocalDateTime agora);
+
+    // Exclusão logica de varios usuarios em um unico comando, usada pela fila de desativação (UsuarioDesativacaoFila)
+    // Ids que não existem ou que já estão inativos são apenas ignorados pelo banco, assim a data da inativação não muda
+    @Modifying
+    @Query("update Usuario u set u.ativo = false, u.dataHoraInativacao = :agora, u.dataHoraAtualizacao = :agora, u.versao = u.versao + 1 where u.id in :ids and u.ativo = true")
+    int desativarTodosById(Collection<Long> ids, LocalDateTime agora);
+
+    // Ids dos usuarios inativos desde antes do limite, para o arquivamento, dos mais antigos para os mais novos
+    // Filtro e ordem são as colunas do indice idx_usuario_ativo_inativacao, então o banco lê (e trava) apenas as linhas
+    // do lote, em ordem, sem percorrer os demais inativos. Por isso a data não pode estar dentro de uma função (coalesce)
+    // O lock (select ... for update) impede que um usuario seja reativado enquanto é copiado para usuario_archive
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select u.id from Usuario u where u.ativo = false and u.dataHoraInativacao < :limite order by u.dataHoraInativacao, u.id")
+    List<Long> findIdsInativosAntesDe(LocalDateTime limite, Pageable pageable);
+
+    @Modifying
+    @Query("delete from Usuario u where u.id in :ids and u.ativo = false")
+    int deleteInativosById(Collection<Long> ids);
+
+    // Preenchem as colunas de busca das linhas gravadas antes delas existirem (ver UsuarioPreenchimentoService)
+    // lower no banco é a mesma normalização de Usuario.normalizar. A versão não muda, a resposta da api continua a mesma
+    @Modifying
+    @Query("update Usuario u set u.nomeBusca = lower(u.nome) where u.nomeBusca is null and u.nome is not null")
+    int preencherNomeBusca();
+
+    @Modifying
+    @Query("update Usuario u set u.emailBusca = lower(u.email) where u.emailBusca is null and u.email is not null")
+    int preencherEmailBusca();
+
+    // Usuarios excluidos antes de existir a coluna data_hora_inativacao usam a data de criação, como se tivessem sido
+    // excluidos ao serem criados. Atendido pelo mesmo indice (ativo, data_hora_inativacao) do arquivamento
+    @Modifying
+    @Query("update Usuario u set u.dataHoraInativacao = u.dataHoraCriacao where u.ativo = false and u.dataHoraInativacao is null")
+    int preencherDataHoraInativacao();
+
+    // Ids dos usuarios com esse email (normalizado), atendida pelo indice unico em email_busca
+    // Retorna no maximo um id, exceto com sharding: o indice é de cada shard, ver UsuarioEmailFiltro
+    @Query("select u.id from Usuario u where u.emailBusca = :email")
+    List<Long> findIdsByEmailBusca(String email);
+
+    // O mesmo para varios emails (normalizados) de uma vez, usada pelo lote para verificar os emails de um pedaço em uma consulta
+    @Query("select " + UsuarioRepositoryCustom.NOVO_RESPONSE + " from Usuario u where u.emailBusca in :emails")
+    List<UsuarioResponse> findAllResponseByEmailBuscaIn(Collection<String> emails);
+
+    // Emails (em minusculas) usados por mais de um usuario, que impedem o indice unico de email_busca
+    // Só consultada quando o preenchimento do email_busca falha (ver UsuarioPreenchimentoService)
+    @Query("select lower(u.email) from Usuario u where u.email is not null group by lower(u.email) having count(u) > 1 order by lower(u.email)")
+    List<String> findEmailsRepetidos(Pageable pageable);
+
+    // Todos os emails cadastrados, lidos aos poucos, para montar o filtro de emails (ver UsuarioEmailFiltro)
+    // Precisa ser chamado dentro de uma transação, e o stream fechado depois de usado
+    @QueryHints({
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000")
+    })
+    @Query("select u.emailBusca from Usuario u where u.emailBusca is not null")
+    Stream<String> streamEmailBusca();
+
+    // Consultas de leitura que retornam o UsuarioResponse direto do banco, usando o select new citado acima
+    // Não cria a entidade Usuario, não a coloca no contexto de persistencia e não guarda a copia usada para detectar alterações,
+    // e não passa pelo UsuarioResponseMapper. Para listas grandes isso é bem menos objetos criados por requisição
+    // readOnly na transação e o hint READONLY deixam claro para o hibernate (e para o banco) que nada será alterado
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+    @Query("select " + UsuarioRepositoryCustom.NOVO_RESPONSE + " from Usuario u where u.id = :id")
+    Optional<UsuarioResponse> findResponseById(Long id);
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+    @Query("select " + UsuarioRepositoryCustom.NOVO_RESPONSE + " from Usuario u where u.id in :ids")
+    List<UsuarioResponse> findAllResponseByIdIn(Collection<Long> ids);
 }
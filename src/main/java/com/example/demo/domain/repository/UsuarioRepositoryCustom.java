@@ -0,0 +1,48 @@
+package com.example.demo.domain.repository;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+// Consultas que não podem ser feitas apenas com @Query ou query by name ficam nessa interface
+// O spring data procura uma classe com o mesmo nome da interface + Impl (UsuarioRepositoryImpl) e usa a implementação dela
+// Como UsuarioRepository também extende essa interface, os métodos aparecem junto com os do JpaRepository
+// Todas recebem o filtro como UsuarioCriterio, que é transformado em uma das consultas fixas de UsuarioRepositoryImpl
+// As listagens retornam o UsuarioResponse montado pela propria consulta, sem passar pela entidade
+public interface UsuarioRepositoryCustom {
+
+    // Expressão de construtor do JPQL, na mesma ordem do construtor de UsuarioResponse
+    String NOVO_RESPONSE = "new com.example.demo.dto.usuario.UsuarioResponse(u.id, u.nome, u.email, u.dataHoraCriacao, u.ativo, u.versao, u.dataHoraAtualizacao)";
+
+    // Paginação por keyset (seek): ao inves de pular as N primeiras linhas com offset, busca direto as linhas
+    // que vem depois do ultimo (nome, id) retornado, sempre ordenado por nome e id
+    // nome e id nulos significam a primeira pagina
+    @Transactional(readOnly = true)
+    List<UsuarioResponse> findAllAfter(UsuarioCriterio criterio, String nome, Long id, int limite);
+
+    // O mesmo, ordenado por nome_busca e id, com o cursor no nome em minusculas
+    // Usado com sharding, em que as paginas de cada shard são intercaladas em memória: a ordem do nome_usuario depende
+    // da collation do banco (ex: mysql sem diferenciar maiusculas), a do nome_busca, já em minusculas, não
+    @Transactional(readOnly = true)
+    List<UsuarioResponse> findAllAfterPorNomeBusca(UsuarioCriterio criterio, String nomeBusca, Long id, int limite);
+
+    // Paginação por offset retornando Slice ao inves de Page
+    // Page precisa do total de registros e por isso executa um select count(*) a mais em toda chamada
+    // Slice busca apenas uma linha a mais que o tamanho da pagina para saber se existe uma proxima
+    @Transactional(readOnly = true)
+    Slice<UsuarioResponse> findSlice(UsuarioCriterio criterio, Pageable pageable);
+
+    // Percorre todos os usuarios do filtro sem carregar a lista inteira em memória
+    // O banco envia as linhas em blocos de fetchSize conforme o stream é consumido
+    // Precisa ser chamado dentro de uma transação, e o stream precisa ser fechado (try-with-resources)
+    Stream<Usuario> streamAll(UsuarioCriterio criterio, int fetchSize);
+
+    @Transactional(readOnly = true)
+    long count(UsuarioCriterio criterio);
+
+}
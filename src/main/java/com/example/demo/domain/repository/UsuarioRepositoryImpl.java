@@ -0,0 +1,252 @@
+package com.example.demo.domain.repository;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.BadRequestException;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Implementação dos métodos de UsuarioRepositoryCustom, o nome da classe precisa terminar com Impl
+// Aqui é possivel usar o EntityManager diretamente, montando as consultas com Criteria ou JPQL
+//
+// O filtro não usa mais Example com matchingAny, que gerava lower(nome_usuario)=? or lower(email)=? or ativo=?:
+// nenhum indice atende esse or, e como o filtro padrão tem ativo=true ele trazia praticamente a tabela inteira.
+// Agora o filtro vira sempre uma das poucas consultas JPQL fixas abaixo, comparando colunas normalizadas com indice.
+// Como o texto das consultas se repete, o hibernate reaproveita o plano já compilado ao inves de montar um novo a cada chamada
+public class UsuarioRepositoryImpl implements UsuarioRepositoryCustom {
+
+    // Trechos de where fixos, um para cada campo do filtro
+    private static final String WHERE_ID = "u.id = :id";
+    private static final String WHERE_NOME = "u.nomeBusca = :nome";
+    private static final String WHERE_EMAIL = "u.emailBusca = :email";
+    private static final String WHERE_IDS = "u.id in :ids";
+    private static final String WHERE_ATIVO = "u.ativo = :ativo";
+    private static final String WHERE_APOS = "(u.nome > :cursorNome or (u.nome = :cursorNome and u.id > :cursorId))";
+    private static final String WHERE_APOS_BUSCA = "(u.nomeBusca > :cursorNome or (u.nomeBusca = :cursorNome and u.id > :cursorId))";
+
+    // As listagens montam o UsuarioResponse na propria consulta, o streamAll ainda retorna a entidade
+    private static final String SELECT_RESPONSE = "select " + NOVO_RESPONSE + " from Usuario u";
+
+    // Consultas por um unico campo, usadas para montar a união quando mais de um campo alternativo é enviado
+    private static final String IDS_POR_NOME = "select u.id from Usuario u where " + WHERE_NOME;
+    private static final String IDS_POR_EMAIL = "select u.id from Usuario u where " + WHERE_EMAIL;
+
+    // Campos que podem ser usados no sort, com o nome do atributo na entidade
+    // nomeBusca e emailBusca ordenam sem diferenciar maiusculas, e são os usados com sharding (ver UsuarioShards.comparador)
+    private static final Set<String> ORDENAVEIS = Set.of("id", "nome", "email", "dataHoraCriacao", "ativo", "nomeBusca", "emailBusca");
+
+    @PersistenceContext // Injeta o EntityManager da transação atual
+    private EntityManager entityManager;
+
+    // Acima desse numero de ids a união vira um or na propria consulta, para não montar um in gigante
+    @Value("${usuario.consulta.limite-uniao:1000}")
+    private int limiteUniao;
+
+    @Override
+    public List<UsuarioResponse> findAllAfter(UsuarioCriterio criterio, String nome, Long id, int limite) {
+        return findAllAfter(criterio, nome, id, limite, WHERE_APOS, " order by u.nome asc, u.id asc");
+    }
+
+    @Override
+    public List<UsuarioResponse> findAllAfterPorNomeBusca(UsuarioCriterio criterio, String nomeBusca, Long id, int limite) {
+        return findAllAfter(criterio, nomeBusca, id, limite, WHERE_APOS_BUSCA, " order by u.nomeBusca asc, u.id asc");
+    }
+
+    private List<UsuarioResponse> findAllAfter(UsuarioCriterio criterio, String nome, Long id, int limite, String apos, String orderBy) {
+        var plano = planejar(criterio);
+        if (plano.vazio) {
+            return List.of();
+        }
+
+        // Equivalente a where (nome, id) > (:nome, :id), escrito por extenso pois JPQL não suporta comparação de tuplas
+        // Com o indice em (nome_usuario, id) o banco posiciona direto na linha seguinte, sem ler as paginas anteriores
+        if (nome != null && id != null) {
+            plano.adicionar(apos);
+            plano.parametros.put("cursorNome", nome);
+            plano.parametros.put("cursorId", id);
+        }
+
+        return criarQuery(SELECT_RESPONSE + plano.where() + orderBy, UsuarioResponse.class, plano)
+                .setMaxResults(limite) // Vira um limit no sql, sem offset
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultList();
+    }
+
+    @Override
+    public Slice<UsuarioResponse> findSlice(UsuarioCriterio criterio, Pageable pageable) {
+        var plano = planejar(criterio);
+        if (plano.vazio) {
+            return new SliceImpl<>(List.of(), pageable, false);
+        }
+
+        var query = criarQuery(SELECT_RESPONSE + plano.where() + orderBy(pageable.getSort()), UsuarioResponse.class, plano)
+                .setHint(QueryHints.HINT_READONLY, true);
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset())
+                    .setMaxResults(pageable.getPageSize() + 1); // Uma linha a mais apenas para saber se existe proxima pagina
+        }
+
+        var usuarios = query.getResultList();
+        var existeProxima = pageable.isPaged() && usuarios.size() > pageable.getPageSize();
+
+        return new SliceImpl<>(existeProxima ? usuarios.subList(0, pageable.getPageSize()) : usuarios, pageable, existeProxima);
+    }
+
+    @Override
+    public Stream<Usuario> streamAll(UsuarioCriterio criterio, int fetchSize) {
+        var plano = planejar(criterio);
+        if (plano.vazio) {
+            return Stream.empty();
+        }
+
+        return criarQuery("select u from Usuario u" + plano.where() + " order by u.id asc", Usuario.class, plano)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize) // Quantas linhas o driver busca por vez
+                .setHint(QueryHints.HINT_READONLY, true) // O hibernate não guarda a copia usada para detectar alterações
+                .getResultStream();
+    }
+
+    @Override
+    public long count(UsuarioCriterio criterio) {
+        var plano = planejar(criterio);
+        if (plano.vazio) {
+            return 0;
+        }
+
+        return criarQuery("select count(u) from Usuario u" + plano.where(), Long.class, plano)
+                .getSingleResult();
+    }
+
+    // Escolhe a consulta de acordo com os campos preenchidos no filtro:
+    // - nenhum campo alternativo: apenas o ativo, atendido pelo indice (ativo, nome_usuario, id)
+    // - um campo alternativo: igualdade direta na coluna com indice
+    // - mais de um: busca os ids de cada campo separadamente, cada busca usando o seu indice, e filtra pela união deles
+    private Plano planejar(UsuarioCriterio criterio) {
+        var plano = new Plano();
+
+        var alternativos = (criterio.getId() != null ? 1 : 0) + (criterio.getNome() != null ? 1 : 0) + (criterio.getEmail() != null ? 1 : 0);
+        if (alternativos == 1) {
+            if (criterio.getId() != null) {
+                plano.adicionar(WHERE_ID);
+                plano.parametros.put("id", criterio.getId());
+            } else if (criterio.getNome() != null) {
+                plano.adicionar(WHERE_NOME);
+                plano.parametros.put("nome", criterio.getNome());
+            } else {
+                plano.adicionar(WHERE_EMAIL);
+                plano.parametros.put("email", criterio.getEmail());
+            }
+        } else if (alternativos > 1) {
+            planejarUniao(criterio, plano);
+        }
+
+        if (criterio.getAtivo() != null) {
+            plano.adicionar(WHERE_ATIVO);
+            plano.parametros.put("ativo", criterio.getAtivo());
+        }
+
+        return plano;
+    }
+
+    private void planejarUniao(UsuarioCriterio criterio, Plano plano) {
+        var ids = new LinkedHashSet<Long>();
+        if (criterio.getId() != null) {
+            ids.add(criterio.getId()); // O id não precisa de consulta, se não existir a consulta final simplesmente não o encontra
+        }
+        if (criterio.getNome() != null) {
+            ids.addAll(buscarIds(IDS_POR_NOME, "nome", criterio.getNome()));
+        }
+        if (criterio.getEmail() != null) {
+            ids.addAll(buscarIds(IDS_POR_EMAIL, "email", criterio.getEmail()));
+        }
+
+        if (ids.isEmpty()) {
+            plano.vazio = true; // Nenhum campo encontrou nada, não é necessario executar a consulta principal
+            return;
+        }
+
+        if (ids.size() <= limiteUniao) {
+            plano.adicionar(WHERE_IDS);
+            plano.parametros.put("ids", ids);
+            return;
+        }
+
+        // Muitos resultados: volta para o or, que alguns bancos ainda resolvem juntando os indices (index merge no mysql)
+        var alternativas = new StringBuilder("(");
+        if (criterio.getId() != null) {
+            alternativas.append(WHERE_ID).append(" or ");
+            plano.parametros.put("id", criterio.getId());
+        }
+        if (criterio.getNome() != null) {
+            alternativas.append(WHERE_NOME).append(" or ");
+            plano.parametros.put("nome", criterio.getNome());
+        }
+        if (criterio.getEmail() != null) {
+            alternativas.append(WHERE_EMAIL).append(" or ");
+            plano.parametros.put("email", criterio.getEmail());
+        }
+        alternativas.setLength(alternativas.length() - " or ".length());
+        plano.adicionar(alternativas.append(")").toString());
+    }
+
+    private List<Long> buscarIds(String jpql, String parametro, String valor) {
+        return entityManager.createQuery(jpql, Long.class)
+                .setParameter(parametro, valor)
+                .setMaxResults(limiteUniao + 1) // Basta saber se passou do limite
+                .getResultList();
+    }
+
+    private <T> TypedQuery<T> criarQuery(String jpql, Class<T> tipo, Plano plano) {
+        var query = entityManager.createQuery(jpql, tipo);
+        plano.parametros.forEach(query::setParameter);
+        return query;
+    }
+
+    // Converte o sort do pageable (ex: sort=nome,DESC) para o order by da consulta
+    // Apenas os campos conhecidos são aceitos, assim o texto da consulta continua dentro de um conjunto conhecido
+    private String orderBy(Sort sort) {
+        if (sort.isUnsorted()) {
+            return "";
+        }
+        return sort.stream()
+                .map(ordem -> {
+                    if (!ORDENAVEIS.contains(ordem.getProperty())) {
+                        throw new BadRequestException("Não é possivel ordenar por " + ordem.getProperty());
+                    }
+                    return "u." + ordem.getProperty() + (ordem.isAscending() ? " asc" : " desc");
+                })
+                .collect(Collectors.joining(", ", " order by ", ""));
+    }
+
+    // Condições e parametros escolhidos para um filtro
+    private static class Plano {
+
+        private final StringBuilder condicoes = new StringBuilder();
+        private final Map<String, Object> parametros = new HashMap<>();
+        private boolean vazio;
+
+        private void adicionar(String condicao) {
+            condicoes.append(condicoes.length() == 0 ? " where " : " and ").append(condicao);
+        }
+
+        private String where() {
+            return condicoes.toString();
+        }
+
+    }
+
+}
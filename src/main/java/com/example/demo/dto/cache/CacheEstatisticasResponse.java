@@ -0,0 +1,28 @@
+package com.example.demo.dto.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class CacheEstatisticasResponse {
+
+    private String nome;
+    private long tamanho; // Quantidade aproximada de itens no cache agora
+    private long acertos; // Buscas respondidas pelo cache
+    private long falhas; // Buscas que precisaram ir ao banco
+    private long remocoes; // Itens removidos por tamanho ou expiração
+
+    public static CacheEstatisticasResponse of(String nome, Cache<?, ?> cache) {
+        var stats = cache.stats();
+        return CacheEstatisticasResponse.builder()
+                .nome(nome)
+                .tamanho(cache.estimatedSize())
+                .acertos(stats.hitCount())
+                .falhas(stats.missCount())
+                .remocoes(stats.evictionCount())
+                .build();
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.example.demo.dto.inicializacao;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class InicializacaoBeanResponse {
+
+    private String nome;
+    private String tipo;
+    private String origem; // Classe de configuração (ou auto-configuração) que declarou o bean, ou a propria classe
+    private double totalMs; // Da instanciação até o fim da inicialização, incluindo as dependencias criadas no caminho
+    private double proprioMs; // Total menos o tempo das dependencias
+    private boolean depoisDeSubir; // Criado depois da aplicação pronta, no primeiro uso (spring.main.lazy-initialization)
+
+}
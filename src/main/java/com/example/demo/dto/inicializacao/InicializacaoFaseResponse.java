@@ -0,0 +1,14 @@
+package com.example.demo.dto.inicializacao;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class InicializacaoFaseResponse {
+
+    private String nome;
+    private long duracaoMs; // Desde o fim da fase anterior
+    private long fimMs; // Desde o inicio da jvm
+
+}
@@ -0,0 +1,14 @@
+package com.example.demo.dto.inicializacao;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class InicializacaoOrigemResponse {
+
+    private String origem;
+    private int beans;
+    private double proprioMs; // Soma do tempo proprio dos beans da origem
+
+}
@@ -0,0 +1,19 @@
+package com.example.demo.dto.inicializacao;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class InicializacaoResponse {
+
+    private Long prontoMs; // Do inicio da jvm até a aplicação aceitar requisições, null enquanto não terminou de subir
+    private Long primeiraRequisicaoMs; // Do inicio da jvm até o fim da primeira requisição atendida, null antes dela
+    private List<InicializacaoFaseResponse> fases;
+    private int beansCriados;
+    private List<InicializacaoBeanResponse> beans; // Os mais demorados, pelo tempo proprio
+    private List<InicializacaoOrigemResponse> origens; // As configurações com mais tempo somado dos seus beans
+
+}
@@ -0,0 +1,20 @@
+package com.example.demo.dto.sql;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+public class ConsultaLentaResponse {
+
+    private LocalDateTime dataHora;
+    private long duracaoMs;
+    private String sql;
+    private List<String> parametros; // Apenas o tipo de cada parametro (String, Long, null), sem os valores
+    private String origem; // Método do repository e argumentos (filtro, paginação) que geraram a consulta
+    private String plano; // Resultado do EXPLAIN no banco, apenas para selects
+
+}
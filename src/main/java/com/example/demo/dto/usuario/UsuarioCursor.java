@@ -0,0 +1,14 @@
+package com.example.demo.dto.usuario;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Posição da ultima linha retornada em uma pagina por cursor, usada para buscar a proxima
+@Data
+@AllArgsConstructor
+public class UsuarioCursor {
+
+    private String nome;
+    private Long id;
+
+}
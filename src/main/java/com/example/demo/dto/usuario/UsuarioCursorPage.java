@@ -0,0 +1,16 @@
+package com.example.demo.dto.usuario;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+// Uma pagina buscada por cursor, junto com o cursor para buscar a proxima
+@Data
+@Builder
+public class UsuarioCursorPage {
+
+    private List<UsuarioResponse> usuarios;
+    private String proximoCursor; // Nulo quando não existem mais paginas
+
+}
@@ -0,0 +1,35 @@
+package com.example.demo.dto.usuario;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+// Formatos aceitos pelos endpoints de exportação e importação
+public enum UsuarioFormatoArquivo {
+
+    NDJSON("application/x-ndjson"), // Um json por linha
+    CSV("text/csv");
+
+    private final String contentType;
+
+    UsuarioFormatoArquivo(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public static Optional<UsuarioFormatoArquivo> of(String formato) {
+        return Arrays.stream(values())
+                .filter(valor -> valor.name().equalsIgnoreCase(formato))
+                .findFirst();
+    }
+
+    // Identifica o formato pelo header Content-Type, que pode vir com parametros (ex: text/csv;charset=UTF-8)
+    public static Optional<UsuarioFormatoArquivo> ofContentType(String contentType) {
+        return Arrays.stream(values())
+                .filter(valor -> contentType != null && contentType.toLowerCase().startsWith(valor.contentType))
+                .findFirst();
+    }
+
+}
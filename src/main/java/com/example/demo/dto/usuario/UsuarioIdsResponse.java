@@ -0,0 +1,20 @@
+package com.example.demo.dto.usuario;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Resultado da busca de varios usuarios por id (GET /api/v1/usuario?ids=1,2,3)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsuarioIdsResponse {
+
+    private List<UsuarioResponse> usuarios; // Na ordem dos ids enviados, cada id uma unica vez
+    private List<Long> naoEncontrados; // Ids enviados que não existem, também na ordem enviada
+
+}
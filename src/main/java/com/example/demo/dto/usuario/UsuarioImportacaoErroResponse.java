@@ -0,0 +1,17 @@
+package com.example.demo.dto.usuario;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Uma linha do arquivo importado que não foi salva
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsuarioImportacaoErroResponse {
+
+    private long linha; // Numero da linha no arquivo, começando em 1
+    private int status; // Status http equivalente (400 invalido, 404 id não encontrado...)
+    private String erro;
+
+}
@@ -0,0 +1,18 @@
+package com.example.demo.dto.usuario;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Resultado de um pedaço da importação, commitado em uma unica transação
+@Data
+public class UsuarioImportacaoPedacoResponse {
+
+    private int indice;
+    private long linhaInicial;
+    private long linhaFinal;
+    private int salvos;
+    private List<UsuarioImportacaoErroResponse> erros = new ArrayList<>();
+
+}
@@ -0,0 +1,18 @@
+package com.example.demo.dto.usuario;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Resumo da importação, com o resultado de cada pedaço commitado
+// Apenas as linhas com erro são listadas, as salvas entram só na contagem
+@Data
+public class UsuarioImportacaoResponse {
+
+    private long linhas;
+    private long salvos;
+    private long erros;
+    private List<UsuarioImportacaoPedacoResponse> pedacos = new ArrayList<>();
+
+}
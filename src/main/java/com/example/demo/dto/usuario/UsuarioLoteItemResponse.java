@@ -0,0 +1,16 @@
+package com.example.demo.dto.usuario;
+
+import lombok.Builder;
+import lombok.Data;
+
+// Resultado de cada item enviado para o endpoint de lote, na mesma posição em que foi enviado
+@Data
+@Builder
+public class UsuarioLoteItemResponse {
+
+    private int indice; // Posição do item na lista enviada
+    private int status; // Status http equivalente ao que o item teria se fosse enviado sozinho (201, 200, 400, 404...)
+    private UsuarioResponse usuario; // Preenchido apenas quando o item foi salvo
+    private String erro; // Preenchido apenas quando o item não foi salvo
+
+}
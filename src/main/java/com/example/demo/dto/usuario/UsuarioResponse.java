@@ -1,5 +1,6 @@
 package com.example.demo.dto.usuario;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 
@@ -7,6 +8,9 @@ import java.time.LocalDateTime;
 
 @Data
 @Builder
+// Construtor publico usado pelas consultas do UsuarioRepository que retornam o DTO direto (select new ...UsuarioResponse(...))
+// A ordem dos parametros é a ordem dos campos abaixo
+@AllArgsConstructor
 public class UsuarioResponse {
 
     private Long id;
@@ -15,4 +19,10 @@ public class UsuarioResponse {
     private LocalDateTime dataHoraCriacao;
     private boolean ativo;
 
+    // Versão do usuario, é o ETag do GET e pode ser enviada no If-Match da atualização
+    private long versao;
+
+    // Usada pelo cliente que quiser saber quando a sua copia foi alterada, o ETag do GET vem da versão
+    private LocalDateTime dataHoraAtualizacao;
+
 }
@@ -0,0 +1,32 @@
+package com.example.demo.mapper.usuario;
+
+import com.example.demo.dto.usuario.UsuarioCursor;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.BadRequestException;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Converte a posição (nome, id) da ultima linha em um texto opaco para o cliente, e o texto de volta para a posição
+// O cliente não deve montar nem interpretar o cursor, apenas devolver o que recebeu
+@Component
+public class UsuarioCursorMapper {
+
+    public String toCursor(UsuarioResponse usuarioResponse) {
+        // O id vem primeiro, assim o nome pode conter qualquer caractere, inclusive o separador
+        var texto = usuarioResponse.getId() + ":" + usuarioResponse.getNome();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public UsuarioCursor fromCursor(String cursor) {
+        try {
+            var texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            var separador = texto.indexOf(':');
+            return new UsuarioCursor(texto.substring(separador + 1), Long.valueOf(texto.substring(0, separador)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException exception) { // NumberFormatException extende IllegalArgumentException
+            throw new BadRequestException("Cursor inválido");
+        }
+    }
+
+}
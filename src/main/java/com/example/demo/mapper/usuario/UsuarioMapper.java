@@ -1,6 +1,8 @@
 package com.example.demo.mapper.usuario;
 
 import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.model.UsuarioReativo;
+import com.example.demo.domain.repository.UsuarioCriterio;
 import com.example.demo.dto.usuario.UsuarioFilter;
 import com.example.demo.dto.usuario.UsuarioRequest;
 import org.springframework.stereotype.Component;
@@ -20,11 +22,25 @@ public class UsuarioMapper {
                 .build();
     }
 
-    public Usuario fromUsuarioFilter(UsuarioFilter usuarioFilter) {
-        return Usuario.builder()
+    // No R2DBC não existe @PrePersist, então as colunas de busca já são preenchidas aqui
+    public UsuarioReativo fromUsuarioRequestReativo(UsuarioRequest usuarioRequest) {
+        return UsuarioReativo.builder()
+                .id(usuarioRequest.getId())
+                .nome(usuarioRequest.getNome())
+                .nomeBusca(Usuario.normalizar(usuarioRequest.getNome()))
+                .email(usuarioRequest.getEmail())
+                .emailBusca(Usuario.normalizar(usuarioRequest.getEmail()))
+                .dataHoraCriacao(LocalDateTime.now())
+                .dataHoraAtualizacao(Usuario.agora())
+                .ativo(true)
+                .build();
+    }
+
+    public UsuarioCriterio fromUsuarioFilter(UsuarioFilter usuarioFilter) {
+        return UsuarioCriterio.builder()
                 .id(usuarioFilter.getId())
-                .nome(usuarioFilter.getNome())
-                .email(usuarioFilter.getEmail())
+                .nome(Usuario.normalizar(usuarioFilter.getNome())) // Os filtros de texto não diferenciam maiusculas e minusculas
+                .email(Usuario.normalizar(usuarioFilter.getEmail()))
                 .ativo(usuarioFilter.getAtivo())
                 .build();
     }
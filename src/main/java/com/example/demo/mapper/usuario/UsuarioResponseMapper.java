@@ -1,6 +1,7 @@
 package com.example.demo.mapper.usuario;
 
 import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.model.UsuarioReativo;
 import com.example.demo.dto.usuario.UsuarioResponse;
 import org.springframework.stereotype.Component;
 
@@ -14,6 +15,20 @@ public class UsuarioResponseMapper {
                 .email(usuario.getEmail())
                 .dataHoraCriacao(usuario.getDataHoraCriacao())
                 .ativo(usuario.isAtivo())
+                .versao(usuario.getVersao())
+                .dataHoraAtualizacao(usuario.getDataHoraAtualizacao())
+                .build();
+    }
+
+    public UsuarioResponse fromUsuarioReativo(UsuarioReativo usuario) {
+        return UsuarioResponse.builder()
+                .id(usuario.getId())
+                .nome(usuario.getNome())
+                .email(usuario.getEmail())
+                .dataHoraCriacao(usuario.getDataHoraCriacao())
+                .ativo(usuario.isAtivo())
+                .versao(usuario.getVersao())
+                .dataHoraAtualizacao(usuario.getDataHoraAtualizacao())
                 .build();
     }
 
@@ -0,0 +1,27 @@
+package com.example.demo.rest;
+
+import com.example.demo.dto.cache.CacheEstatisticasResponse;
+import com.example.demo.dto.inicializacao.InicializacaoResponse;
+import com.example.demo.dto.sql.ConsultaLentaResponse;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.util.List;
+
+// Endpoints de diagnostico da aplicação, não fazem parte da api de negocio
+public interface AdminApi {
+
+    // Contadores dos caches em memória, para acompanhar a taxa de acerto
+    @GetMapping(value = "/api/v1/admin/cache", produces = "application/json")
+    ResponseEntity<List<CacheEstatisticasResponse>> cacheStats();
+
+    // Ultimos comandos sql acima de usuario.sql.lenta.limite, do mais recente para o mais antigo, com o plano de execução
+    @GetMapping(value = "/api/v1/admin/sql/lentas", produces = "application/json")
+    ResponseEntity<List<ConsultaLentaResponse>> consultasLentas();
+
+    // Tempo de cada fase da inicialização, até a primeira requisição, e os beans e configurações mais demorados
+    @GetMapping(value = "/api/v1/admin/inicializacao", produces = "application/json")
+    ResponseEntity<InicializacaoResponse> inicializacao(@RequestParam(defaultValue = "20") int limite);
+
+}
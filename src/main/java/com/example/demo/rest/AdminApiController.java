@@ -0,0 +1,56 @@
+package com.example.demo.rest;
+
+import com.example.demo.config.ConsultasLentas;
+import com.example.demo.config.InicializacaoTempos;
+import com.example.demo.dto.cache.CacheEstatisticasResponse;
+import com.example.demo.dto.inicializacao.InicializacaoResponse;
+import com.example.demo.dto.sql.ConsultaLentaResponse;
+import com.example.demo.service.UsuarioCache;
+import com.example.demo.service.UsuarioContagemCache;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RestController
+public class AdminApiController implements AdminApi {
+
+    private final UsuarioCache usuarioCache;
+
+    private final UsuarioContagemCache usuarioContagemCache;
+
+    private final ConsultasLentas consultasLentas;
+
+    private final InicializacaoTempos inicializacaoTempos;
+
+    public AdminApiController(UsuarioCache usuarioCache, UsuarioContagemCache usuarioContagemCache, ConsultasLentas consultasLentas,
+                              InicializacaoTempos inicializacaoTempos) {
+        this.usuarioCache = usuarioCache;
+        this.usuarioContagemCache = usuarioContagemCache;
+        this.consultasLentas = consultasLentas;
+        this.inicializacaoTempos = inicializacaoTempos;
+    }
+
+    @Override
+    public ResponseEntity<List<CacheEstatisticasResponse>> cacheStats() {
+        var estatisticas = new ArrayList<>(usuarioCache.estatisticas());
+        estatisticas.add(usuarioContagemCache.estatisticas());
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(estatisticas);
+    }
+
+    @Override
+    public ResponseEntity<List<ConsultaLentaResponse>> consultasLentas() {
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(consultasLentas.listar());
+    }
+
+    @Override
+    public ResponseEntity<InicializacaoResponse> inicializacao(int limite) {
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(inicializacaoTempos.relatorio(limite));
+    }
+
+}
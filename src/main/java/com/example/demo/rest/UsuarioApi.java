@@ -1,15 +1,22 @@
 package com.example.demo.rest;
 
 import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioImportacaoResponse;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
 import com.example.demo.dto.usuario.UsuarioRequest;
 import com.example.demo.dto.usuario.UsuarioResponse;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 // Essa interface não é necessária, mas recomendada para fazer a configuração do endpoint
@@ -20,18 +27,74 @@ public interface UsuarioApi {
     // @Valid significa que ele vai validar o objeto enviado com as anotações que voce fizer na classe UsuarioRequest
     // Um ResponseEntity é um objeto que possibilita configurar com detalhes um retorno HTTP
     // UsuarioRequest e UsuarioResponse são os meus DTOs de input e output pra esse método
+    // Um email já usado por outro usuario retorna 409 (Conflict)
+    // Na atualização o header If-Match é opcional: enviando o ETag recebido no GET (a versão do usuario), a alteração só é
+    // feita se ninguém alterou o usuario depois dessa leitura, do contrario a resposta é 412 (Precondition Failed)
+    // Sem If-Match a ultima atualização vence, como antes
     @PostMapping(value = "/api/v1/usuario", consumes = "application/json", produces = "application/json")
-    ResponseEntity<UsuarioResponse> saveOrUpdate(@Valid @RequestBody UsuarioRequest usuarioRequest);
+    ResponseEntity<UsuarioResponse> saveOrUpdate(@Valid @RequestBody UsuarioRequest usuarioRequest,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch);
+
+    // Versão em lote do saveOrUpdate, recebe uma lista de UsuarioRequest e devolve o resultado de cada item na mesma ordem
+    // Os itens são validados um a um (sem @Valid), assim um item invalido não impede que os outros sejam salvos
+    // A lista é commitada em pedaços, configurados em usuario.lote.tamanho no application.yaml
+    @PostMapping(value = "/api/v1/usuario/batch", consumes = "application/json", produces = "application/json")
+    ResponseEntity<List<UsuarioLoteItemResponse>> saveOrUpdateAll(@RequestBody List<UsuarioRequest> usuarioRequests);
 
     // @GetMapping Cria um GET para a url em questão, recebe um Objeto do tipo usuarioFilter que deve ser preenchido via queryParam
     // Por exemplo /api/v1/usuario?nome=exemplo&id=3
     // @PageableDefault cria um valor default para o pageable, caso os queryParam sort, size e page não sejam enviados
+    // Enviando o queryParam cursor a paginação passa a ser por cursor (keyset) ao inves de page:
+    // o primeiro pedido envia cursor vazio (/api/v1/usuario?cursor=&size=100) e os seguintes enviam o valor recebido
+    // no header X-Next-Cursor da resposta anterior. Quando o header não vier, não existem mais paginas
+    // Nesse modo a ordenação é sempre nome,id e o page é ignorado, mas o tempo de resposta não aumenta com o numero da pagina
+    // A resposta traz um ETag da pagina. Enviando esse valor no header If-None-Match, a resposta é 304 (Not Modified), sem corpo,
+    // enquanto nenhum usuario da pagina mudar
+    // O total de registros não é calculado por padrão. Enviando total=true ele é retornado no header X-Total-Count,
+    // vindo de um cache de curta duração por filtro (usuario.contagem.ttl no application.yaml)
     @GetMapping(value = "/api/v1/usuario", produces = "application/json")
-    ResponseEntity<List<UsuarioResponse>> findAll(UsuarioFilter usuarioFilter, @PageableDefault(page = 0, size = 10, sort = { "nome", "id" }, direction = Sort.Direction.ASC) Pageable pageable);
+    ResponseEntity<List<UsuarioResponse>> findAll(UsuarioFilter usuarioFilter, @PageableDefault(page = 0, size = 10, sort = { "nome", "id" }, direction = Sort.Direction.ASC) Pageable pageable,
+                                                  @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "false") boolean total);
+
+    // Busca de varios usuarios pelo id em uma unica chamada. Ex: /api/v1/usuario?ids=1,2,3
+    // O params = "ids" faz o spring escolher esse método ao inves do findAll quando o queryParam ids é enviado
+    // Os usuarios voltam na ordem dos ids enviados, e os ids que não existem vão na lista naoEncontrados, sem 404
+    // Aceita até 1000 ids por chamada
+    @GetMapping(value = "/api/v1/usuario", params = "ids", produces = "application/json")
+    ResponseEntity<UsuarioIdsResponse> findAllById(@RequestParam List<Long> ids);
+
+    // Verifica se um email já está em uso, sem diferenciar maiusculas. Ex: /api/v1/usuario/existe?email=joao@email.com
+    // Responde 200 se existe e 404 se não existe, sempre sem corpo. O spring atende também o HEAD em todo @GetMapping,
+    // que é o mais indicado aqui: só o status importa
+    // Os emails cadastrados ficam em um filtro em memória, e um email livre quase nunca precisa de consulta ao banco
+    @GetMapping(value = "/api/v1/usuario/existe")
+    ResponseEntity<Void> existsByEmail(@RequestParam String email);
+
+    // Busca de usuarios por parte do nome ou do email, para autocomplete. Ex: /api/v1/usuario/search?q=joao&limit=10
+    // Aceita prefixos ("jo") e pequenos erros de digitação, sem diferenciar maiusculas e acentos
+    // A resposta vem ordenada pela relevância, do mais para o menos parecido, e só traz usuarios ativos
+    @GetMapping(value = "/api/v1/usuario/search", produces = "application/json")
+    ResponseEntity<List<UsuarioResponse>> search(@RequestParam String q, @RequestParam(defaultValue = "10") int limit);
+
+    // Exporta todos os usuarios do filtro de uma vez, em ndjson (um json por linha, padrão) ou csv (?formato=csv)
+    // O corpo é escrito conforme as linhas são lidas do banco, sem paginação e sem montar uma lista em memória
+    // Recebendo o HttpServletResponse o método escreve a resposta diretamente, por isso não retorna nada
+    @GetMapping(value = "/api/v1/usuario/export")
+    void exportar(UsuarioFilter usuarioFilter, @RequestParam(defaultValue = "ndjson") String formato, HttpServletResponse response) throws IOException;
+
+    // Importa usuarios de um arquivo ndjson (application/x-ndjson) ou csv (text/csv) enviado no corpo
+    // O InputStream permite ler o corpo conforme ele chega, sem carregar o arquivo inteiro em memória
+    // Cada linha passa pelas mesmas validações do UsuarioRequest, e as linhas são commitadas em pedaços
+    // A resposta traz, para cada pedaço, quantas linhas foram salvas e quais tiveram erro
+    // Um csv sem a coluna nome no cabeçalho é recusado inteiro com 400
+    @PostMapping(value = "/api/v1/usuario/import", consumes = { "application/x-ndjson", "text/csv" }, produces = "application/json")
+    ResponseEntity<UsuarioImportacaoResponse> importar(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType, InputStream corpo) throws IOException;
 
     // @GetMapping Cria um GET para a url, recebendo uma variabel que será mapeada para o @PathVariable que tiver o mesmo nome
     // exemplo /api/v1/usuario/32, o valor de usuarioId será 32, é permitido criar urls com mais variaveis e mais coisas após as variavel
     // A ? dentro do responseEntity indica que permite qualquer tipo de objeto, ela será necessária pra quando não encontrarmos nenhum usuario com o Id, retornando um 404 vazio
+    // A resposta traz o header ETag. Um cliente que enviar If-None-Match com esse valor recebe 304 (Not Modified) sem corpo
+    // enquanto o usuario não for alterado, e pode usar a copia que já tem
     @GetMapping(value = "/api/v1/usuario/{usuarioId}", produces = "application/json")
     ResponseEntity<?> findByid(@PathVariable Long usuarioId);
 
@@ -41,6 +104,8 @@ public interface UsuarioApi {
     // ela será necessária pra quando não encontrarmos nenhum usuario com o Id, retornando um 404 vazio
     // Métodos delete também podem retornar 204 (NO_CONTENT) em caso de sucesso, sem retornar nenhuma informação no corpo da mensagem
     // Metodos DELETE devem ser utilizados para exclusão logica ou fisica da entidade
+    // Com usuario.desativacao.assincrona=true a exclusão entra em uma fila e é aplicada em lote logo depois, retornando 202
+    // Nesse modo um id inexistente também retorna 202, pois a existencia não é consultada
     @DeleteMapping(value = "/api/v1/usuario/{usuarioId}")
     ResponseEntity<?> deleteById(@PathVariable Long usuarioId);
 }
@@ -1,21 +1,44 @@
 package com.example.demo.rest;
 
+import com.example.demo.dto.usuario.UsuarioFormatoArquivo;
 import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioImportacaoResponse;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
 import com.example.demo.dto.usuario.UsuarioRequest;
 import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.BadRequestException;
+import com.example.demo.exception.ConflictException;
 import com.example.demo.exception.NotFoundException;
+import com.example.demo.exception.PreconditionFailedException;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @RestController // Indica para o spring que é uma controller, para criar o bean
+@Profile("!reactive") // Com o profile reactive quem atende as urls é a UsuarioReativoApiController
 public class UsuarioApiController implements UsuarioApi {
 
+    private static final String HEADER_PROXIMO_CURSOR = "X-Next-Cursor";
+    private static final String HEADER_TOTAL = "X-Total-Count";
+
+    // Maior quantidade de resultados aceita na busca
+    private static final int LIMITE_BUSCA = 100;
+
+    // Maior quantidade de ids aceita na busca por ids
+    private static final int LIMITE_IDS = 1000;
+
     // Bean instanciado pelo spring. Usamos interface para facilitar um evolução futura do componente
     // Podendo que eu crie diferentes implementações que devem ser usadas em momentos diferentes
     // Eu posso injetar esse bean usando o construtor, como feito nessa ocasiao,
@@ -32,24 +55,136 @@ public class UsuarioApiController implements UsuarioApi {
     }
 
     @Override
-    public ResponseEntity<UsuarioResponse> saveOrUpdate(@Valid @RequestBody UsuarioRequest usuarioRequest) {
-        // Monta a resposta http, no caso se for enviado ID, ele irá atualizar (retornando um 200, que significa OK)
-        // Mas se for enviado sem ID, ele irá criar um novo objeto e retornar um CREATED, status 201
-        return ResponseEntity.status(usuarioRequest.getId() == null ? HttpStatus.CREATED : HttpStatus.OK)
-                .body(usuarioApiService.saveOrUpdate(usuarioRequest));
+    public ResponseEntity<UsuarioResponse> saveOrUpdate(@Valid @RequestBody UsuarioRequest usuarioRequest, String ifMatch) {
+        try {
+            // Monta a resposta http, no caso se for enviado ID, ele irá atualizar (retornando um 200, que significa OK)
+            // Mas se for enviado sem ID, ele irá criar um novo objeto e retornar um CREATED, status 201
+            // O ETag da resposta é a nova versão, que pode ser usada no If-Match da proxima atualização
+            var usuarioResponse = usuarioApiService.saveOrUpdate(usuarioRequest, UsuarioEtags.versao(ifMatch));
+            return ResponseEntity.status(usuarioRequest.getId() == null ? HttpStatus.CREATED : HttpStatus.OK)
+                    .eTag(UsuarioEtags.etag(usuarioResponse))
+                    .body(usuarioResponse);
+        } catch (NotFoundException notFoundException) {
+            // Atualização de um id que não existe
+            return ResponseEntity.notFound()
+                    .build();
+        } catch (PreconditionFailedException preconditionFailedException) {
+            // O usuario foi alterado depois que o cliente leu a versão enviada no If-Match
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .build();
+        } catch (ConflictException conflictException) {
+            // O email já é de outro usuario
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .build();
+        }
     }
 
     @Override
-    public ResponseEntity<List<UsuarioResponse>> findAll(UsuarioFilter usuarioFilter, Pageable pageable) {
+    public ResponseEntity<List<UsuarioLoteItemResponse>> saveOrUpdateAll(@RequestBody List<UsuarioRequest> usuarioRequests) {
+        // O status de cada item vai no corpo da resposta, o lote em si sempre retorna OK
         return ResponseEntity.status(HttpStatus.OK)
-                .body(usuarioApiService.findAll(usuarioFilter, pageable));
+                .body(usuarioApiService.saveOrUpdateAll(usuarioRequests));
+    }
+
+    @Override
+    public ResponseEntity<List<UsuarioResponse>> findAll(UsuarioFilter usuarioFilter, Pageable pageable, String cursor, boolean total) {
+        var response = ResponseEntity.status(HttpStatus.OK);
+        if (total) {
+            response.header(HEADER_TOTAL, String.valueOf(usuarioApiService.count(usuarioFilter)));
+        }
+
+        try {
+            if (cursor == null) {
+                var usuarios = usuarioApiService.findAll(usuarioFilter, pageable);
+                return response.eTag(UsuarioEtags.etag(usuarios))
+                        .body(usuarios);
+            }
+
+            var pagina = usuarioApiService.findAllByCursor(usuarioFilter, cursor, pageable.getPageSize());
+
+            // O corpo continua sendo uma lista, o cursor da proxima pagina vai no header
+            if (pagina.getProximoCursor() != null) {
+                response.header(HEADER_PROXIMO_CURSOR, pagina.getProximoCursor());
+            }
+            return response.eTag(UsuarioEtags.etag(pagina.getUsuarios()))
+                    .body(pagina.getUsuarios());
+        } catch (BadRequestException badRequestException) {
+            // Cursor invalido ou ordenação por um campo que não existe
+            return ResponseEntity.badRequest()
+                    .build();
+        }
+    }
+
+    @Override
+    public ResponseEntity<Void> existsByEmail(String email) {
+        return usuarioApiService.existsByEmail(email)
+                ? ResponseEntity.ok().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    @Override
+    public ResponseEntity<UsuarioIdsResponse> findAllById(List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > LIMITE_IDS) {
+            return ResponseEntity.badRequest()
+                    .build();
+        }
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(usuarioApiService.findAllById(ids));
+    }
+
+    @Override
+    public ResponseEntity<List<UsuarioResponse>> search(String q, int limit) {
+        if (limit < 1 || limit > LIMITE_BUSCA) {
+            return ResponseEntity.badRequest()
+                    .build();
+        }
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(usuarioApiService.search(q, limit));
+    }
+
+    @Override
+    public void exportar(UsuarioFilter usuarioFilter, String formato, HttpServletResponse response) throws IOException {
+        var formatoExportacao = UsuarioFormatoArquivo.of(formato);
+        if (formatoExportacao.isEmpty()) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Formato inválido, use ndjson ou csv");
+            return;
+        }
+
+        // Os headers precisam ser definidos antes de escrever o corpo
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(formatoExportacao.get().getContentType());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=usuarios." + formatoExportacao.get().name().toLowerCase());
+
+        usuarioApiService.exportar(usuarioFilter, formatoExportacao.get(), response.getOutputStream());
+    }
+
+    @Override
+    public ResponseEntity<UsuarioImportacaoResponse> importar(String contentType, InputStream corpo) throws IOException {
+        // O consumes do mapeamento já garante que é um dos formatos aceitos
+        var formato = UsuarioFormatoArquivo.ofContentType(contentType).orElseThrow();
+        try {
+            return ResponseEntity.status(HttpStatus.OK)
+                    .body(usuarioApiService.importar(formato, corpo));
+        } catch (BadRequestException badRequestException) {
+            // Cabeçalho do csv sem a coluna nome
+            return ResponseEntity.badRequest()
+                    .build();
+        }
     }
 
     @Override
     public ResponseEntity<?> findByid(Long usuarioId) {
         try {
+            // Na maioria das vezes o usuario vem do cache, sem ir ao banco
+            // Com ETag no ResponseEntity o proprio spring compara com If-None-Match e, se o cliente já tiver essa versão,
+            // responde 304 sem corpo, sem nem converter o usuario para json
+            // Sem Last-Modified: o header tem precisão de segundos, e duas alterações no mesmo segundo fariam o
+            // If-Modified-Since responder 304 com uma copia antiga. A versão do ETag muda a cada alteração
+            var usuarioResponse = usuarioApiService.findById(usuarioId);
             return ResponseEntity.status(HttpStatus.OK)
-                    .body(usuarioApiService.findById(usuarioId));
+                    .eTag(UsuarioEtags.etag(usuarioResponse))
+                    .body(usuarioResponse);
         } catch (NotFoundException notFoundException) {
             return ResponseEntity.notFound()
                     .build();
@@ -58,6 +193,12 @@ public class UsuarioApiController implements UsuarioApi {
 
     @Override
     public ResponseEntity<?> deleteById(Long usuarioId) {
+        // Na exclusão assincrona a resposta é 202 (ACCEPTED): a exclusão foi aceita, e será aplicada em instantes
+        if (usuarioApiService.agendarDeleteById(usuarioId)) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .build();
+        }
+
         try {
             usuarioApiService.deleteById(usuarioId);
             return ResponseEntity.status(HttpStatus.NO_CONTENT)
@@ -1,24 +1,63 @@
 package com.example.demo.rest;
 
+import com.example.demo.dto.usuario.UsuarioCursorPage;
+import com.example.demo.dto.usuario.UsuarioFormatoArquivo;
 import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioImportacaoResponse;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
 import com.example.demo.dto.usuario.UsuarioRequest;
 import com.example.demo.dto.usuario.UsuarioResponse;
 import org.springframework.data.domain.Pageable;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface UsuarioApiService {
 
     UsuarioResponse saveOrUpdate(UsuarioRequest usuarioRequest);
 
+    // Na atualização, com versao diferente de null o usuario só é alterado se ainda estiver nessa versão
+    // Do contrario lança PreconditionFailedException, sem alterar nada
+    UsuarioResponse saveOrUpdate(UsuarioRequest usuarioRequest, Long versao);
+
+    List<UsuarioLoteItemResponse> saveOrUpdateAll(List<UsuarioRequest> usuarioRequests);
+
     UsuarioResponse findById(Long id);
 
+    // Se algum usuario usa esse email, sem diferenciar maiusculas
+    boolean existsByEmail(String email);
+
+    // Varios usuarios por id de uma vez, os ids inexistentes vão em naoEncontrados ao inves de lançar NotFoundException
+    UsuarioIdsResponse findAllById(List<Long> ids);
+
     // O pageable é do spring e permite paginação opcional
     // Enviando na url, por exemplo /api/v1/usuario?page=0&size=5&sort=nome,DESC
     // voce terá a primeira pagina, com 5 resultados em ordem descendente pelo campo nome
     // Os tres parametros podem ser enviados separadamente, ou não enviados
     List<UsuarioResponse> findAll(UsuarioFilter usuarioFilter, Pageable pageable);
 
+    // Paginação por cursor, cursor vazio busca a primeira pagina
+    UsuarioCursorPage findAllByCursor(UsuarioFilter usuarioFilter, String cursor, int size);
+
+    // Total de usuarios do filtro, pode estar alguns segundos desatualizado
+    long count(UsuarioFilter usuarioFilter);
+
+    // Usuarios ativos mais parecidos com o texto, ordenados pela relevância
+    List<UsuarioResponse> search(String texto, int limite);
+
+    // Escreve todos os usuarios do filtro no outputStream, no formato informado
+    void exportar(UsuarioFilter usuarioFilter, UsuarioFormatoArquivo formato, OutputStream outputStream) throws IOException;
+
+    // Lê os usuarios do inputStream no formato informado e salva em pedaços
+    UsuarioImportacaoResponse importar(UsuarioFormatoArquivo formato, InputStream inputStream) throws IOException;
+
     void deleteById(Long usuarioId);
 
+    // Com a exclusão assincrona ligada (usuario.desativacao.assincrona), coloca o usuario na fila de exclusão e retorna true
+    // Desligada, não faz nada e retorna false, e a exclusão deve ser feita pelo deleteById
+    boolean agendarDeleteById(Long usuarioId);
+
 }
@@ -0,0 +1,53 @@
+package com.example.demo.rest;
+
+import com.example.demo.dto.usuario.UsuarioResponse;
+
+import java.util.List;
+
+// ETags das respostas de usuario e a versão esperada enviada no If-Match
+// Usado pelas duas controllers (UsuarioApiController e UsuarioReativoApiController), assim as duas aceitam os mesmos valores
+final class UsuarioEtags {
+
+    // Versão usada quando o If-Match não é uma versão valida, as versões começam em 0
+    static final long VERSAO_INEXISTENTE = -1;
+
+    private UsuarioEtags() {
+    }
+
+    // O ETag de um usuario é a sua versão, que muda a cada alteração (ver Usuario.versao)
+    static String etag(UsuarioResponse usuario) {
+        return String.valueOf(usuario.getVersao());
+    }
+
+    // O ETag de uma lista é calculado apenas com o id e a versão de cada usuario, sem serializar a resposta
+    // Qualquer alteração muda a versão, e incluir, excluir ou reordenar usuarios muda a sequencia de ids
+    // As listas não enviam Last-Modified: um usuario que sai da lista não muda a maior data de atualização dela,
+    // e o If-Modified-Since responderia 304 para uma lista que mudou
+    static String etag(List<UsuarioResponse> usuarios) {
+        var hash = 17L;
+        for (var usuario : usuarios) {
+            hash = 31 * hash + usuario.getId();
+            hash = 31 * hash + usuario.getVersao();
+        }
+        return Long.toHexString(hash);
+    }
+
+    // Versão esperada a partir do If-Match. Sem o header, ou com *, qualquer versão serve
+    // O If-Match compara ETags fortes, então um ETag fraco (W/"1") ou que não é uma versão nunca é igual ao atual
+    // e resulta em 412, como um ETag antigo
+    static Long versao(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        var valor = ifMatch.trim();
+        if (valor.length() < 3 || !valor.startsWith("\"") || !valor.endsWith("\"")) {
+            return VERSAO_INEXISTENTE;
+        }
+        try {
+            return Long.parseLong(valor.substring(1, valor.length() - 1));
+        } catch (NumberFormatException numberFormatException) {
+            return VERSAO_INEXISTENTE;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.example.demo.rest;
+
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+
+// Mesmas urls e regras do CRUD de UsuarioApi, para o webflux (profile reactive)
+// Os retornos são Mono e Flux: o webflux se inscreve neles e escreve a resposta quando os dados chegam,
+// sem deixar uma thread parada esperando o banco
+public interface UsuarioReativoApi {
+
+    // Como em UsuarioApi, a resposta traz o ETag (a versão do usuario) e o If-Match opcional faz a atualização
+    // só acontecer nessa versão, do contrario a resposta é 412 (Precondition Failed). Um email já usado por outro usuario retorna 409
+    @PostMapping(value = "/api/v1/usuario", consumes = "application/json", produces = "application/json")
+    Mono<ResponseEntity<UsuarioResponse>> saveOrUpdate(@Valid @RequestBody UsuarioRequest usuarioRequest,
+                                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch);
+
+    // Mesmos parametros de UsuarioApi.findAll
+    // Pedindo Accept: application/stream+json cada usuario é escrito em uma linha assim que é lido do banco,
+    // e a leitura acompanha a velocidade do cliente (backpressure). Com application/json a resposta é a lista de sempre
+    // No modo cursor a pagina é juntada antes de responder, por causa do header X-Next-Cursor
+    @GetMapping(value = "/api/v1/usuario", produces = { "application/json", "application/stream+json" })
+    Mono<ResponseEntity<Flux<UsuarioResponse>>> findAll(UsuarioFilter usuarioFilter, @PageableDefault(page = 0, size = 10, sort = { "nome", "id" }, direction = Sort.Direction.ASC) Pageable pageable,
+                                                        @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "false") boolean total);
+
+    // Com o ETag na resposta, um If-None-Match com a versão atual recebe 304 (Not Modified) sem corpo
+    // As listas não enviam ETag: a resposta é escrita enquanto os usuarios são lidos, antes de se conhecer a lista toda
+    @GetMapping(value = "/api/v1/usuario/{usuarioId}", produces = "application/json")
+    Mono<ResponseEntity<UsuarioResponse>> findByid(@PathVariable Long usuarioId);
+
+    @DeleteMapping(value = "/api/v1/usuario/{usuarioId}")
+    Mono<ResponseEntity<Void>> deleteById(@PathVariable Long usuarioId);
+
+}
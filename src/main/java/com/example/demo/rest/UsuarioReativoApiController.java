@@ -0,0 +1,94 @@
+package com.example.demo.rest;
+
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.BadRequestException;
+import com.example.demo.exception.ConflictException;
+import com.example.demo.exception.PreconditionFailedException;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+
+// Substitui UsuarioApiController quando o profile reactive está ativo
+@RestController
+@Profile("reactive")
+public class UsuarioReativoApiController implements UsuarioReativoApi {
+
+    private static final String HEADER_PROXIMO_CURSOR = "X-Next-Cursor";
+    private static final String HEADER_TOTAL = "X-Total-Count";
+
+    private final UsuarioReativoApiService usuarioReativoApiService;
+
+    public UsuarioReativoApiController(UsuarioReativoApiService usuarioReativoApiService) {
+        this.usuarioReativoApiService = usuarioReativoApiService;
+    }
+
+    @Override
+    public Mono<ResponseEntity<UsuarioResponse>> saveOrUpdate(@Valid @RequestBody UsuarioRequest usuarioRequest, String ifMatch) {
+        // Mono vazio é uma atualização de um id que não existe
+        return usuarioReativoApiService.saveOrUpdate(usuarioRequest, UsuarioEtags.versao(ifMatch))
+                .map(usuarioResponse -> ResponseEntity.status(usuarioRequest.getId() == null ? HttpStatus.CREATED : HttpStatus.OK)
+                        .eTag(UsuarioEtags.etag(usuarioResponse))
+                        .body(usuarioResponse))
+                .defaultIfEmpty(ResponseEntity.notFound()
+                        .build())
+                // O usuario foi alterado depois que o cliente leu a versão enviada no If-Match
+                .onErrorResume(PreconditionFailedException.class, preconditionFailedException -> Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()))
+                // O email já é de outro usuario
+                .onErrorResume(ConflictException.class, conflictException -> Mono.just(ResponseEntity.status(HttpStatus.CONFLICT).build()));
+    }
+
+    @Override
+    public Mono<ResponseEntity<Flux<UsuarioResponse>>> findAll(UsuarioFilter usuarioFilter, Pageable pageable, String cursor, boolean total) {
+        // Sem total=true o header não é calculado, e a contagem não é executada
+        var cabecalho = total
+                ? usuarioReativoApiService.count(usuarioFilter).map(contagem -> ResponseEntity.status(HttpStatus.OK).header(HEADER_TOTAL, String.valueOf(contagem)))
+                : Mono.just(ResponseEntity.status(HttpStatus.OK));
+
+        if (cursor == null) {
+            // Um sort invalido lança BadRequestException ao montar a consulta. Montando dentro do map
+            // a exceção vira um erro do Mono, tratado antes de qualquer header ser enviado
+            return cabecalho.map(response -> response.body(usuarioReativoApiService.findAll(usuarioFilter, pageable)))
+                    .onErrorResume(BadRequestException.class, badRequestException -> Mono.just(ResponseEntity.badRequest().build()));
+        }
+
+        return cabecalho.zipWith(usuarioReativoApiService.findAllByCursor(usuarioFilter, cursor, pageable.getPageSize()))
+                .map(respostaEPagina -> {
+                    var response = respostaEPagina.getT1();
+                    var pagina = respostaEPagina.getT2();
+                    if (pagina.getProximoCursor() != null) {
+                        response.header(HEADER_PROXIMO_CURSOR, pagina.getProximoCursor());
+                    }
+                    return response.body(Flux.fromIterable(pagina.getUsuarios()));
+                })
+                .onErrorResume(BadRequestException.class, badRequestException -> Mono.just(ResponseEntity.badRequest().build()));
+    }
+
+    @Override
+    public Mono<ResponseEntity<UsuarioResponse>> findByid(Long usuarioId) {
+        // Assim como no spring mvc, o webflux compara o ETag com o If-None-Match e responde 304 sem corpo
+        return usuarioReativoApiService.findById(usuarioId)
+                .map(usuarioResponse -> ResponseEntity.ok()
+                        .eTag(UsuarioEtags.etag(usuarioResponse))
+                        .body(usuarioResponse))
+                .defaultIfEmpty(ResponseEntity.notFound()
+                        .build());
+    }
+
+    @Override
+    public Mono<ResponseEntity<Void>> deleteById(Long usuarioId) {
+        return usuarioReativoApiService.deleteById(usuarioId)
+                .map(existia -> existia
+                        ? ResponseEntity.status(HttpStatus.NO_CONTENT).<Void>build()
+                        : ResponseEntity.notFound().<Void>build());
+    }
+
+}
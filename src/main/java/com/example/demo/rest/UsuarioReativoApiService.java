@@ -0,0 +1,30 @@
+package com.example.demo.rest;
+
+import com.example.demo.dto.usuario.UsuarioCursorPage;
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Versão reativa de UsuarioApiService, com as mesmas operações do CRUD
+// Nenhum método bloqueia a thread: o trabalho só acontece quando o Mono ou Flux retornado é inscrito pelo webflux
+public interface UsuarioReativoApiService {
+
+    // Mono vazio quando é uma atualização de um id que não existe
+    // Com versaoEsperada (If-Match) a atualização só é feita nessa versão, do contrario o Mono termina com PreconditionFailedException
+    Mono<UsuarioResponse> saveOrUpdate(UsuarioRequest usuarioRequest, Long versaoEsperada);
+
+    Mono<UsuarioResponse> findById(Long id);
+
+    Flux<UsuarioResponse> findAll(UsuarioFilter usuarioFilter, Pageable pageable);
+
+    Mono<UsuarioCursorPage> findAllByCursor(UsuarioFilter usuarioFilter, String cursor, int size);
+
+    Mono<Long> count(UsuarioFilter usuarioFilter);
+
+    // true se o usuario existia
+    Mono<Boolean> deleteById(Long usuarioId);
+
+}
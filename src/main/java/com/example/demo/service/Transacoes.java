@@ -0,0 +1,41 @@
+package com.example.demo.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Utilitario para estruturas em memória (caches, indices) que precisam refletir apenas o que foi commitado
+final class Transacoes {
+
+    private Transacoes() {
+    }
+
+    // Dentro de uma transação executa a ação só depois do commit, assim um rollback não deixa em memória algo que não foi salvo
+    // Fora de uma transação executa imediatamente
+    static void depoisDoCommit(Runnable acao) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    acao.run();
+                }
+            });
+        } else {
+            acao.run();
+        }
+    }
+
+    // Executa a ação ao fim da transação, com commit ou rollback. Fora de uma transação executa imediatamente
+    static void depoisDaTransacao(Runnable acao) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    acao.run();
+                }
+            });
+        } else {
+            acao.run();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioArquivadoRepository;
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Move os usuarios excluidos há mais de usuario.arquivamento.inativo-ha da tabela usuario para a usuario_archive
+//
+// Metade das linhas inativas deixava todas as listagens e indices carregando usuarios que ninguém consulta
+// O arquivamento roda em segundo plano a cada intervalo, em lotes pequenos (uma transação curta por lote)
+// e com uma pausa entre eles, para não segurar locks nem competir com a api por muito tempo
+//
+// Para a api nada muda no findById: um usuario arquivado continua sendo encontrado (inativo), pode ser excluido de novo
+// e, se for atualizado, volta para a tabela usuario já reativado. Listagem, contagem e exportação só leem a tabela usuario
+@Slf4j
+@Service
+public class UsuarioArquivamentoService {
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final UsuarioArquivadoRepository usuarioArquivadoRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UsuarioShards usuarioShards;
+
+    private final boolean habilitado;
+
+    private final Duration inativoHa;
+
+    private final Duration intervalo;
+
+    private final int tamanhoLote;
+
+    private final Duration pausa;
+
+    private final Counter arquivados;
+
+    private final Timer tempoLote;
+
+    private ScheduledExecutorService agendador;
+
+    public UsuarioArquivamentoService(UsuarioRepository usuarioRepository, UsuarioArquivadoRepository usuarioArquivadoRepository,
+                                      TransactionTemplate transactionTemplate, UsuarioShards usuarioShards,
+                                      @Value("${usuario.arquivamento.habilitado:true}") boolean habilitado,
+                                      @Value("${usuario.arquivamento.inativo-ha:30d}") Duration inativoHa,
+                                      @Value("${usuario.arquivamento.intervalo:1h}") Duration intervalo,
+                                      @Value("${usuario.arquivamento.lote:500}") int tamanhoLote,
+                                      @Value("${usuario.arquivamento.pausa:100ms}") Duration pausa,
+                                      MeterRegistry meterRegistry) {
+        this.usuarioRepository = usuarioRepository;
+        this.usuarioArquivadoRepository = usuarioArquivadoRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.usuarioShards = usuarioShards;
+        this.habilitado = habilitado;
+        this.inativoHa = inativoHa;
+        this.intervalo = intervalo;
+        this.tamanhoLote = tamanhoLote;
+        this.pausa = pausa;
+        this.arquivados = Counter.builder("usuario.arquivamento.arquivados")
+                .description("Usuarios movidos para usuario_archive")
+                .register(meterRegistry);
+        this.tempoLote = Timer.builder("usuario.arquivamento.lote")
+                .description("Tempo da transação de cada lote do arquivamento")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!habilitado) {
+            return;
+        }
+        agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            var thread = new Thread(tarefa, "usuario-arquivamento");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agendador.scheduleWithFixedDelay(this::arquivarAgendado, intervalo.toMillis(), intervalo.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Interrompe a pausa entre lotes, o lote em andamento termina ou sofre rollback
+    @PreDestroy
+    public void encerrar() throws InterruptedException {
+        if (agendador != null) {
+            agendador.shutdownNow();
+            agendador.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    // Arquiva todos os usuarios inativos desde antes do limite, lote a lote. Retorna quantos foram arquivados
+    public int arquivar() {
+        var limite = LocalDateTime.now().minus(inativoHa);
+
+        // Com sharding cada shard tem a sua tabela usuario_archive, os shards são arquivados um depois do outro
+        var total = new AtomicInteger();
+        usuarioShards.emCada(() -> total.addAndGet(arquivarAte(limite)));
+        return total.get();
+    }
+
+    private int arquivarAte(LocalDateTime limite) {
+        var total = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            var inicio = System.nanoTime();
+            var quantidade = transactionTemplate.execute(status -> arquivarLote(limite));
+            tempoLote.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            total += quantidade;
+            if (quantidade < tamanhoLote) {
+                break;
+            }
+            try {
+                Thread.sleep(pausa.toMillis());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return total;
+    }
+
+    private int arquivarLote(LocalDateTime limite) {
+        var ids = usuarioRepository.findIdsInativosAntesDe(limite, PageRequest.of(0, tamanhoLote));
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        // As linhas estão travadas pelo select, então a cópia e a remoção veem exatamente os mesmos usuarios
+        // O cache do findById não precisa ser limpo: o usuario arquivado tem os mesmos dados
+        usuarioArquivadoRepository.arquivarTodosById(ids, LocalDateTime.now());
+        usuarioRepository.deleteInativosById(ids);
+        arquivados.increment(ids.size());
+        return ids.size();
+    }
+
+    private void arquivarAgendado() {
+        try {
+            var quantidade = arquivar();
+            if (quantidade > 0) {
+                log.info("{} usuarios inativos arquivados", quantidade);
+            }
+        } catch (RuntimeException exception) {
+            // O lote com erro sofreu rollback, a proxima execução tenta de novo
+            log.error("Erro ao arquivar usuarios inativos", exception);
+        }
+    }
+
+    // Busca o usuario na tabela de arquivados, usado quando ele não está na tabela usuario
+    public Optional<UsuarioResponse> findResponseById(Long id) {
+        return usuarioArquivadoRepository.findResponseById(id);
+    }
+
+    // O mesmo para varios ids de uma vez, os que não estão arquivados são ignorados
+    public List<UsuarioResponse> findAllResponseByIdIn(Collection<Long> ids) {
+        return usuarioArquivadoRepository.findAllResponseByIdIn(ids);
+    }
+
+    public boolean isArquivado(Long id) {
+        return usuarioArquivadoRepository.existsById(id);
+    }
+
+    // Devolve o usuario arquivado para a tabela usuario, ainda inativo, com o nome e o email que ele vai receber
+    // Precisa ser chamado dentro de uma transação, depois da verificação do email. Retorna false se ele não estava arquivado
+    public boolean restaurar(Long id, String nome, String email) {
+        if (usuarioArquivadoRepository.restaurarById(id, nome, Usuario.normalizar(nome), email, Usuario.normalizar(email)) == 0) {
+            return false;
+        }
+        usuarioArquivadoRepository.removerById(id);
+        return true;
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.example.demo.service;
+
+import com.example.demo.config.LeituraEscrita;
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Busca de varios usuarios por id em uma chamada, para quem precisaria chamar o GET /api/v1/usuario/{id} uma vez por id
+//
+// Os ids que estão no cache do findById não vão ao banco. Os demais são buscados com where id in (...), em pedaços de
+// usuario.busca-ids.pedaco ids: um in muito grande vira um plano de execução ruim e alguns bancos limitam o tamanho da lista
+// Havendo mais de um pedaço, eles são consultados em paralelo, cada um com a sua conexão
+// As threads são de um pool dividido por todas as buscas (usuario.busca-ids.threads), e cada busca usa no maximo
+// usuario.busca-ids.paralelismo delas ao mesmo tempo, contando a propria thread da requisição, que também consulta
+// Assim uma busca grande não ocupa o pool inteiro, e as demais continuam andando
+// Quem não está na tabela usuario ainda é procurado entre os arquivados, e o que sobrar vai para naoEncontrados,
+// sem 404: um id inexistente é uma resposta normal para quem busca em lote
+@Service
+public class UsuarioBuscaIdsService {
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final UsuarioArquivamentoService usuarioArquivamentoService;
+
+    private final UsuarioCache usuarioCache;
+
+    private final UsuarioShards usuarioShards;
+
+    private final int tamanhoPedaco;
+
+    // Quantas consultas uma unica busca faz ao mesmo tempo, incluindo a da thread da requisição
+    private final int paralelismo;
+
+    // Compartilhado por todas as buscas. O tamanho limita quantas conexões as buscas ocupam juntas,
+    // e precisa ficar abaixo do tamanho do pool de conexões para sobrar conexões para as demais requisições
+    private final ExecutorService executor;
+
+    public UsuarioBuscaIdsService(UsuarioRepository usuarioRepository, UsuarioArquivamentoService usuarioArquivamentoService,
+                                  UsuarioCache usuarioCache, UsuarioShards usuarioShards,
+                                  @Value("${usuario.busca-ids.pedaco:500}") int tamanhoPedaco,
+                                  @Value("${usuario.busca-ids.paralelismo:4}") int paralelismo,
+                                  @Value("${usuario.busca-ids.threads:6}") int threads) {
+        this.usuarioRepository = usuarioRepository;
+        this.usuarioArquivamentoService = usuarioArquivamentoService;
+        this.usuarioCache = usuarioCache;
+        this.usuarioShards = usuarioShards;
+        this.tamanhoPedaco = tamanhoPedaco;
+        this.paralelismo = Math.max(1, paralelismo);
+        var contador = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, tarefa -> {
+            var thread = new Thread(tarefa, "usuario-busca-ids-" + contador.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        executor.shutdownNow();
+    }
+
+    public UsuarioIdsResponse findAllById(List<Long> ids) {
+        // Ids repetidos são buscados e retornados uma vez só
+        var distintos = new LinkedHashSet<>(ids);
+
+        var encontrados = new HashMap<Long, UsuarioResponse>();
+        var buscar = new ArrayList<Long>();
+        distintos.forEach(id -> usuarioCache.getIfPresent(id)
+                .ifPresentOrElse(usuario -> encontrados.put(id, usuario), () -> buscar.add(id)));
+
+        encontrados.putAll(buscar(buscar, usuarioRepository::findAllResponseByIdIn));
+
+        var arquivados = buscar.stream().filter(id -> !encontrados.containsKey(id)).collect(Collectors.toList());
+        encontrados.putAll(buscar(arquivados, usuarioArquivamentoService::findAllResponseByIdIn));
+
+        return UsuarioIdsResponse.builder()
+                .usuarios(distintos.stream().map(encontrados::get).filter(Objects::nonNull).collect(Collectors.toList()))
+                .naoEncontrados(distintos.stream().filter(id -> !encontrados.containsKey(id)).collect(Collectors.toList()))
+                .build();
+    }
+
+    // Separa os ids em pedaços (por shard, com sharding) e executa a consulta de cada pedaço
+    // Um unico pedaço roda na thread atual, sem o custo de passar para o executor
+    private Map<Long, UsuarioResponse> buscar(List<Long> ids, Function<List<Long>, List<UsuarioResponse>> consulta) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+
+        var pedacos = new ArrayList<Pedaco>();
+        ids.stream()
+                .collect(Collectors.groupingBy(usuarioShards::shardDe))
+                .forEach((shard, idsDoShard) -> {
+                    for (int i = 0; i < idsDoShard.size(); i += tamanhoPedaco) {
+                        pedacos.add(new Pedaco(shard, idsDoShard.subList(i, Math.min(i + tamanhoPedaco, idsDoShard.size()))));
+                    }
+                });
+
+        List<List<UsuarioResponse>> resultados;
+        if (pedacos.size() == 1) {
+            resultados = List.of(consultar(pedacos.get(0), consulta));
+        } else {
+            resultados = consultarEmParalelo(pedacos, consulta);
+        }
+
+        return resultados.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toMap(UsuarioResponse::getId, Function.identity()));
+    }
+
+    // A thread da requisição e até paralelismo - 1 threads do pool pegam o proximo pedaço ainda não consultado até acabarem
+    // Com o pool ocupado por outras buscas a thread da requisição consulta sozinha, e as do pool que começarem depois
+    // não encontram mais nada. Por isso a espera é pelos pedaços, e não pelas threads
+    private List<List<UsuarioResponse>> consultarEmParalelo(List<Pedaco> pedacos, Function<List<Long>, List<UsuarioResponse>> consulta) {
+        @SuppressWarnings("unchecked")
+        var resultados = (List<UsuarioResponse>[]) new List[pedacos.size()];
+        var proximo = new AtomicInteger();
+        var restantes = new CountDownLatch(pedacos.size());
+        var erro = new AtomicReference<RuntimeException>();
+
+        // Executado em outras threads, que também precisam ler do primario quando a requisição lê (ver LeituraEscrita)
+        Supplier<Void> consultarPedacos = LeituraEscrita.propagar(() -> {
+            for (int i = proximo.getAndIncrement(); i < pedacos.size(); i = proximo.getAndIncrement()) {
+                try {
+                    // Depois de um erro a resposta já é um erro, os pedaços restantes só são descontados
+                    if (erro.get() == null) {
+                        resultados[i] = consultar(pedacos.get(i), consulta);
+                    }
+                } catch (RuntimeException exception) {
+                    erro.compareAndSet(null, exception);
+                } finally {
+                    restantes.countDown();
+                }
+            }
+            return null;
+        });
+
+        for (int i = 1; i < Math.min(paralelismo, pedacos.size()); i++) {
+            executor.execute(consultarPedacos::get);
+        }
+        consultarPedacos.get();
+
+        try {
+            restantes.await();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Busca de usuarios por id interrompida", interruptedException);
+        }
+        // Repassa a exceção original, como o UsuarioShards.aguardar
+        if (erro.get() != null) {
+            throw erro.get();
+        }
+        return Arrays.asList(resultados);
+    }
+
+    private List<UsuarioResponse> consultar(Pedaco pedaco, Function<List<Long>, List<UsuarioResponse>> consulta) {
+        return usuarioShards.noShard(pedaco.shard, () -> consulta.apply(pedaco.ids));
+    }
+
+    // Ids consultados juntos em um unico in, todos do mesmo shard
+    private static class Pedaco {
+
+        private final int shard;
+        private final List<Long> ids;
+
+        private Pedaco(int shard, List<Long> ids) {
+            this.shard = shard;
+            this.ids = ids;
+        }
+
+    }
+
+}
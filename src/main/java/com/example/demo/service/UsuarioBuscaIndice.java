@@ -0,0 +1,652 @@
+package com.example.demo.service;
+
+import com.example.demo.config.LeituraEscrita;
+import com.example.demo.domain.repository.UsuarioCriterio;
+import com.example.demo.domain.repository.UsuarioRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Indice em memória para a busca de usuarios por parte do nome ou do email (autocomplete)
+// Um like '%texto%' no banco não usa indice e percorre a tabela inteira. Aqui cada nome e email é quebrado em:
+// - termos (palavras do nome e o email inteiro), ordenados, para encontrar por prefixo: "jo" -> "joao", "jose"
+// - trigramas (pedaços de 3 letras), para encontrar mesmo com erros de digitação: "joao silav" ainda encontra "joão silva"
+// Cada busca avalia no maximo usuario.busca.limite-candidatos usuarios, assim um prefixo curto ou um trigrama comum
+// não fazem a busca percorrer o indice inteiro
+//
+// O indice tem duas partes:
+// - a base, montada a partir do banco com os usuarios ativos, em arrays de primitivos: cada usuario é a sua posição no
+//   array ordenado de ids, e cada termo e trigrama guarda um int[] ordenado dessas posições. Sem um objeto por usuario
+//   em cada lista, são cerca de 4 bytes por trigrama de cada usuario, contra dezenas de bytes de um Set<Long>
+// - as alterações feitas pela api desde a montagem, em mapas concorrentes. Um usuario da base alterado ou excluido
+//   é ignorado nas listas da base, e a versão nova (se existir) fica nas alterações
+// A base é remontada do banco a cada usuario.busca.reconstrucao, o que inclui os usuarios gravados por outras instancias
+// da aplicação, tira os excluidos por elas e esvazia as alterações. Enquanto isso o indice atual continua respondendo
+@Slf4j
+@Component
+public class UsuarioBuscaIndice {
+
+    private static final Pattern ACENTOS = Pattern.compile("\\p{M}");
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}@._-]+");
+
+    // Pontuação minima para um resultado encontrado apenas por trigramas
+    private static final double SIMILARIDADE_MINIMA = 0.3;
+
+    // Trocado inteiro no fim de cada reconstrução
+    private volatile Indice indice = new Indice(Base.VAZIA);
+
+    // Ids alterados pela api enquanto uma reconstrução está em andamento, null fora dela
+    // A reconstrução não usa o que leu desses ids: a linha lida pode ser anterior à alteração
+    private volatile Set<Long> alteradosNaMontagem;
+
+    // As alterações seguram a trava de leitura (várias ao mesmo tempo), a troca do indice no fim da reconstrução a de escrita.
+    // Assim nenhuma alteração é aplicada ao indice antigo depois que ele foi trocado. As buscas não usam a trava
+    private final ReentrantReadWriteLock troca = new ReentrantReadWriteLock();
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UsuarioShards usuarioShards;
+
+    private final boolean indexarNaInicializacao;
+
+    private final int limiteCandidatos;
+
+    private final int fetchSize;
+
+    // Intervalo entre as reconstruções a partir do banco, zero desliga
+    private final Duration reconstrucao;
+
+    private ScheduledExecutorService agendador;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public UsuarioBuscaIndice(UsuarioRepository usuarioRepository, TransactionTemplate transactionTemplate, UsuarioShards usuarioShards,
+                              @Value("${usuario.busca.indexar-na-inicializacao:true}") boolean indexarNaInicializacao,
+                              @Value("${usuario.busca.limite-candidatos:10000}") int limiteCandidatos,
+                              @Value("${usuario.exportacao.fetch-size:1000}") int fetchSize,
+                              @Value("${usuario.busca.reconstrucao:10m}") Duration reconstrucao,
+                              MeterRegistry meterRegistry) {
+        this.usuarioRepository = usuarioRepository;
+        // Cópia somente leitura do template, o Hibernate não guarda snapshots das entidades lidas
+        this.transactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.transactionTemplate.setReadOnly(true);
+        this.usuarioShards = usuarioShards;
+        this.indexarNaInicializacao = indexarNaInicializacao;
+        this.limiteCandidatos = limiteCandidatos;
+        this.fetchSize = fetchSize;
+        this.reconstrucao = reconstrucao;
+
+        Gauge.builder("usuario.busca.indice.usuarios", this, UsuarioBuscaIndice::tamanho)
+                .description("Usuarios no indice de busca")
+                .register(meterRegistry);
+        // Apenas a base, as alterações desde a ultima reconstrução não entram na conta
+        Gauge.builder("usuario.busca.indice.memoria", this, busca -> busca.indice.base.memoria)
+                .description("Memória estimada da base do indice de busca (arrays de ids, termos e trigramas)")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // Executado quando a aplicação termina de subir: monta a base e agenda as reconstruções
+    // Sem indexar-na-inicializacao o indice tem apenas os usuarios gravados pela api a partir daqui
+    @EventListener(ApplicationReadyEvent.class)
+    public void indexarTodos() {
+        if (!indexarNaInicializacao) {
+            return;
+        }
+        reconstruir();
+
+        if (!reconstrucao.isZero()) {
+            agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+                var thread = new Thread(tarefa, "usuario-busca-indice");
+                thread.setDaemon(true);
+                return thread;
+            });
+            agendador.scheduleWithFixedDelay(this::reconstruirAgendado, reconstrucao.toMillis(), reconstrucao.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        if (agendador != null) {
+            agendador.shutdownNow();
+        }
+    }
+
+    // Lê os usuarios ativos com o mesmo stream da exportação e monta uma base nova, que substitui o indice atual no fim
+    // O indice fica em memória enquanto a aplicação estiver no ar, então é montado a partir do primario,
+    // mesmo com replicas de leitura configuradas (ver LeituraEscrita)
+    // Com sharding os shards são lidos um depois do outro, cada um na sua transação
+    // As alterações feitas pela api durante a montagem continuam sendo aplicadas, e prevalecem sobre o que foi lido
+    public void reconstruir() {
+        var inicio = System.currentTimeMillis();
+        var montagem = new Montagem();
+        alteradosNaMontagem = ConcurrentHashMap.newKeySet();
+        try {
+            usuarioShards.emCada(() -> LeituraEscrita.noPrimario(() -> transactionTemplate.execute(status -> {
+                try (var usuarios = usuarioRepository.streamAll(UsuarioCriterio.builder().ativo(true).build(), fetchSize)) {
+                    usuarios.forEach(usuario -> {
+                        montagem.adicionar(usuario.getId(), documento(usuario.getNome(), usuario.getEmail()));
+                        entityManager.detach(usuario);
+                    });
+                }
+                return null;
+            })));
+            var novo = new Indice(montagem.construir());
+
+            troca.writeLock().lock();
+            try {
+                var atual = indice;
+                for (var id : alteradosNaMontagem) {
+                    var documento = atual.documentos.get(id);
+                    if (documento != null) {
+                        indexar(novo, id, documento);
+                    } else {
+                        desindexar(novo, id);
+                    }
+                }
+                indice = novo;
+                alteradosNaMontagem = null;
+            } finally {
+                troca.writeLock().unlock();
+            }
+            log.info("Indice de busca de usuarios montado com {} usuarios em {} ms (base com cerca de {} bytes)",
+                    novo.base.ids.length, System.currentTimeMillis() - inicio, novo.base.memoria);
+        } finally {
+            alteradosNaMontagem = null;
+        }
+    }
+
+    private void reconstruirAgendado() {
+        try {
+            reconstruir();
+        } catch (RuntimeException exception) {
+            // O indice atual continua valendo, a proxima reconstrução tenta de novo
+            log.error("Erro ao reconstruir o indice de busca de usuarios", exception);
+        }
+    }
+
+    // Inclui ou substitui o usuario no indice, depois do commit da transação atual
+    public void atualizar(Long id, String nome, String email) {
+        Transacoes.depoisDoCommit(() -> aplicar(id, documento(nome, email)));
+    }
+
+    // Remove o usuario do indice, depois do commit da transação atual
+    public void remover(Long id) {
+        Transacoes.depoisDoCommit(() -> aplicar(id, null));
+    }
+
+    // Esvazia o indice. Usado pelos testes, que apagam os usuarios direto no banco entre um teste e outro
+    public void limpar() {
+        troca.writeLock().lock();
+        try {
+            indice = new Indice(Base.VAZIA);
+        } finally {
+            troca.writeLock().unlock();
+        }
+    }
+
+    // Retorna os ids dos usuarios mais parecidos com o texto, do mais para o menos relevante
+    public List<Long> buscar(String texto, int limite) {
+        var consulta = normalizar(texto);
+        if (consulta.isEmpty() || limite <= 0) {
+            return List.of();
+        }
+
+        // O mesmo indice do começo ao fim da busca, mesmo que uma reconstrução termine no meio dela
+        var indice = this.indice;
+        var base = indice.base;
+        var pontuacoes = new HashMap<Long, Double>();
+
+        // Prefixo: os termos que começam com a palavra ficam juntos na ordem alfabetica
+        // Cada palavra da consulta precisa ser prefixo de algum termo do usuario
+        // O termo exato é o primeiro do intervalo, os demais seguem em ordem alfabetica até o limite de candidatos
+        var palavras = SEPARADORES.split(consulta);
+        for (var palavra : palavras) {
+            if (palavra.isEmpty()) {
+                continue;
+            }
+            var encontrados = new HashSet<Long>();
+            var algumSubstituido = !indice.substituidos.isEmpty();
+
+            // Termo exato vale mais do que apenas o começo do termo
+            // Primeiro os termos da base, depois os gravados pela api, até o limite de candidatos
+            var posicao = Arrays.binarySearch(base.termos, palavra);
+            prefixo:
+            for (int t = posicao >= 0 ? posicao : -posicao - 1; t < base.termos.length && base.termos[t].startsWith(palavra); t++) {
+                var pontos = base.termos[t].length() == palavra.length() ? 2.0 : 1.0;
+                for (var numero : base.termosUsuarios[t]) {
+                    if (encontrados.size() >= limiteCandidatos) {
+                        break prefixo;
+                    }
+                    var id = base.ids[numero];
+                    if ((!algumSubstituido || !indice.substituidos.contains(id)) && encontrados.add(id)) {
+                        pontuacoes.merge(id, pontos, Double::sum);
+                    }
+                }
+            }
+            prefixo:
+            for (var entrada : indice.termos.subMap(palavra, true, palavra + Character.MAX_VALUE, false).entrySet()) {
+                var pontos = entrada.getKey().length() == palavra.length() ? 2.0 : 1.0;
+                for (var id : entrada.getValue()) {
+                    if (encontrados.size() >= limiteCandidatos) {
+                        break prefixo;
+                    }
+                    if (encontrados.add(id)) {
+                        pontuacoes.merge(id, pontos, Double::sum);
+                    }
+                }
+            }
+        }
+
+        // Trigramas: a fração de trigramas da consulta que o usuario também tem
+        // Os trigramas mais raros são lidos primeiro e escolhem os candidatos. Um trigrama com mais usuarios do que o espaço
+        // que sobra apenas soma para os candidatos já escolhidos (procurando cada um na lista) e completa o limite,
+        // sem percorrer a lista inteira. Um usuario parecido com a consulta tem quase sempre algum dos trigramas raros
+        var trigramasConsulta = trigramas(consulta);
+        if (!trigramasConsulta.isEmpty()) {
+            var listas = trigramasConsulta.stream()
+                    .map(trigrama -> indice.lista(trigrama))
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingInt(Lista::tamanho))
+                    .collect(Collectors.toList());
+            var candidatos = new HashMap<Long, Candidato>();
+            for (var lista : listas) {
+                if (lista.tamanho() <= limiteCandidatos - candidatos.size()) {
+                    lista.paraCada((id, numero) -> {
+                        candidatos.computeIfAbsent(id, c -> new Candidato(numero)).trigramas++;
+                        return true;
+                    });
+                    continue;
+                }
+                candidatos.forEach((id, candidato) -> {
+                    if (lista.contem(id, candidato.numero)) {
+                        candidato.trigramas++;
+                    }
+                });
+                lista.paraCada((id, numero) -> {
+                    if (candidatos.size() >= limiteCandidatos) {
+                        return false;
+                    }
+                    candidatos.computeIfAbsent(id, c -> {
+                        var candidato = new Candidato(numero);
+                        candidato.trigramas++;
+                        return candidato;
+                    });
+                    return true;
+                });
+            }
+            candidatos.forEach((id, candidato) -> {
+                var similaridade = (double) candidato.trigramas / trigramasConsulta.size();
+                if (similaridade >= SIMILARIDADE_MINIMA || pontuacoes.containsKey(id)) {
+                    pontuacoes.merge(id, similaridade, Double::sum);
+                }
+            });
+        }
+
+        // Mantém apenas os N melhores em um heap, sem ordenar todos os candidatos
+        var melhores = new PriorityQueue<Map.Entry<Long, Double>>(Map.Entry.comparingByValue());
+        for (var pontuacao : pontuacoes.entrySet()) {
+            melhores.offer(pontuacao);
+            if (melhores.size() > limite) {
+                melhores.poll();
+            }
+        }
+
+        var resultado = new ArrayList<>(melhores);
+        resultado.sort(Map.Entry.<Long, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        var ids = new ArrayList<Long>(resultado.size());
+        resultado.forEach(entrada -> ids.add(entrada.getKey()));
+        return ids;
+    }
+
+    public int tamanho() {
+        var indice = this.indice;
+        return indice.base.ids.length - indice.substituidos.size() + indice.documentos.size();
+    }
+
+    // Aplica uma alteração da api (documento null é uma exclusão) ao indice atual
+    private void aplicar(Long id, Documento documento) {
+        troca.readLock().lock();
+        try {
+            var alterados = alteradosNaMontagem;
+            if (alterados != null) {
+                alterados.add(id);
+            }
+            if (documento != null) {
+                indexar(indice, id, documento);
+            } else {
+                desindexar(indice, id);
+            }
+        } finally {
+            troca.readLock().unlock();
+        }
+    }
+
+    // Troca o documento do usuario dentro do compute do mapa de documentos, que bloqueia esse id: duas alterações do mesmo
+    // usuario ao mesmo tempo não misturam os termos de uma com os da outra
+    private void indexar(Indice indice, Long id, Documento novo) {
+        indice.documentos.compute(id, (chave, atual) -> {
+            if (atual != null) {
+                retirar(indice, id, atual);
+            }
+            indice.substituir(id);
+            novo.termos.forEach(termo -> indice.termos.computeIfAbsent(termo, c -> ConcurrentHashMap.newKeySet()).add(id));
+            novo.trigramas.forEach(trigrama -> indice.trigramas.computeIfAbsent(trigrama, c -> ConcurrentHashMap.newKeySet()).add(id));
+            return novo;
+        });
+    }
+
+    private void desindexar(Indice indice, Long id) {
+        indice.documentos.compute(id, (chave, atual) -> {
+            if (atual != null) {
+                retirar(indice, id, atual);
+            }
+            indice.substituir(id);
+            return null;
+        });
+    }
+
+    private Documento documento(String nome, String email) {
+        var documento = new Documento();
+        for (var campo : new String[] { nome, email }) {
+            var normalizado = normalizar(campo);
+            if (normalizado.isEmpty()) {
+                continue;
+            }
+            for (var termo : SEPARADORES.split(normalizado)) {
+                if (!termo.isEmpty()) {
+                    documento.termos.add(termo);
+                }
+            }
+            documento.trigramas.addAll(trigramas(normalizado));
+        }
+        return documento;
+    }
+
+    private void retirar(Indice indice, Long id, Documento documento) {
+        documento.termos.forEach(termo -> remover(indice.termos, termo, id));
+        documento.trigramas.forEach(trigrama -> remover(indice.trigramas, trigrama, id));
+    }
+
+    private void remover(Map<String, Set<Long>> mapa, String chave, Long id) {
+        // computeIfPresent é atomico, assim a chave vazia é removida sem perder um id adicionado ao mesmo tempo
+        mapa.computeIfPresent(chave, (c, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    // Minusculas e sem acentos: "João" e "joao" são o mesmo termo
+    private String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        var semAcentos = ACENTOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return semAcentos.toLowerCase().trim().replaceAll("\\s+", " ");
+    }
+
+    // Pedaços de 3 caracteres de cada palavra, com um espaço antes e depois para valorizar o começo e o fim
+    // " joao " -> " jo", "joa", "oao", "ao "
+    private Set<String> trigramas(String texto) {
+        var resultado = new HashSet<String>();
+        for (var palavra : SEPARADORES.split(texto)) {
+            if (palavra.isEmpty()) {
+                continue;
+            }
+            var comEspacos = " " + palavra + " ";
+            for (int i = 0; i + 3 <= comEspacos.length(); i++) {
+                resultado.add(comEspacos.substring(i, i + 3));
+            }
+        }
+        return resultado;
+    }
+
+    private static class Documento {
+
+        private final Set<String> termos = new HashSet<>();
+        private final Set<String> trigramas = new HashSet<>();
+
+    }
+
+    // Parte montada do banco, só leitura depois de criada
+    private static final class Base {
+
+        private static final Base VAZIA = new Base(new long[0], new String[0], new int[0][], Map.of(), 0);
+
+        // Ids ordenados, a posição de cada id é o numero do usuario nas listas abaixo
+        private final long[] ids;
+
+        // Termos em ordem alfabetica e, na mesma posição, os usuarios de cada um
+        private final String[] termos;
+        private final int[][] termosUsuarios;
+
+        private final Map<String, int[]> trigramas;
+
+        // Estimativa, em bytes, dos arrays e das strings acima
+        private final long memoria;
+
+        private Base(long[] ids, String[] termos, int[][] termosUsuarios, Map<String, int[]> trigramas, long memoria) {
+            this.ids = ids;
+            this.termos = termos;
+            this.termosUsuarios = termosUsuarios;
+            this.trigramas = trigramas;
+            this.memoria = memoria;
+        }
+
+        private int numero(long id) {
+            return Arrays.binarySearch(ids, id);
+        }
+
+    }
+
+    // Base e alterações da api desde que ela foi montada
+    private static final class Indice {
+
+        private final Base base;
+
+        // Usuarios da base alterados ou excluidos depois da montagem, ignorados nas listas da base
+        private final Set<Long> substituidos = ConcurrentHashMap.newKeySet();
+
+        // Usuarios gravados pela api, nas mesmas estruturas da base mas concorrentes
+        private final ConcurrentSkipListMap<String, Set<Long>> termos = new ConcurrentSkipListMap<>();
+        private final ConcurrentHashMap<String, Set<Long>> trigramas = new ConcurrentHashMap<>();
+
+        // id -> termos e trigramas indexados, necessário para remover o usuario dos mapas acima
+        private final ConcurrentHashMap<Long, Documento> documentos = new ConcurrentHashMap<>();
+
+        private Indice(Base base) {
+            this.base = base;
+        }
+
+        private void substituir(Long id) {
+            if (base.numero(id) >= 0) {
+                substituidos.add(id);
+            }
+        }
+
+        private Lista lista(String trigrama) {
+            var daBase = base.trigramas.get(trigrama);
+            var alterados = trigramas.get(trigrama);
+            if (daBase == null && alterados == null) {
+                return null;
+            }
+            return new Lista(this, daBase == null ? new int[0] : daBase, alterados == null ? Set.of() : alterados);
+        }
+
+    }
+
+    // Usuarios de um trigrama, os da base e os gravados pela api
+    private static final class Lista {
+
+        private final Indice indice;
+
+        private final int[] daBase;
+
+        private final Set<Long> alterados;
+
+        private Lista(Indice indice, int[] daBase, Set<Long> alterados) {
+            this.indice = indice;
+            this.daBase = daBase;
+            this.alterados = alterados;
+        }
+
+        // Conta também os usuarios substituidos da base, é usado apenas para ordenar e escolher a estrategia
+        private int tamanho() {
+            return daBase.length + alterados.size();
+        }
+
+        // numero é o do usuario na base, ou -1 para um usuario gravado pela api (ver paraCada)
+        private boolean contem(long id, int numero) {
+            return numero >= 0 ? Arrays.binarySearch(daBase, numero) >= 0 : !alterados.isEmpty() && alterados.contains(id);
+        }
+
+        // Percorre os usuarios enquanto a ação retornar true, com o numero de cada um na base
+        // Os gravados pela api vão com -1, mesmo os que também estão na base: a versão da base foi substituida
+        private void paraCada(Candidatos acao) {
+            var ids = indice.base.ids;
+            var substituidos = indice.substituidos;
+            var algumSubstituido = !substituidos.isEmpty();
+            for (var numero : daBase) {
+                var id = ids[numero];
+                if ((!algumSubstituido || !substituidos.contains(id)) && !acao.aceitar(id, numero)) {
+                    return;
+                }
+            }
+            for (var id : alterados) {
+                if (!acao.aceitar(id, -1)) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+    private interface Candidatos {
+
+        boolean aceitar(long id, int numero);
+
+    }
+
+    // Usuario encontrado pelos trigramas: quantos trigramas da consulta ele tem e o seu numero na base,
+    // guardado para procurar nas proximas listas sem buscar o id de novo
+    private static final class Candidato {
+
+        private final int numero;
+
+        private int trigramas;
+
+        private Candidato(int numero) {
+            this.numero = numero;
+        }
+
+    }
+
+    // Acumula os usuarios lidos do banco e monta a base no fim
+    // Durante a montagem as listas guardam os ids, que só viram numeros depois de todos os ids serem conhecidos e ordenados
+    private static final class Montagem {
+
+        // Referencia, cabeçalho do array e cabeçalho e bytes de uma string em uma jvm 64 bits com compressed oops
+        private static final int BYTES_REFERENCIA = 4;
+        private static final int BYTES_ARRAY = 16;
+        private static final int BYTES_STRING = 24 + 16;
+
+        private long[] ids = new long[1024];
+        private int quantidade;
+
+        private final Map<String, Ids> termos = new HashMap<>();
+        private final Map<String, Ids> trigramas = new HashMap<>();
+
+        private void adicionar(long id, Documento documento) {
+            if (quantidade == ids.length) {
+                ids = Arrays.copyOf(ids, quantidade * 2);
+            }
+            ids[quantidade++] = id;
+            documento.termos.forEach(termo -> termos.computeIfAbsent(termo, c -> new Ids()).adicionar(id));
+            documento.trigramas.forEach(trigrama -> trigramas.computeIfAbsent(trigrama, c -> new Ids()).adicionar(id));
+        }
+
+        private Base construir() {
+            var ordenados = Arrays.copyOf(ids, quantidade);
+            Arrays.sort(ordenados);
+            var memoria = BYTES_ARRAY + (long) ordenados.length * Long.BYTES;
+
+            var chaves = termos.keySet().toArray(new String[0]);
+            Arrays.sort(chaves);
+            var termosUsuarios = new int[chaves.length][];
+            for (int t = 0; t < chaves.length; t++) {
+                termosUsuarios[t] = termos.remove(chaves[t]).numeros(ordenados);
+                memoria += 2 * BYTES_REFERENCIA + BYTES_STRING + chaves[t].length() + BYTES_ARRAY + termosUsuarios[t].length * Integer.BYTES;
+            }
+
+            var trigramasUsuarios = new HashMap<String, int[]>(trigramas.size() * 4 / 3 + 1);
+            for (var trigrama : trigramas.entrySet()) {
+                var numeros = trigrama.getValue().numeros(ordenados);
+                trigramasUsuarios.put(trigrama.getKey(), numeros);
+                // Nó do HashMap, string e array
+                memoria += 32 + BYTES_STRING + 3 + BYTES_ARRAY + numeros.length * Integer.BYTES;
+            }
+            trigramas.clear();
+
+            return new Base(ordenados, chaves, termosUsuarios, trigramasUsuarios, memoria);
+        }
+
+    }
+
+    // Lista de ids que cresce conforme os usuarios são lidos
+    private static final class Ids {
+
+        private long[] ids = new long[2];
+        private int quantidade;
+
+        private void adicionar(long id) {
+            if (quantidade == ids.length) {
+                ids = Arrays.copyOf(ids, quantidade * 2);
+            }
+            ids[quantidade++] = id;
+        }
+
+        // Numero de cada id em ordenados, em ordem crescente
+        private int[] numeros(long[] ordenados) {
+            var numeros = new int[quantidade];
+            for (int i = 0; i < quantidade; i++) {
+                numeros[i] = Arrays.binarySearch(ordenados, ids[i]);
+            }
+            Arrays.sort(numeros);
+            return numeros;
+        }
+
+    }
+
+}
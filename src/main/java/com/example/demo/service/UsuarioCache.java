@@ -0,0 +1,178 @@
+package com.example.demo.service;
+
+import com.example.demo.config.LeituraEscrita;
+import com.example.demo.dto.cache.CacheEstatisticasResponse;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// Cache em memória das respostas do findById, que é a consulta mais chamada da api
+// Existem dois caches: um dos usuarios encontrados e outro, com duração bem menor, dos ids que não existem
+// O segundo evita que chamadas repetidas para ids inexistentes vão ao banco toda vez
+//
+// O UsuarioResponse é mutavel (@Data), então o cache guarda uma copia propria e devolve sempre uma copia nova
+// Assim quem altera a resposta que recebeu (mapper, controller, testes) não altera o que está no cache
+@Component
+public class UsuarioCache {
+
+    // Guarda um CompletableFuture por id, assim a busca no banco acontece fora do lock interno do cache (ver get)
+    private final AsyncCache<Long, UsuarioResponse> usuarios;
+
+    private final Cache<Long, Boolean> naoEncontrados;
+
+    public UsuarioCache(@Value("${usuario.cache.tamanho-maximo:10000}") long tamanhoMaximo,
+                        @Value("${usuario.cache.ttl:10m}") Duration ttl,
+                        @Value("${usuario.cache.nao-encontrado-ttl:5s}") Duration naoEncontradoTtl,
+                        MeterRegistry meterRegistry) {
+        this.usuarios = Caffeine.newBuilder()
+                .maximumSize(tamanhoMaximo) // Quando passar do limite, remove os menos usados
+                .expireAfterWrite(ttl) // Garante que alterações feitas fora da api (direto no banco) apareçam depois de um tempo
+                .recordStats() // Guarda os contadores de acertos, falhas e remoções
+                .buildAsync();
+        this.naoEncontrados = Caffeine.newBuilder()
+                .maximumSize(tamanhoMaximo)
+                .expireAfterWrite(naoEncontradoTtl)
+                .recordStats()
+                .build();
+
+        // Publica as mesmas estatisticas do /api/v1/admin/cache como metricas cache.* (gets, puts, evictions, size)
+        CaffeineCacheMetrics.monitor(meterRegistry, usuarios.synchronous(), "usuario");
+        CaffeineCacheMetrics.monitor(meterRegistry, naoEncontrados, "usuario-nao-encontrado");
+    }
+
+    // Retorna o usuario do cache ou executa a busca, guardando o resultado, seja ele encontrado ou não
+    public Optional<UsuarioResponse> get(Long id, Function<Long, Optional<UsuarioResponse>> busca) {
+        if (naoEncontrados.getIfPresent(id) != null) {
+            return Optional.empty();
+        }
+
+        // A busca não pode rodar dentro de usuarios.get(id, busca): ela seguraria o lock do ConcurrentHashMap interno,
+        // que é compartilhado por varios ids, enquanto espera uma conexão do pool. Os put e evict feitos depois do commit
+        // ainda seguram a conexão da transação e esperam esse mesmo lock, e com carga o pool acabava travado
+        // Aqui só o CompletableFuture entra no cache, a busca roda fora do lock, e quem pedir o mesmo id espera o mesmo futuro
+        var existente = usuarios.getIfPresent(id);
+        if (existente != null) {
+            return Optional.ofNullable(copiar(existente.join()));
+        }
+
+        var futuro = new CompletableFuture<UsuarioResponse>();
+        existente = usuarios.asMap().putIfAbsent(id, futuro);
+        if (existente != null) {
+            return Optional.ofNullable(copiar(existente.join()));
+        }
+
+        // O valor lido fica no cache até expirar, por isso a busca é sempre no primario: uma replica de leitura
+        // atrasada deixaria no cache uma versão antiga (ver LeituraEscrita)
+        UsuarioResponse usuarioResponse;
+        try {
+            usuarioResponse = LeituraEscrita.noPrimario(() -> busca.apply(id)).orElse(null);
+        } catch (RuntimeException exception) {
+            // Futuros com erro são removidos do cache pelo Caffeine
+            futuro.completeExceptionally(exception);
+            throw exception;
+        }
+
+        // O Caffeine não guarda valores nulos (o futuro completado com null é removido), então um usuario
+        // não encontrado vai para o outro cache
+        // Se um put ou evict aconteceu durante a busca, esse futuro já não está mais no cache: o resultado encontrado
+        // é descartado com ele, e o não encontrado não pode ir para o outro cache, senão esconderia o usuario salvo
+        // A verificação roda no compute do mesmo id, assim não passa entre o compute do put e a limpeza feita depois dele
+        if (usuarioResponse == null) {
+            usuarios.asMap().computeIfPresent(id, (chave, atual) -> {
+                if (atual == futuro) {
+                    naoEncontrados.put(id, Boolean.TRUE);
+                }
+                return atual;
+            });
+        }
+        futuro.complete(copiar(usuarioResponse));
+        return Optional.ofNullable(usuarioResponse);
+    }
+
+    // Retorna o usuario apenas se ele já estiver no cache, sem ir ao banco
+    // Uma busca ainda em andamento conta como ausente: quem chama pode estar segurando uma conexão, e esperar aqui
+    // uma busca que precisa de outra conexão é o mesmo travamento descrito no get
+    public Optional<UsuarioResponse> getIfPresent(Long id) {
+        var futuro = usuarios.getIfPresent(id);
+        if (futuro == null || !futuro.isDone() || futuro.isCompletedExceptionally()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(copiar(futuro.getNow(null)));
+    }
+
+    // Atualiza o cache com a versão que acabou de ser salva
+    // Dentro de uma transação só é feito depois do commit, assim um rollback não deixa no cache algo que não foi salvo
+    // Duas atualizações do mesmo usuario podem chegar aqui fora da ordem dos commits, então uma versão mais antiga
+    // que a do cache é ignorada. Do contrario o cache ficaria com a versão antiga, e todo If-Match feito a partir
+    // dele receberia 412 até o cache expirar
+    public void put(UsuarioResponse usuarioResponse) {
+        var copia = copiar(usuarioResponse);
+        Transacoes.depoisDoCommit(() -> {
+            // A função só compara versões, sem ir ao banco, então pode rodar dentro do lock do compute
+            usuarios.asMap().compute(usuarioResponse.getId(), (id, atual) -> {
+                var emCache = atual != null && atual.isDone() && !atual.isCompletedExceptionally() ? atual.getNow(null) : null;
+                if (emCache != null && emCache.getVersao() > copia.getVersao()) {
+                    return atual;
+                }
+                return CompletableFuture.completedFuture(copia);
+            });
+
+            // Limpo depois do compute: uma busca que não encontrou o usuario e ainda não gravou isso já não tem o futuro no cache
+            naoEncontrados.invalidate(usuarioResponse.getId());
+        });
+    }
+
+    // Remove o usuario do cache. Dentro de uma transação a remoção acontece só depois do commit,
+    // do contrario uma leitura concorrente poderia guardar de novo o valor antigo antes do commit
+    public void evict(Long id) {
+        Transacoes.depoisDoCommit(() -> {
+            usuarios.synchronous().invalidate(id);
+            naoEncontrados.invalidate(id);
+        });
+    }
+
+    // Remove o usuario do cache ao fim da transação, mesmo com rollback
+    // Usado quando a transação vai falhar justamente porque o cache estava desatualizado
+    public void descartar(Long id) {
+        Transacoes.depoisDaTransacao(() -> usuarios.synchronous().invalidate(id));
+    }
+
+    // Esvazia os dois caches. Usado pelos testes, que apagam os usuarios direto no banco entre um teste e outro
+    public void limpar() {
+        usuarios.synchronous().invalidateAll();
+        naoEncontrados.invalidateAll();
+    }
+
+    public List<CacheEstatisticasResponse> estatisticas() {
+        return List.of(
+                CacheEstatisticasResponse.of("usuario", usuarios.synchronous()),
+                CacheEstatisticasResponse.of("usuario-nao-encontrado", naoEncontrados));
+    }
+
+    private static UsuarioResponse copiar(UsuarioResponse usuarioResponse) {
+        if (usuarioResponse == null) {
+            return null;
+        }
+        return UsuarioResponse.builder()
+                .id(usuarioResponse.getId())
+                .nome(usuarioResponse.getNome())
+                .email(usuarioResponse.getEmail())
+                .dataHoraCriacao(usuarioResponse.getDataHoraCriacao())
+                .ativo(usuarioResponse.isAtivo())
+                .versao(usuarioResponse.getVersao())
+                .dataHoraAtualizacao(usuarioResponse.getDataHoraAtualizacao())
+                .build();
+    }
+
+}
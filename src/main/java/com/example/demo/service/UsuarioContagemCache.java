@@ -0,0 +1,44 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.cache.CacheEstatisticasResponse;
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+// Guarda por pouco tempo o total de usuarios de cada filtro, usado no header X-Total-Count da listagem
+// Um cliente que percorre as paginas de um mesmo filtro dispara o count apenas uma vez por janela, e não uma vez por pagina
+// O total pode ficar desatualizado por até usuario.contagem.ttl, o que é aceitavel para exibir "N resultados"
+@Component
+public class UsuarioContagemCache {
+
+    private final Cache<UsuarioFilter, Long> cache;
+
+    public UsuarioContagemCache(@Value("${usuario.contagem.ttl:30s}") Duration ttl,
+                                @Value("${usuario.contagem.tamanho-maximo:10000}") long tamanhoMaximo,
+                                MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl) // Conta de novo depois que a janela passar
+                .maximumSize(tamanhoMaximo) // Limita a memória caso os clientes enviem muitos filtros diferentes
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "usuario-contagem");
+    }
+
+    // UsuarioFilter tem equals e hashCode gerados pelo @Data, então dois filtros com os mesmos campos são a mesma chave
+    // Se varias requisições pedirem o mesmo filtro ao mesmo tempo, apenas uma executa o count, as outras esperam o resultado
+    public long getOrCount(UsuarioFilter usuarioFilter, Function<UsuarioFilter, Long> contagem) {
+        return cache.get(usuarioFilter, contagem);
+    }
+
+    public CacheEstatisticasResponse estatisticas() {
+        return CacheEstatisticasResponse.of("usuario-contagem", cache);
+    }
+
+}
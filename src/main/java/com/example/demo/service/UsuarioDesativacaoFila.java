@@ -0,0 +1,500 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Fila de exclusões logicas aplicadas depois (write-behind), ligada com usuario.desativacao.assincrona=true
+//
+// O DELETE só grava o id em um arquivo local (log) e responde. Uma thread aplica os ids acumulados de tempos em tempos,
+// em pedaços, com um unico update ... where id in (...) por pedaço, ao inves de um select e um update por chamada
+// Com sharding os pedaços são separados por shard, cada um aplicado no banco dos seus ids (ver UsuarioShards.shardDe)
+// - Cada linha do log é gravada em disco (fsync) antes de responder. Varios DELETE simultaneos dividem o mesmo fsync
+// - O mesmo id excluido varias vezes antes de ser aplicado entra uma vez só
+// - Uma atualização do usuario (que o reativa) cancela a exclusão pendente, senão ela seria aplicada depois e desfaria a atualização
+//   O cancelamento só é gravado no commit da atualização, com rollback a exclusão volta para a fila
+// - Se a aplicação cair, o log é lido de novo na inicialização. No encerramento normal tudo que está pendente é aplicado
+//
+// Formato do log: uma linha por operação, "D <id>" para excluir e "C <id>" para cancelar uma exclusão pendente
+// Enquanto um pedaço é aplicado, o log é renomeado para <arquivo>.aplicando e as novas operações vão para um log novo
+@Slf4j
+@Component
+public class UsuarioDesativacaoFila {
+
+    private static final String EXCLUIR = "D";
+    private static final String CANCELAR = "C";
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UsuarioCache usuarioCache;
+
+    private final UsuarioBuscaIndice usuarioBuscaIndice;
+
+    private final UsuarioShards usuarioShards;
+
+    private final boolean habilitada;
+
+    private final Path arquivo;
+
+    private final Path arquivoAplicando;
+
+    private final Duration intervalo;
+
+    // Quantidade de ids por update, e também quantos pendentes antecipam a proxima aplicação
+    private final int tamanhoLote;
+
+    private final Timer tempoAplicacao;
+
+    private final Counter aplicadas;
+
+    // Os locks são sempre obtidos nessa ordem: aplicacao, sincronizacao, this
+    // this protege o log, pendentes e emAplicacao. sincronizacao protege o fsync. aplicacao é segurado durante cada update
+    private final Object sincronizacao = new Object();
+    private final Object aplicacao = new Object();
+
+    // id -> quando entrou na fila e a posição da sua linha no log. Em ordem de chegada, o primeiro é o mais antigo
+    private Map<Long, Pendente> pendentes = new LinkedHashMap<>();
+
+    // Ids que estão sendo aplicados agora, um cancelamento remove o id daqui antes do update do seu pedaço
+    private Set<Long> emAplicacao = new HashSet<>();
+    private long emAplicacaoDesde;
+
+    // Exclusões canceladas por uma atualização que ainda não terminou: não são aplicadas, mas continuam no log
+    // até o commit gravar o cancelamento. Com rollback voltam para pendentes
+    private final Map<Long, Pendente> reservados = new LinkedHashMap<>();
+
+    // Depois do encerramento o log está fechado e novas exclusões são recusadas
+    private boolean encerrada;
+
+    private FileChannel canal;
+
+    // Bytes gravados em todos os logs desde a inicialização, e quantos deles já foram para o disco
+    private long escritos;
+    private long sincronizados;
+
+    private ScheduledExecutorService agendador;
+
+    public UsuarioDesativacaoFila(UsuarioRepository usuarioRepository, TransactionTemplate transactionTemplate,
+                                  UsuarioCache usuarioCache, UsuarioBuscaIndice usuarioBuscaIndice, UsuarioShards usuarioShards,
+                                  @Value("${usuario.desativacao.assincrona:false}") boolean habilitada,
+                                  @Value("${usuario.desativacao.arquivo:desativacoes.log}") Path arquivo,
+                                  @Value("${usuario.desativacao.intervalo:500ms}") Duration intervalo,
+                                  @Value("${usuario.desativacao.lote:1000}") int tamanhoLote,
+                                  MeterRegistry meterRegistry) {
+        this.usuarioRepository = usuarioRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.usuarioCache = usuarioCache;
+        this.usuarioBuscaIndice = usuarioBuscaIndice;
+        this.usuarioShards = usuarioShards;
+        this.habilitada = habilitada;
+        this.arquivo = arquivo;
+        this.arquivoAplicando = arquivo.resolveSibling(arquivo.getFileName() + ".aplicando");
+        this.intervalo = intervalo;
+        this.tamanhoLote = tamanhoLote;
+
+        // Atraso da fila: quantos ids ainda não foram aplicados e há quanto tempo o mais antigo está esperando
+        Gauge.builder("usuario.desativacao.pendentes", this, UsuarioDesativacaoFila::quantidadePendente)
+                .description("Exclusões aceitas e ainda não aplicadas no banco")
+                .register(meterRegistry);
+        Gauge.builder("usuario.desativacao.atraso", this, UsuarioDesativacaoFila::atrasoSegundos)
+                .description("Tempo de espera da exclusão pendente mais antiga")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.tempoAplicacao = Timer.builder("usuario.desativacao.aplicacao")
+                .description("Tempo de cada aplicação da fila no banco")
+                .register(meterRegistry);
+        this.aplicadas = Counter.builder("usuario.desativacao.aplicadas")
+                .description("Exclusões aplicadas no banco")
+                .register(meterRegistry);
+    }
+
+    public boolean isHabilitada() {
+        return habilitada;
+    }
+
+    @PostConstruct
+    public void iniciar() throws IOException {
+        if (!habilitada) {
+            return;
+        }
+        recuperar();
+        agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            var thread = new Thread(tarefa, "usuario-desativacao");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agendador.scheduleWithFixedDelay(this::aplicarAgendado, intervalo.toMillis(), intervalo.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Aplica o que estiver pendente antes de fechar, o banco ainda está disponivel aqui
+    @PreDestroy
+    public void encerrar() throws Exception {
+        if (!habilitada) {
+            return;
+        }
+        synchronized (this) {
+            encerrada = true;
+        }
+        agendador.shutdown();
+        agendador.awaitTermination(1, TimeUnit.MINUTES);
+        // Se o banco falhar aqui as linhas continuam no log e são aplicadas na volta, mas o arquivo é fechado mesmo assim
+        try {
+            aplicar();
+        } finally {
+            synchronized (this) {
+                canal.close();
+            }
+        }
+    }
+
+    // Registra a exclusão de forma duravel. Quando retorna true, a linha já está no disco
+    // Retorna false se a fila já foi encerrada (aplicação parando), quem chamou deve excluir diretamente
+    public boolean registrar(Long id) {
+        long posicao;
+        int quantidade;
+        synchronized (this) {
+            if (encerrada) {
+                return false;
+            }
+            var pendente = pendentes.get(id);
+            if (pendente != null) {
+                // Já está na fila, basta esperar a linha que já foi escrita chegar ao disco
+                posicao = pendente.posicao;
+            } else {
+                posicao = escrever(EXCLUIR, id);
+                pendentes.put(id, new Pendente(System.nanoTime(), posicao));
+            }
+            quantidade = pendentes.size();
+        }
+        sincronizar(posicao);
+
+        // O encerramento pode ter parado o agendador depois da linha gravada, ela é aplicada pelo proprio encerramento
+        // O isShutdown evita a exceção no caso comum, mas o agendador pode parar entre ele e o execute
+        // A linha já está no disco, então a recusa não pode virar um erro para quem chamou
+        if (quantidade == tamanhoLote && !agendador.isShutdown()) {
+            try {
+                agendador.execute(this::aplicarAgendado);
+            } catch (RejectedExecutionException exception) {
+                log.debug("Fila de desativação encerrada, o lote será aplicado pelo encerramento");
+            }
+        }
+        return true;
+    }
+
+    // Cancela uma exclusão pendente do usuario, chamado antes de atualizações que o reativam, dentro da transação delas
+    // Se o pedaço com esse id estiver sendo aplicado, espera o update dele terminar: a atualização vem depois e prevalece
+    // A exclusão deixa de ser aplicada agora, mas o cancelamento só é gravado no log depois do commit. Com rollback ela
+    // volta para a fila, uma exclusão confirmada ao cliente não se perde por uma atualização que falhou
+    // Se a aplicação cair entre o commit e a gravação, a exclusão é aplicada na volta
+    public void cancelar(Long id) {
+        if (!habilitada) {
+            return;
+        }
+        synchronized (aplicacao) {
+            synchronized (this) {
+                var pendente = pendentes.remove(id);
+                if (emAplicacao.remove(id) && pendente == null) {
+                    pendente = new Pendente(emAplicacaoDesde, 0);
+                }
+                if (pendente == null) {
+                    return;
+                }
+                reservados.putIfAbsent(id, pendente);
+            }
+        }
+        Transacoes.depoisDoCommit(() -> confirmarCancelamento(id));
+        Transacoes.depoisDaTransacao(() -> devolverReservado(id));
+    }
+
+    // Depois do commit: grava o cancelamento. Uma nova exclusão registrada depois do cancelamento continua valendo
+    private void confirmarCancelamento(Long id) {
+        long posicao;
+        synchronized (this) {
+            // Depois do encerramento o log já pode estar fechado, e a exclusão volta a ser aplicada na proxima inicialização
+            if (reservados.remove(id) == null || pendentes.containsKey(id) || !canal.isOpen()) {
+                return;
+            }
+            posicao = escrever(CANCELAR, id);
+        }
+        sincronizar(posicao);
+    }
+
+    // Depois de um rollback o id ainda está reservado e volta para a fila, com a data em que entrou nela
+    private void devolverReservado(Long id) {
+        synchronized (this) {
+            var pendente = reservados.remove(id);
+            if (pendente != null) {
+                pendentes.putIfAbsent(id, pendente);
+            }
+        }
+    }
+
+    public void cancelar(Iterable<Long> ids) {
+        ids.forEach(this::cancelar);
+    }
+
+    private void aplicarAgendado() {
+        try {
+            aplicar();
+        } catch (RuntimeException exception) {
+            // Os ids voltaram para a fila, serão tentados de novo na proxima execução
+            log.error("Erro ao aplicar as exclusões pendentes", exception);
+        }
+    }
+
+    // Aplica no banco tudo que está pendente. Não é executado em paralelo: o agendador tem uma unica thread,
+    // e o encerramento espera o agendador parar antes de chamar
+    void aplicar() {
+        List<Long> lote;
+        synchronized (sincronizacao) {
+            synchronized (this) {
+                if (pendentes.isEmpty()) {
+                    return;
+                }
+                rotacionar();
+                lote = new ArrayList<>(pendentes.keySet());
+                emAplicacaoDesde = pendentes.values().iterator().next().desde;
+                emAplicacao = new HashSet<>(lote);
+                pendentes = new LinkedHashMap<>();
+            }
+        }
+
+        // Com sharding cada id é aplicado no shard dele, então os pedaços são montados separados por shard
+        var inicio = System.nanoTime();
+        try {
+            var porShard = lote.stream().collect(Collectors.groupingBy(usuarioShards::shardDe, LinkedHashMap::new, Collectors.toList()));
+            porShard.forEach((shard, ids) -> {
+                for (int i = 0; i < ids.size(); i += tamanhoLote) {
+                    var pedaco = ids.subList(i, Math.min(i + tamanhoLote, ids.size()));
+                    usuarioShards.noShard(shard, () -> {
+                        aplicarPedaco(pedaco);
+                        return null;
+                    });
+                }
+            });
+        } catch (RuntimeException exception) {
+            // O que não foi aplicado volta para a fila e para o log atual, antes de apagar o log que estava sendo aplicado
+            devolver();
+            throw exception;
+        } finally {
+            tempoAplicacao.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        }
+        manterReservados();
+        apagarLogAplicado();
+    }
+
+    // As linhas dos ids reservados podem estar no log que vai ser apagado, então são escritas de novo no log atual
+    // Antes do commit da atualização a exclusão ainda vale, e precisa sobreviver a uma queda
+    private void manterReservados() {
+        long posicao = 0;
+        synchronized (this) {
+            for (var id : reservados.keySet()) {
+                posicao = escrever(EXCLUIR, id);
+            }
+        }
+        sincronizar(posicao);
+    }
+
+    private void aplicarPedaco(List<Long> pedaco) {
+        var ids = transactionTemplate.execute(status -> {
+            // A transação (e a conexão) já foi aberta antes do lock, assim quem espera o lock nunca segura a ultima conexão livre
+            List<Long> aplicar;
+            synchronized (aplicacao) {
+                synchronized (this) {
+                    aplicar = new ArrayList<>(pedaco);
+                    aplicar.retainAll(emAplicacao);
+                }
+                if (!aplicar.isEmpty()) {
+                    usuarioRepository.desativarTodosById(aplicar, Usuario.agora());
+                }
+            }
+
+            // Executados depois do commit, como no deleteById
+            aplicar.forEach(id -> {
+                usuarioCache.evict(id);
+                usuarioBuscaIndice.remover(id);
+            });
+            return aplicar;
+        });
+        aplicadas.increment(ids.size());
+        synchronized (this) {
+            emAplicacao.removeAll(pedaco);
+        }
+    }
+
+    private void devolver() {
+        long posicao = 0;
+        synchronized (this) {
+            for (var id : emAplicacao) {
+                if (!pendentes.containsKey(id)) {
+                    posicao = escrever(EXCLUIR, id);
+                    pendentes.put(id, new Pendente(emAplicacaoDesde, posicao));
+                }
+            }
+            emAplicacao = new HashSet<>();
+        }
+        sincronizar(posicao);
+        manterReservados();
+        apagarLogAplicado();
+    }
+
+    // Lê os logs que sobraram de uma execução anterior, na ordem em que foram escritos, e aplica os cancelamentos
+    // O resultado é gravado em um log novo e compacto, e os antigos são apagados
+    private void recuperar() throws IOException {
+        var recuperados = new LinkedHashMap<Long, Boolean>();
+        for (var existente : List.of(arquivoAplicando, arquivo)) {
+            if (!Files.exists(existente)) {
+                continue;
+            }
+            for (var linha : Files.readAllLines(existente, StandardCharsets.UTF_8)) {
+                var partes = linha.split(" ");
+                if (partes.length != 2) {
+                    continue; // Linha incompleta, escrita durante uma queda e nunca confirmada para o cliente
+                }
+                var id = Long.valueOf(partes[1]);
+                if (EXCLUIR.equals(partes[0])) {
+                    recuperados.put(id, Boolean.TRUE);
+                } else {
+                    recuperados.remove(id);
+                }
+            }
+        }
+
+        var compactado = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        var conteudo = new StringBuilder();
+        recuperados.keySet().forEach(id -> conteudo.append(EXCLUIR).append(' ').append(id).append('\n'));
+        Files.writeString(compactado, conteudo, StandardCharsets.UTF_8);
+        try (var canal = FileChannel.open(compactado, StandardOpenOption.WRITE)) {
+            canal.force(true);
+        }
+        Files.move(compactado, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(arquivoAplicando);
+
+        synchronized (this) {
+            canal = FileChannel.open(arquivo, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            var agora = System.nanoTime();
+            recuperados.keySet().forEach(id -> pendentes.put(id, new Pendente(agora, 0)));
+        }
+        if (!recuperados.isEmpty()) {
+            log.info("{} exclusões pendentes recuperadas de {}", recuperados.size(), arquivo);
+        }
+    }
+
+    // Chamado com os locks sincronizacao e this: nenhuma escrita ou fsync acontece durante a troca
+    private void rotacionar() {
+        try {
+            canal.force(false);
+            canal.close();
+            sincronizados = escritos;
+            Files.move(arquivo, arquivoAplicando, StandardCopyOption.ATOMIC_MOVE);
+            canal = FileChannel.open(arquivo, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private void apagarLogAplicado() {
+        try {
+            Files.deleteIfExists(arquivoAplicando);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    // Chamado com o lock this. Retorna a posição do fim da linha, usada para saber quando ela chegou ao disco
+    private long escrever(String operacao, Long id) {
+        var linha = ByteBuffer.wrap((operacao + " " + id + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (linha.hasRemaining()) {
+                escritos += canal.write(linha);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return escritos;
+    }
+
+    // Garante que o log foi gravado em disco até a posição. Quem chega enquanto outro faz o fsync espera,
+    // e quase sempre encontra a sua linha já gravada por ele (group commit)
+    private void sincronizar(long posicao) {
+        synchronized (sincronizacao) {
+            if (sincronizados >= posicao) {
+                return;
+            }
+            long ate;
+            FileChannel atual;
+            synchronized (this) {
+                ate = escritos;
+                atual = canal;
+            }
+            try {
+                atual.force(false);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            sincronizados = ate;
+        }
+    }
+
+    private synchronized int quantidadePendente() {
+        return pendentes.size() + emAplicacao.size();
+    }
+
+    private synchronized double atrasoSegundos() {
+        long maisAntigo;
+        if (!emAplicacao.isEmpty()) {
+            maisAntigo = emAplicacaoDesde;
+        } else if (!pendentes.isEmpty()) {
+            maisAntigo = pendentes.values().iterator().next().desde;
+        } else {
+            return 0;
+        }
+        return (System.nanoTime() - maisAntigo) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static class Pendente {
+
+        private final long desde;
+        private final long posicao;
+
+        private Pendente(long desde, long posicao) {
+            this.desde = desde;
+            this.posicao = posicao;
+        }
+
+    }
+
+}
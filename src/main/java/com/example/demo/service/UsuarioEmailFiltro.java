@@ -0,0 +1,342 @@
+package com.example.demo.service;
+
+import com.example.demo.config.LeituraEscrita;
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+// Filtro de Bloom em memória com os emails cadastrados, para saber se um email está em uso sem ir ao banco
+//
+// Cada email marca alguns bits de um vetor, escolhidos por funções de hash. Se algum dos bits de um email não está marcado,
+// o email com certeza não foi cadastrado e a resposta sai sem consulta. Se todos estão marcados o email provavelmente
+// existe, mas pode ser só coincidência com bits de outros emails (falso positivo), então a confirmação é feita no banco,
+// pelo indice unico de email_busca. Um email cadastrado nunca recebe "não existe"
+//
+// O filtro é montado na inicialização, recebe os emails gravados pela api e é reconstruido do banco a cada
+// usuario.email.filtro.reconstrucao. Não é possivel remover um email do filtro: um email trocado ou de um usuario
+// arquivado continua marcado, o que só aumenta os falsos positivos até a proxima reconstrução
+// Tamanho e taxa de falso positivo são configurados em usuario.email.filtro e publicados como metricas usuario.email.filtro.*
+//
+// Cada instancia da aplicação tem o seu filtro, e só marca na hora os emails gravados por ela. Um email gravado por outra
+// instancia só entra aqui na proxima reconstrução, até lá o /existe pode responder que ele não existe
+// As gravações não dependem disso: sem sharding o indice unico do banco recusa o email repetido (409), e com sharding,
+// em que o indice é de cada shard, a verificação antes de gravar sempre consulta todos os shards (ver buscarDonoParaGravar)
+@Slf4j
+@Component
+public class UsuarioEmailFiltro {
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UsuarioShards usuarioShards;
+
+    // Vetor de bits, 64 por posição. O AtomicLongArray permite marcar bits de varias threads ao mesmo tempo
+    // Trocado por um vetor novo a cada reconstrução
+    private volatile AtomicLongArray bits;
+
+    // Vetor sendo preenchido por uma reconstrução, que também recebe os emails gravados enquanto ela acontece
+    private volatile AtomicLongArray emMontagem;
+
+    private final long quantidadeBits;
+
+    private final int quantidadeHashes;
+
+    // Até terminar a montagem inicial o filtro não pode dizer que um email não existe
+    private volatile boolean pronto;
+
+    private final Counter ausentes;
+
+    private final Counter encontrados;
+
+    private final Counter falsosPositivos;
+
+    // Intervalo entre as reconstruções a partir do banco, zero desliga
+    private final Duration reconstrucao;
+
+    private ScheduledExecutorService agendador;
+
+    public UsuarioEmailFiltro(UsuarioRepository usuarioRepository, TransactionTemplate transactionTemplate, UsuarioShards usuarioShards,
+                              @Value("${usuario.email.filtro.capacidade:1000000}") long capacidade,
+                              @Value("${usuario.email.filtro.falso-positivo:0.01}") double falsoPositivo,
+                              @Value("${usuario.email.filtro.reconstrucao:1h}") Duration reconstrucao,
+                              MeterRegistry meterRegistry) {
+        this.usuarioRepository = usuarioRepository;
+        // Cópia somente leitura do template, usada apenas na montagem
+        this.transactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.transactionTemplate.setReadOnly(true);
+        this.usuarioShards = usuarioShards;
+        this.reconstrucao = reconstrucao;
+
+        // Formulas do filtro de Bloom: para n emails e taxa p, m = -n * ln(p) / ln(2)² bits e k = m / n * ln(2) hashes
+        var bitsNecessarios = (long) Math.ceil(-capacidade * Math.log(falsoPositivo) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) Math.max(1, (bitsNecessarios + 63) / 64));
+        this.quantidadeBits = bits.length() * 64L;
+        this.quantidadeHashes = Math.max(1, (int) Math.round((double) quantidadeBits / capacidade * Math.log(2)));
+
+        var consultas = "usuario.email.filtro.consultas";
+        this.ausentes = Counter.builder(consultas)
+                .tag("resultado", "ausente")
+                .description("Verificações de email respondidas pelo filtro, sem consulta ao banco")
+                .register(meterRegistry);
+        this.encontrados = Counter.builder(consultas)
+                .tag("resultado", "encontrado")
+                .description("Verificações de email em que o filtro e o banco encontraram o email")
+                .register(meterRegistry);
+        this.falsosPositivos = Counter.builder(consultas)
+                .tag("resultado", "falso-positivo")
+                .description("Verificações de email em que o filtro indicou o email mas o banco não o encontrou")
+                .register(meterRegistry);
+        Gauge.builder("usuario.email.filtro.memoria", this, filtro -> filtro.bits.length() * (double) Long.BYTES)
+                .description("Memória ocupada pelo vetor de bits do filtro")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        // Estimada pela fração de bits marcados: um email não cadastrado é falso positivo se cair só em bits marcados
+        Gauge.builder("usuario.email.filtro.falso-positivo.estimado", this, UsuarioEmailFiltro::falsoPositivoEstimado)
+                .description("Chance atual de o filtro indicar um email não cadastrado")
+                .register(meterRegistry);
+        // Medida: dos emails não cadastrados verificados, quantos o filtro indicou
+        Gauge.builder("usuario.email.filtro.falso-positivo.observado", this, UsuarioEmailFiltro::falsoPositivoObservado)
+                .description("Fração das verificações de emails não cadastrados que precisaram consultar o banco")
+                .register(meterRegistry);
+    }
+
+    // Marca todos os emails cadastrados. O filtro é montado a partir do primario (ver LeituraEscrita),
+    // e com sharding os shards são lidos um depois do outro
+    @EventListener(ApplicationReadyEvent.class)
+    public void montar() {
+        reconstruir();
+        pronto = true;
+
+        if (!reconstrucao.isZero()) {
+            agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+                var thread = new Thread(tarefa, "usuario-email-filtro");
+                thread.setDaemon(true);
+                return thread;
+            });
+            agendador.scheduleWithFixedDelay(this::reconstruirAgendado, reconstrucao.toMillis(), reconstrucao.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        if (agendador != null) {
+            agendador.shutdownNow();
+        }
+    }
+
+    // Lê todos os emails do banco para um vetor novo, que substitui o atual no fim. Inclui os emails gravados por outras
+    // instancias e deixa de fora os que não existem mais. Enquanto isso o vetor atual continua respondendo
+    public void reconstruir() {
+        var inicio = System.currentTimeMillis();
+        var novo = new AtomicLongArray(bits.length());
+        var quantidade = new long[1];
+        emMontagem = novo;
+        try {
+            usuarioShards.emCada(() -> LeituraEscrita.noPrimario(() -> transactionTemplate.execute(status -> {
+                try (var emails = usuarioRepository.streamEmailBusca()) {
+                    emails.forEach(email -> {
+                        marcar(novo, email);
+                        quantidade[0]++;
+                    });
+                }
+                return null;
+            })));
+            bits = novo;
+        } finally {
+            emMontagem = null;
+        }
+        log.info("Filtro de emails montado com {} emails em {} ms ({} bytes, {} hashes)",
+                quantidade[0], System.currentTimeMillis() - inicio, novo.length() * Long.BYTES, quantidadeHashes);
+    }
+
+    private void reconstruirAgendado() {
+        try {
+            reconstruir();
+        } catch (RuntimeException exception) {
+            // O vetor atual continua valendo, a proxima reconstrução tenta de novo
+            log.error("Erro ao reconstruir o filtro de emails", exception);
+        }
+    }
+
+    // Marca o email no filtro. Chamado antes do commit: se a transação falhar o email fica marcado sem existir,
+    // o que é apenas mais um falso positivo. Marcar só depois do commit deixaria um instante em que o filtro diria que
+    // um email recém cadastrado não existe
+    // O email é marcado de novo depois do commit: uma reconstrução que começou antes dele não vê a linha no banco, e se
+    // ela começou logo depois da primeira marcação o vetor novo também não tem o email
+    public void adicionar(String email) {
+        var normalizado = Usuario.normalizar(email);
+        if (normalizado == null) {
+            return;
+        }
+        marcarAtuais(normalizado);
+        Transacoes.depoisDoCommit(() -> marcarAtuais(normalizado));
+    }
+
+    // Id do usuario que usa o email, vazio se ninguém usa
+    // Só consulta o banco quando o filtro indica que o email pode existir
+    public Optional<Long> buscarDono(String email) {
+        var normalizado = Usuario.normalizar(email);
+        if (normalizado == null) {
+            return Optional.empty();
+        }
+        if (pronto && !talvezContenha(normalizado)) {
+            ausentes.increment();
+            return Optional.empty();
+        }
+
+        var dono = consultarDono(normalizado);
+        if (!pronto) {
+            return dono;
+        }
+        (dono.isPresent() ? encontrados : falsosPositivos).increment();
+        return dono;
+    }
+
+    // Verificação antes de gravar um email. Com sharding não há indice unico entre os shards, e o filtro desta instancia
+    // pode não ter um email gravado por outra, então o "não existe" do filtro não basta e os shards sempre são consultados
+    public Optional<Long> buscarDonoParaGravar(String email) {
+        var normalizado = Usuario.normalizar(email);
+        if (normalizado != null && usuarioShards.isHabilitado()) {
+            return consultarDono(normalizado);
+        }
+        return buscarDono(email);
+    }
+
+    // Donos de varios emails de uma vez, para o lote: email normalizado -> id, apenas dos emails em uso
+    // Os emails que o filtro indica (ou todos, com sharding) são verificados em uma unica consulta por shard
+    public Map<String, Long> buscarDonosParaGravar(Collection<String> emails) {
+        var normalizados = emails.stream()
+                .map(Usuario::normalizar)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        var consultar = normalizados.stream()
+                .filter(email -> usuarioShards.isHabilitado() || !pronto || talvezContenha(email))
+                .collect(Collectors.toList());
+        if (!usuarioShards.isHabilitado() && pronto) {
+            ausentes.increment(normalizados.size() - consultar.size());
+        }
+        if (consultar.isEmpty()) {
+            return Map.of();
+        }
+
+        var donos = new HashMap<String, Long>();
+        LeituraEscrita.noPrimario(() -> usuarioShards.emTodos(() -> usuarioRepository.findAllResponseByEmailBuscaIn(consultar)))
+                .stream()
+                .flatMap(List::stream)
+                .forEach(usuario -> donos.putIfAbsent(Usuario.normalizar(usuario.getEmail()), usuario.getId()));
+        if (!usuarioShards.isHabilitado() && pronto) {
+            encontrados.increment(donos.size());
+            falsosPositivos.increment(consultar.size() - donos.size());
+        }
+        return donos;
+    }
+
+    // A leitura é no primario: uma replica atrasada não veria um email acabado de cadastrar
+    // Com sharding o indice unico é de cada shard, então todos os shards são consultados
+    private Optional<Long> consultarDono(String normalizado) {
+        return LeituraEscrita.noPrimario(() -> usuarioShards.emTodos(() -> usuarioRepository.findIdsByEmailBusca(normalizado)))
+                .stream()
+                .flatMap(List::stream)
+                .findFirst();
+    }
+
+    // O indice unico de email_busca recusou o insert ou update: outra requisição cadastrou o mesmo email
+    // entre a verificação e a gravação
+    public static boolean isEmailDuplicado(DataIntegrityViolationException exception) {
+        var mensagem = exception.getMostSpecificCause().getMessage();
+        return mensagem != null && mensagem.toLowerCase(Locale.ROOT).contains(Usuario.INDICE_EMAIL);
+    }
+
+    // Marca o vetor atual e, durante uma reconstrução, o vetor novo
+    // emMontagem é lido antes de bits: a reconstrução troca bits antes de limpar emMontagem, então um dos dois lidos aqui
+    // é sempre o vetor novo
+    private void marcarAtuais(String email) {
+        var novo = emMontagem;
+        if (novo != null) {
+            marcar(novo, email);
+        }
+        marcar(bits, email);
+    }
+
+    private void marcar(AtomicLongArray bits, String email) {
+        var hash1 = hash(email);
+        var hash2 = misturar(hash1);
+        for (int i = 0; i < quantidadeHashes; i++) {
+            var bit = Math.floorMod(hash1 + i * hash2, quantidadeBits);
+            var mascara = 1L << (bit & 63);
+            bits.getAndAccumulate((int) (bit >>> 6), mascara, (atual, novo) -> atual | novo);
+        }
+    }
+
+    private boolean talvezContenha(String email) {
+        var bits = this.bits;
+        var hash1 = hash(email);
+        var hash2 = misturar(hash1);
+        for (int i = 0; i < quantidadeHashes; i++) {
+            var bit = Math.floorMod(hash1 + i * hash2, quantidadeBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // As k posições são derivadas de dois hashes de 64 bits (h1 + i * h2), o que equivale a k hashes independentes
+    // FNV-1a sobre os bytes do email, com o embaralhamento do splitmix64 no fim para espalhar melhor os bits
+    private static long hash(String email) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b : email.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return misturar(hash);
+    }
+
+    private static long misturar(long valor) {
+        valor = (valor ^ (valor >>> 30)) * 0xbf58476d1ce4e5b9L;
+        valor = (valor ^ (valor >>> 27)) * 0x94d049bb133111ebL;
+        return valor ^ (valor >>> 31);
+    }
+
+    private double falsoPositivoEstimado() {
+        var bits = this.bits;
+        long marcados = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            marcados += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) marcados / quantidadeBits, quantidadeHashes);
+    }
+
+    private double falsoPositivoObservado() {
+        var naoCadastrados = ausentes.count() + falsosPositivos.count();
+        return naoCadastrados == 0 ? 0 : falsosPositivos.count() / naoCadastrados;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.repository.UsuarioCriterio;
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioFormatoArquivo;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.mapper.usuario.UsuarioResponseMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// Escreve os usuarios direto no corpo da resposta, um por vez, conforme são lidos do banco
+// A memória usada é a mesma para 10 mil ou 50 milhões de linhas: nada é acumulado em listas
+// Com sharding os shards são exportados um depois do outro, cada um em ordem de id
+@Service
+public class UsuarioExportacaoService {
+
+    private static final byte[] QUEBRA_LINHA = "\n".getBytes(StandardCharsets.UTF_8);
+    private static final String CABECALHO_CSV = "id,nome,email,dataHoraCriacao,ativo";
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final UsuarioResponseMapper usuarioResponseMapper;
+
+    // O mesmo ObjectMapper configurado pelo spring para as respostas da api, assim as datas saem no mesmo formato
+    private final ObjectMapper objectMapper;
+
+    private final int fetchSize;
+
+    // Transação somente leitura: o stream do banco fica aberto enquanto a transação estiver aberta
+    // Com sharding uma transação só usa um banco, então cada shard é lido na sua propria transação
+    private final TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final UsuarioShards usuarioShards;
+
+    public UsuarioExportacaoService(UsuarioRepository usuarioRepository, UsuarioResponseMapper usuarioResponseMapper, ObjectMapper objectMapper,
+                                    TransactionTemplate transactionTemplate, UsuarioShards usuarioShards,
+                                    @Value("${usuario.exportacao.fetch-size:1000}") int fetchSize) {
+        this.usuarioRepository = usuarioRepository;
+        this.usuarioResponseMapper = usuarioResponseMapper;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+        // Cópia somente leitura do template
+        this.transactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.transactionTemplate.setReadOnly(true);
+        this.usuarioShards = usuarioShards;
+    }
+
+    public void exportar(UsuarioCriterio filtro, UsuarioFormatoArquivo formato, OutputStream outputStream) throws IOException {
+        var saida = new BufferedOutputStream(outputStream);
+
+        if (formato == UsuarioFormatoArquivo.CSV) {
+            escreverLinha(saida, CABECALHO_CSV);
+        }
+
+        try {
+            usuarioShards.emCada(() -> transactionTemplate.executeWithoutResult(status -> escreverUsuarios(filtro, formato, saida)));
+        } catch (UncheckedIOException exception) {
+            // Nem o forEach nem o TransactionTemplate permitem exceções checadas, a original é relançada aqui
+            throw exception.getCause();
+        }
+
+        saida.flush();
+    }
+
+    private void escreverUsuarios(UsuarioCriterio filtro, UsuarioFormatoArquivo formato, OutputStream saida) {
+        try (var usuarios = usuarioRepository.streamAll(filtro, fetchSize)) {
+            usuarios.forEach(usuario -> {
+                var usuarioResponse = usuarioResponseMapper.fromUsuario(usuario);
+
+                // Remove a entidade do EntityManager, do contrario ele manteria uma referencia para cada linha lida
+                entityManager.detach(usuario);
+
+                try {
+                    if (formato == UsuarioFormatoArquivo.CSV) {
+                        escreverLinha(saida, toCsv(usuarioResponse));
+                    } else {
+                        saida.write(objectMapper.writeValueAsBytes(usuarioResponse));
+                        saida.write(QUEBRA_LINHA);
+                    }
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        }
+    }
+
+    private void escreverLinha(OutputStream saida, String linha) throws IOException {
+        saida.write(linha.getBytes(StandardCharsets.UTF_8));
+        saida.write(QUEBRA_LINHA);
+    }
+
+    private String toCsv(UsuarioResponse usuarioResponse) {
+        return usuarioResponse.getId() + ","
+                + campoCsv(usuarioResponse.getNome()) + ","
+                + campoCsv(usuarioResponse.getEmail()) + ","
+                + usuarioResponse.getDataHoraCriacao() + ","
+                + usuarioResponse.isAtivo();
+    }
+
+    // Campos com virgula, aspas ou quebra de linha vão entre aspas, com as aspas internas duplicadas (RFC 4180)
+    private String campoCsv(String valor) {
+        if (valor == null) {
+            return "";
+        }
+        if (valor.contains(",") || valor.contains("\"") || valor.contains("\n") || valor.contains("\r")) {
+            return "\"" + valor.replace("\"", "\"\"") + "\"";
+        }
+        return valor;
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.usuario.UsuarioFormatoArquivo;
+import com.example.demo.dto.usuario.UsuarioImportacaoErroResponse;
+import com.example.demo.dto.usuario.UsuarioImportacaoPedacoResponse;
+import com.example.demo.dto.usuario.UsuarioImportacaoResponse;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.exception.BadRequestException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Importa usuarios de um arquivo ndjson ou csv enviado no corpo da requisição
+// O arquivo é lido linha a linha conforme chega, apenas um pedaço (usuario.lote.tamanho linhas) fica em memória por vez
+// Cada pedaço é validado e commitado pelo UsuarioLoteService, o mesmo usado pelo endpoint de lote
+@Service
+public class UsuarioImportacaoService {
+
+    private final UsuarioLoteService usuarioLoteService;
+
+    private final ObjectMapper objectMapper;
+
+    public UsuarioImportacaoService(UsuarioLoteService usuarioLoteService, ObjectMapper objectMapper) {
+        this.usuarioLoteService = usuarioLoteService;
+        this.objectMapper = objectMapper;
+    }
+
+    public UsuarioImportacaoResponse importar(UsuarioFormatoArquivo formato, InputStream corpo) throws IOException {
+        var importacao = new UsuarioImportacaoResponse();
+        var reader = new BufferedReader(new InputStreamReader(corpo, StandardCharsets.UTF_8));
+
+        // No csv a primeira linha é o cabeçalho, que diz em qual coluna está cada campo
+        Map<String, Integer> colunas = null;
+        long numeroLinha = 0;
+        if (formato == UsuarioFormatoArquivo.CSV) {
+            var cabecalho = reader.readLine();
+            numeroLinha++;
+            colunas = lerCabecalho(cabecalho == null ? "" : cabecalho);
+        }
+
+        var pedaco = new Pedaco(importacao.getPedacos().size(), numeroLinha + 1);
+        String linha;
+        while ((linha = reader.readLine()) != null) {
+            numeroLinha++;
+            if (linha.isBlank()) {
+                continue;
+            }
+
+            try {
+                pedaco.adicionar(numeroLinha, formato == UsuarioFormatoArquivo.CSV ? lerCsv(linha, colunas) : lerJson(linha));
+            } catch (IllegalArgumentException | NullPointerException exception) {
+                // Linha que não pode nem ser convertida em UsuarioRequest, por exemplo json quebrado ou sem nome
+                pedaco.erro(numeroLinha, HttpStatus.BAD_REQUEST, exception.getMessage());
+            }
+
+            // Linhas com erro de leitura também contam, assim um arquivo só com erros não acumula tudo em memória
+            if (pedaco.tamanho() == usuarioLoteService.getTamanhoLote()) {
+                salvar(importacao, pedaco, numeroLinha);
+                pedaco = new Pedaco(importacao.getPedacos().size(), numeroLinha + 1);
+            }
+        }
+
+        if (pedaco.tamanho() > 0) {
+            salvar(importacao, pedaco, numeroLinha);
+        }
+
+        return importacao;
+    }
+
+    private void salvar(UsuarioImportacaoResponse importacao, Pedaco pedaco, long ultimaLinha) {
+        var resultados = usuarioLoteService.salvarPedaco(pedaco.requests, 0);
+        for (var resultado : resultados) {
+            if (resultado.getUsuario() != null) {
+                pedaco.resposta.setSalvos(pedaco.resposta.getSalvos() + 1);
+            } else {
+                pedaco.resposta.getErros().add(new UsuarioImportacaoErroResponse(pedaco.linhas.get(resultado.getIndice()), resultado.getStatus(), resultado.getErro()));
+            }
+        }
+
+        // Erros de leitura e de gravação juntos, na ordem do arquivo
+        pedaco.resposta.getErros().sort(Comparator.comparingLong(UsuarioImportacaoErroResponse::getLinha));
+        pedaco.resposta.setLinhaFinal(ultimaLinha);
+        importacao.getPedacos().add(pedaco.resposta);
+        importacao.setLinhas(importacao.getLinhas() + pedaco.tamanho());
+        importacao.setSalvos(importacao.getSalvos() + pedaco.resposta.getSalvos());
+        importacao.setErros(importacao.getErros() + pedaco.resposta.getErros().size());
+    }
+
+    private UsuarioRequest lerJson(String linha) {
+        try {
+            return objectMapper.readValue(linha, UsuarioRequest.class);
+        } catch (JsonProcessingException exception) {
+            throw new IllegalArgumentException("Json inválido: " + exception.getOriginalMessage());
+        }
+    }
+
+    private Map<String, Integer> lerCabecalho(String cabecalho) {
+        var colunas = new HashMap<String, Integer>();
+        var nomes = separarCsv(cabecalho);
+        for (int i = 0; i < nomes.size(); i++) {
+            colunas.put(nomes.get(i).trim().toLowerCase(), i);
+        }
+        // O arquivo inteiro é recusado (400): sem a coluna nome nenhuma linha poderia ser importada
+        if (!colunas.containsKey("nome")) {
+            throw new BadRequestException("O cabeçalho do csv precisa ter a coluna nome");
+        }
+        return colunas;
+    }
+
+    // As colunas são localizadas pelo cabeçalho, colunas desconhecidas são ignoradas
+    // Assim o csv gerado pela exportação pode ser importado de volta
+    private UsuarioRequest lerCsv(String linha, Map<String, Integer> colunas) {
+        var valores = separarCsv(linha);
+        var id = valor(valores, colunas, "id");
+        return UsuarioRequest.builder()
+                .id(id == null ? null : Long.valueOf(id)) // NumberFormatException extende IllegalArgumentException
+                .nome(valor(valores, colunas, "nome"))
+                .email(valor(valores, colunas, "email"))
+                .build();
+    }
+
+    private String valor(List<String> valores, Map<String, Integer> colunas, String coluna) {
+        var indice = colunas.get(coluna);
+        if (indice == null || indice >= valores.size() || valores.get(indice).isEmpty()) {
+            return null;
+        }
+        return valores.get(indice);
+    }
+
+    // Separa uma linha csv em colunas, respeitando campos entre aspas com virgulas e aspas duplicadas (RFC 4180)
+    // Campos com quebra de linha não são suportados, cada registro precisa estar em uma linha
+    private List<String> separarCsv(String linha) {
+        var valores = new ArrayList<String>();
+        var atual = new StringBuilder();
+        var entreAspas = false;
+
+        for (int i = 0; i < linha.length(); i++) {
+            var caractere = linha.charAt(i);
+            if (entreAspas) {
+                if (caractere == '"' && i + 1 < linha.length() && linha.charAt(i + 1) == '"') {
+                    atual.append('"');
+                    i++;
+                } else if (caractere == '"') {
+                    entreAspas = false;
+                } else {
+                    atual.append(caractere);
+                }
+            } else if (caractere == '"') {
+                entreAspas = true;
+            } else if (caractere == ',') {
+                valores.add(atual.toString());
+                atual.setLength(0);
+            } else {
+                atual.append(caractere);
+            }
+        }
+
+        if (entreAspas) {
+            throw new IllegalArgumentException("Aspas não fechadas na linha");
+        }
+        valores.add(atual.toString());
+        return valores;
+    }
+
+    // Linhas lidas que ainda não foram salvas, junto com o numero de cada uma no arquivo
+    private static class Pedaco {
+
+        private final List<UsuarioRequest> requests = new ArrayList<>();
+        private final List<Long> linhas = new ArrayList<>();
+        private final UsuarioImportacaoPedacoResponse resposta = new UsuarioImportacaoPedacoResponse();
+        private int errosLeitura;
+
+        private Pedaco(int indice, long linhaInicial) {
+            resposta.setIndice(indice);
+            resposta.setLinhaInicial(linhaInicial);
+        }
+
+        private void adicionar(long linha, UsuarioRequest usuarioRequest) {
+            requests.add(usuarioRequest);
+            linhas.add(linha);
+        }
+
+        private int tamanho() {
+            return requests.size() + errosLeitura;
+        }
+
+        private void erro(long linha, HttpStatus status, String mensagem) {
+            resposta.getErros().add(new UsuarioImportacaoErroResponse(linha, status.value(), mensagem));
+            errosLeitura++;
+        }
+
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.mapper.usuario.UsuarioMapper;
+import com.example.demo.mapper.usuario.UsuarioResponseMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+public class UsuarioLoteService {
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final UsuarioMapper usuarioMapper;
+
+    private final UsuarioResponseMapper usuarioResponseMapper;
+
+    // Validator do bean validation, o mesmo usado pelo @Valid na controller
+    // Aqui é necessário validar manualmente, pois um item invalido não pode derrubar o lote inteiro
+    private final Validator validator;
+
+    // TransactionTemplate permite abrir uma transação programaticamente, uma para cada pedaço do lote
+    // Com @Transactional teriamos uma unica transação para a lista inteira
+    private final TransactionTemplate transactionTemplate;
+
+    private final UsuarioCache usuarioCache;
+
+    private final UsuarioBuscaIndice usuarioBuscaIndice;
+
+    private final UsuarioDesativacaoFila usuarioDesativacaoFila;
+
+    private final UsuarioArquivamentoService usuarioArquivamentoService;
+
+    private final UsuarioEmailFiltro usuarioEmailFiltro;
+
+    private final UsuarioShards usuarioShards;
+
+    // Quantos itens são commitados por transação, configurado em usuario.lote.tamanho no application.yaml
+    private final int tamanhoLote;
+
+    public UsuarioLoteService(UsuarioRepository usuarioRepository, UsuarioMapper usuarioMapper, UsuarioResponseMapper usuarioResponseMapper,
+                              Validator validator, TransactionTemplate transactionTemplate, UsuarioCache usuarioCache,
+                              UsuarioBuscaIndice usuarioBuscaIndice, UsuarioDesativacaoFila usuarioDesativacaoFila,
+                              UsuarioArquivamentoService usuarioArquivamentoService, UsuarioEmailFiltro usuarioEmailFiltro,
+                              UsuarioShards usuarioShards, @Value("${usuario.lote.tamanho:500}") int tamanhoLote) {
+        this.usuarioRepository = usuarioRepository;
+        this.usuarioMapper = usuarioMapper;
+        this.usuarioResponseMapper = usuarioResponseMapper;
+        this.validator = validator;
+        this.transactionTemplate = transactionTemplate;
+        this.usuarioCache = usuarioCache;
+        this.usuarioBuscaIndice = usuarioBuscaIndice;
+        this.usuarioDesativacaoFila = usuarioDesativacaoFila;
+        this.usuarioArquivamentoService = usuarioArquivamentoService;
+        this.usuarioEmailFiltro = usuarioEmailFiltro;
+        this.usuarioShards = usuarioShards;
+        this.tamanhoLote = tamanhoLote;
+    }
+
+    public List<UsuarioLoteItemResponse> saveOrUpdateAll(List<UsuarioRequest> usuarioRequests) {
+        var resultados = new ArrayList<UsuarioLoteItemResponse>(usuarioRequests.size());
+
+        // Divide a lista em pedaços de tamanhoLote, cada pedaço é commitado separadamente
+        // Assim um erro de banco em um pedaço não desfaz o que já foi salvo nos anteriores
+        for (int inicio = 0; inicio < usuarioRequests.size(); inicio += tamanhoLote) {
+            var fim = Math.min(inicio + tamanhoLote, usuarioRequests.size());
+            resultados.addAll(salvarPedaco(usuarioRequests.subList(inicio, fim), inicio));
+        }
+
+        return resultados;
+    }
+
+    // Valida e salva uma lista de no maximo tamanhoLote itens em uma unica transação (com sharding, uma por shard)
+    // O indice de cada resultado é a posição do item somada ao deslocamento
+    public List<UsuarioLoteItemResponse> salvarPedaco(List<UsuarioRequest> usuarioRequests, int deslocamento) {
+        var resultados = new UsuarioLoteItemResponse[usuarioRequests.size()];
+        var validos = new ArrayList<Integer>();
+
+        for (int i = 0; i < usuarioRequests.size(); i++) {
+            var violacoes = validator.validate(usuarioRequests.get(i));
+            if (violacoes.isEmpty()) {
+                validos.add(i);
+            } else {
+                resultados[i] = erro(deslocamento + i, HttpStatus.BAD_REQUEST, violacoes.stream()
+                        .map(violacao -> violacao.getPropertyPath() + " " + violacao.getMessage())
+                        .collect(Collectors.joining(", ")));
+            }
+        }
+
+        // Os emails do pedaço são verificados juntos, em uma consulta (por shard) com todos os emails que o filtro indicar
+        var donos = usuarioEmailFiltro.buscarDonosParaGravar(validos.stream()
+                .map(i -> usuarioRequests.get(i).getEmail())
+                .collect(Collectors.toList()));
+
+        // Com sharding cada item vai para o shard dele: uma atualização para o shard do id, um usuario novo para o proximo
+        // shard do rodizio. Uma transação só usa um banco, então o pedaço é salvo em uma transação por shard
+        // O email repetido dentro do pedaço é verificado entre todos os shards: emails guarda os usados pelos itens já salvos
+        var emails = new HashSet<String>();
+        validos.stream()
+                .collect(Collectors.groupingBy(i -> usuarioRequests.get(i).getId() == null
+                        ? usuarioShards.proximoShard()
+                        : usuarioShards.shardDe(usuarioRequests.get(i).getId()), TreeMap::new, Collectors.toList()))
+                .forEach((shard, doShard) -> usuarioShards.noShard(shard, () -> {
+                    salvarNoShard(usuarioRequests, doShard, deslocamento, resultados, emails, donos);
+                    return null;
+                }));
+
+        return Arrays.asList(resultados);
+    }
+
+    // Salva em uma unica transação os itens validos que ficam no shard atual
+    private void salvarNoShard(List<UsuarioRequest> usuarioRequests, List<Integer> validos, int deslocamento,
+                               UsuarioLoteItemResponse[] resultados, Set<String> emails, Map<String, Long> donos) {
+        var emailsDoShard = new HashSet<String>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // As atualizações reativam os usuarios, então exclusões ainda na fila são canceladas antes
+                // Dentro da transação: o cancelamento só é gravado no commit, com rollback as exclusões continuam na fila
+                usuarioDesativacaoFila.cancelar(validos.stream()
+                        .map(i -> usuarioRequests.get(i).getId())
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList()));
+                salvarValidos(usuarioRequests, validos, deslocamento, resultados, emails, emailsDoShard, donos);
+            });
+
+            // Remove do cache do findById os itens salvos e atualiza o indice de busca
+            // Em importações grandes colocar cada item no cache apenas tiraria de lá os usuarios realmente consultados
+            // Aqui a transação já foi commitada, então as duas operações são executadas imediatamente
+            validos.stream()
+                    .map(i -> resultados[i])
+                    .filter(resultado -> resultado.getUsuario() != null)
+                    .map(UsuarioLoteItemResponse::getUsuario)
+                    .forEach(usuario -> {
+                        usuarioCache.evict(usuario.getId());
+                        usuarioBuscaIndice.atualizar(usuario.getId(), usuario.getNome(), usuario.getEmail());
+                    });
+        } catch (RuntimeException exception) {
+            // O commit falhou, nada dele foi salvo. Os itens validos recebem o erro, os invalidos mantém o seu
+            // Os emails desse shard não foram gravados e ficam livres para os itens dos proximos shards
+            log.error("Erro ao salvar lote de usuarios iniciando no indice {}", deslocamento, exception);
+            emails.removeAll(emailsDoShard);
+            for (var i : validos) {
+                resultados[i] = erro(deslocamento + i, HttpStatus.INTERNAL_SERVER_ERROR, "Erro ao salvar o lote: " + exception.getMessage());
+            }
+        }
+    }
+
+    private void salvarValidos(List<UsuarioRequest> usuarioRequests, List<Integer> validos, int deslocamento,
+                               UsuarioLoteItemResponse[] resultados, Set<String> emails, Set<String> emailsDoShard,
+                               Map<String, Long> donos) {
+
+        // Busca todos os usuarios que serão atualizados em uma unica consulta (where id in (...))
+        // ao inves de um findById por item como no saveOrUpdate
+        var ids = validos.stream()
+                .map(i -> usuarioRequests.get(i).getId())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        var existentes = usuarioRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Usuario::getId, Function.identity()));
+
+
+        var salvos = new HashMap<Integer, Usuario>();
+        var novos = new ArrayList<Usuario>();
+        for (var i : validos) {
+            var usuarioRequest = usuarioRequests.get(i);
+
+            // O email não pode ser de outro usuario nem de um item anterior do mesmo pedaço
+            // Ele só passa a ser do item quando o item é salvo, um item recusado (404) não impede os seguintes
+            var email = Usuario.normalizar(usuarioRequest.getEmail());
+            if (email != null) {
+                var dono = donos.get(email);
+                if (emails.contains(email) || dono != null && !dono.equals(usuarioRequest.getId())) {
+                    resultados[i] = erro(deslocamento + i, HttpStatus.CONFLICT, "Email já cadastrado");
+                    continue;
+                }
+            }
+
+            if (usuarioRequest.getId() == null) {
+                var usuario = usuarioMapper.fromUsuarioRequest(usuarioRequest);
+                novos.add(usuario);
+                salvos.put(i, usuario);
+                usarEmail(email, emails, emailsDoShard);
+                continue;
+            }
+
+            // Um id que não está na tabela usuario pode estar arquivado. O arquivado volta para a tabela, já com o
+            // email verificado acima, e é atualizado. Só acontece com ids não encontrados, o caso comum continua com uma unica consulta
+            var usuario = existentes.get(usuarioRequest.getId());
+            if (usuario == null && usuarioArquivamentoService.restaurar(usuarioRequest.getId(), usuarioRequest.getNome(), usuarioRequest.getEmail())) {
+                usuario = usuarioRepository.findById(usuarioRequest.getId()).orElse(null);
+            }
+            if (usuario == null) {
+                resultados[i] = erro(deslocamento + i, HttpStatus.NOT_FOUND, "Usuário não encontrado");
+                continue;
+            }
+
+            // A entidade está gerenciada pela transação, alterar os campos é suficiente para gerar o update no commit
+            // A data de criação não é alterada, igual ao saveOrUpdate
+            usuario.setNome(usuarioRequest.getNome());
+            usuario.setEmail(usuarioRequest.getEmail());
+            usuario.setAtivo(true);
+            usuario.setDataHoraInativacao(null);
+            salvos.put(i, usuario);
+            usarEmail(email, emails, emailsDoShard);
+        }
+
+        // saveAll sem flush: os inserts e updates ficam pendentes e são enviados juntos, em batch
+        // O flush antecipa esse envio para antes das respostas, assim elas já trazem a data de atualização preenchida
+        // pelo @PreUpdate. Continua sendo um batch por comando, apenas enviado antes do commit
+        usuarioRepository.saveAll(novos);
+        usuarioRepository.flush();
+        salvos.values().forEach(usuario -> usuarioEmailFiltro.adicionar(usuario.getEmail()));
+
+        salvos.forEach((i, usuario) -> resultados[i] = UsuarioLoteItemResponse.builder()
+                .indice(deslocamento + i)
+                .status(usuarioRequests.get(i).getId() == null ? HttpStatus.CREATED.value() : HttpStatus.OK.value())
+                .usuario(usuarioResponseMapper.fromUsuario(usuario))
+                .build());
+    }
+
+    private void usarEmail(String email, Set<String> emails, Set<String> emailsDoShard) {
+        if (email != null) {
+            emails.add(email);
+            emailsDoShard.add(email);
+        }
+    }
+
+    public int getTamanhoLote() {
+        return tamanhoLote;
+    }
+
+    private UsuarioLoteItemResponse erro(int indice, HttpStatus status, String mensagem) {
+        return UsuarioLoteItemResponse.builder()
+                .indice(indice)
+                .status(status.value())
+                .erro(mensagem)
+                .build();
+    }
+
+}
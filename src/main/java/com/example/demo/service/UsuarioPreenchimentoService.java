@@ -0,0 +1,81 @@
+package com.example.demo.service;
+
+import com.example.demo.config.LeituraEscrita;
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Preenche, ao subir, as colunas novas nas linhas gravadas antes delas existirem
+// O ddl-auto update (e o baseline do flyway) só criam as colunas, as linhas antigas ficam com null e não seriam
+// encontradas pelos filtros que consultam essas colunas (nome_busca e email_busca) nem arquivadas (data_hora_inativacao)
+//
+// Cada update só altera as linhas ainda sem valor, então depois da primeira inicialização não há mais nada a fazer
+// O email_busca tem indice unico. Se usuarios antigos repetem um email (com outras maiusculas, por exemplo) o preenchimento
+// é recusado pelo indice, e a aplicação não sobe: a exceção lista os emails repetidos, que precisam ser corrigidos no banco
+// Roda antes dos demais listeners do ApplicationReadyEvent (indice de busca, filtro de emails), que leem essas colunas,
+// e a aplicação só aceita requisições depois deles
+@Slf4j
+@Service
+public class UsuarioPreenchimentoService {
+
+    private static final int LIMITE_RELATORIO = 20;
+
+    private final UsuarioRepository usuarioRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UsuarioShards usuarioShards;
+
+    public UsuarioPreenchimentoService(UsuarioRepository usuarioRepository, TransactionTemplate transactionTemplate,
+                                       UsuarioShards usuarioShards) {
+        this.usuarioRepository = usuarioRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.usuarioShards = usuarioShards;
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void preencher() {
+        var nomes = new AtomicInteger();
+        var emails = new AtomicInteger();
+        var inativacoes = new AtomicInteger();
+        usuarioShards.emCada(() -> LeituraEscrita.noPrimario(() -> {
+            try {
+                return transactionTemplate.execute(status -> {
+                    nomes.addAndGet(usuarioRepository.preencherNomeBusca());
+                    emails.addAndGet(usuarioRepository.preencherEmailBusca());
+                    inativacoes.addAndGet(usuarioRepository.preencherDataHoraInativacao());
+                    return null;
+                });
+            } catch (DataIntegrityViolationException dataIntegrityViolationException) {
+                if (UsuarioEmailFiltro.isEmailDuplicado(dataIntegrityViolationException)) {
+                    throw emailsRepetidos(dataIntegrityViolationException);
+                }
+                throw dataIntegrityViolationException;
+            }
+        }));
+        if (nomes.get() > 0 || emails.get() > 0 || inativacoes.get() > 0) {
+            log.info("Colunas novas preenchidas em usuarios antigos: {} nomes, {} emails e {} datas de inativação",
+                    nomes.get(), emails.get(), inativacoes.get());
+        }
+    }
+
+    // Consulta separada, depois do rollback do preenchimento. Apenas os primeiros emails, o suficiente para começar a correção
+    private IllegalStateException emailsRepetidos(DataIntegrityViolationException causa) {
+        var repetidos = usuarioRepository.findEmailsRepetidos(PageRequest.of(0, LIMITE_RELATORIO));
+        return new IllegalStateException("Existem usuarios com o mesmo email (sem diferenciar maiusculas), o que impede o indice unico "
+                + Usuario.INDICE_EMAIL + ". Corrija os emails no banco antes de subir a aplicação. Emails repetidos"
+                + (repetidos.size() == LIMITE_RELATORIO ? " (primeiros " + LIMITE_RELATORIO + ")" : "") + ": " + repetidos, causa);
+    }
+
+}
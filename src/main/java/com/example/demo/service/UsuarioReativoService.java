@@ -0,0 +1,141 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.model.UsuarioReativo;
+import com.example.demo.domain.repository.UsuarioReativoRepository;
+import com.example.demo.dto.usuario.UsuarioCursor;
+import com.example.demo.dto.usuario.UsuarioCursorPage;
+import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.ConflictException;
+import com.example.demo.exception.PreconditionFailedException;
+import com.example.demo.mapper.usuario.UsuarioCursorMapper;
+import com.example.demo.mapper.usuario.UsuarioMapper;
+import com.example.demo.mapper.usuario.UsuarioResponseMapper;
+import com.example.demo.rest.UsuarioReativoApiService;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+// Implementação reativa do CRUD, ativa apenas com o profile reactive (ver application-reactive.yaml)
+// Cada operação é um unico comando sql, por isso não existe @Transactional aqui
+// O cache e o indice de busca do UsuarioService não são usados nesse modo
+// O filtro de emails é o mesmo do UsuarioService: os emails gravados aqui são marcados nele, e o email repetido é recusado
+// pelo indice unico do banco (409), sem a verificação antes de gravar, que bloquearia a thread
+@Service
+@Profile("reactive")
+public class UsuarioReativoService implements UsuarioReativoApiService {
+
+    private final UsuarioReativoRepository usuarioReativoRepository;
+
+    private final UsuarioMapper usuarioMapper;
+
+    private final UsuarioResponseMapper usuarioResponseMapper;
+
+    private final UsuarioCursorMapper usuarioCursorMapper;
+
+    private final UsuarioEmailFiltro usuarioEmailFiltro;
+
+    public UsuarioReativoService(UsuarioReativoRepository usuarioReativoRepository, UsuarioMapper usuarioMapper,
+                                 UsuarioResponseMapper usuarioResponseMapper, UsuarioCursorMapper usuarioCursorMapper,
+                                 UsuarioEmailFiltro usuarioEmailFiltro) {
+        this.usuarioReativoRepository = usuarioReativoRepository;
+        this.usuarioMapper = usuarioMapper;
+        this.usuarioResponseMapper = usuarioResponseMapper;
+        this.usuarioCursorMapper = usuarioCursorMapper;
+        this.usuarioEmailFiltro = usuarioEmailFiltro;
+    }
+
+    @Override
+    public Mono<UsuarioResponse> saveOrUpdate(UsuarioRequest usuarioRequest, Long versaoEsperada) {
+        // Sem transação o comando já foi confirmado quando a resposta chega, e só então o email é marcado no filtro
+        return gravar(usuarioMapper.fromUsuarioRequestReativo(usuarioRequest), versaoEsperada)
+                .doOnNext(usuarioResponse -> usuarioEmailFiltro.adicionar(usuarioResponse.getEmail()))
+                // O indice unico do banco recusou o email, que já é de outro usuario
+                .onErrorMap(erro -> erro instanceof DataIntegrityViolationException
+                                && UsuarioEmailFiltro.isEmailDuplicado((DataIntegrityViolationException) erro),
+                        erro -> new ConflictException("Email já cadastrado"));
+    }
+
+    private Mono<UsuarioResponse> gravar(UsuarioReativo usuario, Long versaoEsperada) {
+
+        if (usuario.getId() == null) {
+            return usuarioReativoRepository.inserir(usuario)
+                    .map(usuarioResponseMapper::fromUsuarioReativo);
+        }
+
+        // Mesmo update direto do UsuarioService, a data de criação é buscada depois apenas para a resposta
+        if (versaoEsperada == null) {
+            return usuarioReativoRepository.updateDadosById(usuario.getId(), usuario.getNome(), usuario.getNomeBusca(),
+                            usuario.getEmail(), usuario.getEmailBusca(), usuario.getDataHoraAtualizacao())
+                    .filter(linhasAlteradas -> linhasAlteradas > 0)
+                    .flatMap(linhasAlteradas -> usuarioReativoRepository.findById(usuario.getId()))
+                    .map(usuarioResponseMapper::fromUsuarioReativo);
+        }
+
+        // Com If-Match a versão é conferida no proprio update. Nenhuma linha alterada: só então um select
+        // diferencia o usuario inexistente (Mono vazio, 404) do alterado por outra requisição (412)
+        return usuarioReativoRepository.updateDadosByIdAndVersao(usuario.getId(), versaoEsperada, usuario.getNome(), usuario.getNomeBusca(),
+                        usuario.getEmail(), usuario.getEmailBusca(), usuario.getDataHoraAtualizacao())
+                .flatMap(linhasAlteradas -> linhasAlteradas > 0
+                        ? usuarioReativoRepository.findById(usuario.getId())
+                        : usuarioReativoRepository.existsById(usuario.getId())
+                        .flatMap(existe -> existe
+                                ? Mono.error(new PreconditionFailedException("Usuário alterado por outra requisição"))
+                                : Mono.empty()))
+                .map(usuarioResponseMapper::fromUsuarioReativo);
+    }
+
+    @Override
+    public Mono<UsuarioResponse> findById(Long id) {
+        return usuarioReativoRepository.findById(id)
+                .map(usuarioResponseMapper::fromUsuarioReativo);
+    }
+
+    @Override
+    public Flux<UsuarioResponse> findAll(UsuarioFilter usuarioFilter, Pageable pageable) {
+        return usuarioReativoRepository.findAll(usuarioMapper.fromUsuarioFilter(usuarioFilter), pageable)
+                .map(usuarioResponseMapper::fromUsuarioReativo);
+    }
+
+    @Override
+    public Mono<UsuarioCursorPage> findAllByCursor(UsuarioFilter usuarioFilter, String cursor, int size) {
+
+        // Mesma regra do UsuarioService.findAllByCursor: uma linha a mais indica que existe proxima pagina
+        // Aqui a pagina precisa ser juntada em uma lista, o cursor da proxima vai no header, antes do corpo
+        // Um cursor invalido vira um Mono com BadRequestException, tratado na controller
+        return Mono.fromCallable(() -> cursor.isEmpty() ? Optional.<UsuarioCursor>empty() : Optional.of(usuarioCursorMapper.fromCursor(cursor)))
+                .flatMap(posicao -> usuarioReativoRepository.findAllAfter(usuarioMapper.fromUsuarioFilter(usuarioFilter),
+                                posicao.map(UsuarioCursor::getNome).orElse(null),
+                                posicao.map(UsuarioCursor::getId).orElse(null),
+                                size + 1)
+                        .map(usuarioResponseMapper::fromUsuarioReativo)
+                        .collectList())
+                .map(usuarioList -> {
+                    var usuarios = usuarioList.size() > size ? usuarioList.subList(0, size) : usuarioList;
+                    return UsuarioCursorPage.builder()
+                            .usuarios(usuarios)
+                            .proximoCursor(usuarioList.size() > size ? usuarioCursorMapper.toCursor(usuarios.get(usuarios.size() - 1)) : null)
+                            .build();
+                });
+    }
+
+    @Override
+    public Mono<Long> count(UsuarioFilter usuarioFilter) {
+        return usuarioReativoRepository.count(usuarioMapper.fromUsuarioFilter(usuarioFilter));
+    }
+
+    @Override
+    public Mono<Boolean> deleteById(Long usuarioId) {
+        // Exclusão logica, como no UsuarioService, mas sem o select antes
+        return usuarioReativoRepository.desativarById(usuarioId, Usuario.agora())
+                .map(linhasAlteradas -> linhasAlteradas > 0);
+    }
+
+}
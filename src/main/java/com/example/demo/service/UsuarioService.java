@@ -2,20 +2,34 @@ package com.example.demo.service;
 
 import com.example.demo.domain.model.Usuario;
 import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioCursorPage;
+import com.example.demo.dto.usuario.UsuarioFormatoArquivo;
 import com.example.demo.dto.usuario.UsuarioFilter;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioImportacaoResponse;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
 import com.example.demo.dto.usuario.UsuarioRequest;
 import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.exception.ConflictException;
 import com.example.demo.exception.NotFoundException;
+import com.example.demo.exception.PreconditionFailedException;
+import com.example.demo.mapper.usuario.UsuarioCursorMapper;
 import com.example.demo.mapper.usuario.UsuarioMapper;
 import com.example.demo.mapper.usuario.UsuarioResponseMapper;
 import com.example.demo.rest.UsuarioApiService;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service // Avisa ao spring que esse também é um bean que deverá ser gerenciado
@@ -31,37 +45,198 @@ public class UsuarioService implements UsuarioApiService {
     // Receberá no construtor um objeto singleton instanciado pelo spring do tipo usuarioResponseMapper
     private final UsuarioResponseMapper usuarioResponseMapper;
 
+    // Converte o cursor da paginação por keyset
+    private final UsuarioCursorMapper usuarioCursorMapper;
+
+    // Cache das respostas do findById
+    private final UsuarioCache usuarioCache;
+
+    // Cache de curta duração do total de registros por filtro
+    private final UsuarioContagemCache usuarioContagemCache;
+
+    // Operações em lote ficam em um serviço separado, essa classe apenas delega
+    private final UsuarioLoteService usuarioLoteService;
+
+    private final UsuarioExportacaoService usuarioExportacaoService;
+
+    private final UsuarioImportacaoService usuarioImportacaoService;
+
+    // Indice em memória da busca por nome e email
+    private final UsuarioBuscaIndice usuarioBuscaIndice;
+
+    // Exclusões aplicadas depois, quando usuario.desativacao.assincrona está ligado
+    private final UsuarioDesativacaoFila usuarioDesativacaoFila;
+
+    // Usuarios excluidos há muito tempo ficam em outra tabela, o findById e a atualização também olham lá
+    private final UsuarioArquivamentoService usuarioArquivamentoService;
+
+    // Busca de varios ids de uma vez
+    private final UsuarioBuscaIdsService usuarioBuscaIdsService;
+
+    // Emails em uso, para recusar emails repetidos e responder o /existe quase sempre sem consulta
+    private final UsuarioEmailFiltro usuarioEmailFiltro;
+
+    // Com usuario.sharding.shards cada operação é direcionada ao shard do usuario, ou a todos eles nas listagens
+    private final UsuarioShards usuarioShards;
+
     // Injeta o bean do banco para a classe de serviço usar
-    public UsuarioService(UsuarioRepository usuarioRepository, UsuarioMapper usuarioMapper, UsuarioResponseMapper usuarioResponseMapper) {
+    public UsuarioService(UsuarioRepository usuarioRepository, UsuarioMapper usuarioMapper, UsuarioResponseMapper usuarioResponseMapper,
+                          UsuarioCursorMapper usuarioCursorMapper, UsuarioCache usuarioCache, UsuarioContagemCache usuarioContagemCache,
+                          UsuarioLoteService usuarioLoteService, UsuarioExportacaoService usuarioExportacaoService,
+                          UsuarioImportacaoService usuarioImportacaoService, UsuarioBuscaIndice usuarioBuscaIndice,
+                          UsuarioDesativacaoFila usuarioDesativacaoFila, UsuarioArquivamentoService usuarioArquivamentoService,
+                          UsuarioBuscaIdsService usuarioBuscaIdsService, UsuarioEmailFiltro usuarioEmailFiltro,
+                          UsuarioShards usuarioShards) {
         this.usuarioRepository = usuarioRepository;
         this.usuarioMapper = usuarioMapper;
         this.usuarioResponseMapper = usuarioResponseMapper;
+        this.usuarioCursorMapper = usuarioCursorMapper;
+        this.usuarioCache = usuarioCache;
+        this.usuarioContagemCache = usuarioContagemCache;
+        this.usuarioLoteService = usuarioLoteService;
+        this.usuarioExportacaoService = usuarioExportacaoService;
+        this.usuarioImportacaoService = usuarioImportacaoService;
+        this.usuarioBuscaIndice = usuarioBuscaIndice;
+        this.usuarioDesativacaoFila = usuarioDesativacaoFila;
+        this.usuarioArquivamentoService = usuarioArquivamentoService;
+        this.usuarioBuscaIdsService = usuarioBuscaIdsService;
+        this.usuarioEmailFiltro = usuarioEmailFiltro;
+        this.usuarioShards = usuarioShards;
     }
 
 
     @Override
+    @Transactional
     public UsuarioResponse saveOrUpdate(UsuarioRequest usuarioRequest) {
+        return saveOrUpdate(usuarioRequest, null);
+    }
+
+    @Override
+    @Transactional
+    public UsuarioResponse saveOrUpdate(UsuarioRequest usuarioRequest, Long versao) {
 
         // Faz o mapeamento do request para a entidade
         var usuario = usuarioMapper.fromUsuarioRequest(usuarioRequest);
 
-        // Verifica se já existe
-        if(usuarioRequest.getId() != null) {
-            var usuarioAnterior = usuarioRepository.findById(usuarioRequest.getId()).orElseThrow(() -> new NotFoundException("Usuário não encontrado"));
-            usuario.setDataHoraCriacao(usuarioAnterior.getDataHoraCriacao());
+        // O email não pode estar em uso por outro usuario. Na maioria dos emails novos o filtro responde sem ir ao banco
+        // (com sharding os shards sempre são consultados, ver UsuarioEmailFiltro)
+        var dono = usuarioEmailFiltro.buscarDonoParaGravar(usuario.getEmail());
+        if (dono.isPresent() && !dono.get().equals(usuarioRequest.getId())) {
+            throw new ConflictException("Email já cadastrado");
         }
 
+        try {
+            // Se for enviado um ID, é uma atualização
+            // Com sharding a transação já começou, mas a conexão só é escolhida no primeiro comando sql, que acontece
+            // dentro do shard informado aqui (ver ShardingConfig)
+            if(usuarioRequest.getId() != null) {
+                return usuarioShards.noShardDo(usuarioRequest.getId(), () -> atualizar(usuario, versao));
+            }
+
+            // Um usuario novo vai para o proximo shard, e o id gerado já indica qual foi
+            return usuarioShards.noProximoShard(() -> inserir(usuario));
+        } catch (DataIntegrityViolationException dataIntegrityViolationException) {
+            // Outra requisição gravou o mesmo email depois da verificação acima, o indice unico do banco recusou
+            if (UsuarioEmailFiltro.isEmailDuplicado(dataIntegrityViolationException)) {
+                throw new ConflictException("Email já cadastrado");
+            }
+            throw dataIntegrityViolationException;
+        }
+    }
+
+    private UsuarioResponse inserir(Usuario usuario) {
+
         // Salva imediatamente o usuario no banco
-        // Se for enviado um ID, ele fará um update, sem Id ele irá fazer um insert
+        // Sem Id ele irá fazer um insert
         //
         // Poderia ser usado apenas save(usuario) nesse caso, que deixaria o entitymanager (gerenciador do banco)
         // criar uma execução em batch no banco, executando da maneira mais otimizada possivel
         // Em alguns casos pode ser que seja do seu interesse usar o flush e forçar a execução
         // Tanto saveAndFlush quanto save retornam o mesmo objeto que o enviado no parâmetro, fica a seu critério como usar
         usuarioRepository.saveAndFlush(usuario);
+        usuarioEmailFiltro.adicionar(usuario.getEmail());
 
         // Mapeia a entidade para um objeto de resposta
-        return usuarioResponseMapper.fromUsuario(usuario);
+        var usuarioResponse = usuarioResponseMapper.fromUsuario(usuario);
+
+        // O cache e o indice de busca recebem a versão nova depois do commit
+        usuarioCache.put(usuarioResponse);
+        usuarioBuscaIndice.atualizar(usuario.getId(), usuario.getNome(), usuario.getEmail());
+        return usuarioResponse;
+    }
+
+    private UsuarioResponse atualizar(Usuario usuario, Long versaoEsperada) {
+
+        // Usar saveAndFlush aqui custaria um findById para recuperar a data de criação, mais o select que o merge faz
+        // para carregar a entidade antes do update. O update direto faz tudo em uma ida ao banco, e a quantidade de
+        // linhas alteradas diz se o usuario existe, sem precisar de um select antes
+        // A data de criação não entra no update, a coluna já é updatable = false
+        // O update reativa o usuario, então uma exclusão ainda na fila não pode ser aplicada depois dele
+        usuarioDesativacaoFila.cancelar(usuario.getId());
+        usuario.normalizarBusca();
+        usuario.setDataHoraAtualizacao(Usuario.agora());
+
+        // Com If-Match o update só é aplicado na versão informada. Sem ele, a versão do cache é usada como palpite:
+        // se ela ainda for a atual, a resposta sai sem nenhum select, pois a nova versão é a do cache + 1
+        var emCache = usuarioCache.getIfPresent(usuario.getId());
+        var versao = versaoEsperada != null ? versaoEsperada : emCache.map(UsuarioResponse::getVersao).orElse(null);
+        var linhasAlteradas = atualizarDados(usuario, versao);
+
+        // Um usuario arquivado volta para a tabela usuario (com a mesma versão) e recebe o mesmo update
+        if (linhasAlteradas == 0 && usuarioArquivamentoService.restaurar(usuario.getId(), usuario.getNome(), usuario.getEmail())) {
+            linhasAlteradas = atualizarDados(usuario, versao);
+        }
+
+        // Nenhuma linha na versão esperada: o usuario não existe ou está em outra versão
+        // Só nesse caso é feito um select, para diferenciar o 404 do 412
+        if (linhasAlteradas == 0 && versao != null && usuarioRepository.existsById(usuario.getId())) {
+            // O cliente pode ter lido a versão do cache, que talvez esteja desatualizado. Descartando,
+            // a proxima leitura busca a versão atual no banco
+            if (versaoEsperada != null) {
+                usuarioCache.descartar(usuario.getId());
+                throw new PreconditionFailedException("Usuário alterado por outra requisição");
+            }
+
+            // Sem If-Match vale a ultima escrita, o cache é que estava desatualizado
+            versao = null;
+            linhasAlteradas = atualizarDados(usuario, null);
+        }
+        if (linhasAlteradas == 0) {
+            throw new NotFoundException("Usuário não encontrado");
+        }
+        usuarioEmailFiltro.adicionar(usuario.getEmail());
+
+        // A data de criação só é necessária para a resposta, e vem do cache quando ele tem o usuario
+        // Se a versão anterior não é conhecida, a resposta é buscada do banco depois do update, na mesma transação
+        UsuarioResponse usuarioResponse;
+        if (versao != null && emCache.isPresent()) {
+            usuario.setDataHoraCriacao(emCache.get().getDataHoraCriacao());
+            usuario.setVersao(versao + 1);
+            usuarioResponse = usuarioResponseMapper.fromUsuario(usuario);
+        } else {
+            usuarioResponse = usuarioRepository.findResponseById(usuario.getId())
+                    .orElseThrow(() -> new NotFoundException("Usuário não encontrado"));
+        }
+        usuarioCache.put(usuarioResponse);
+
+        // O update sempre reativa o usuario, então ele volta para o indice mesmo se tinha sido excluido
+        usuarioBuscaIndice.atualizar(usuario.getId(), usuario.getNome(), usuario.getEmail());
+        return usuarioResponse;
+    }
+
+    // Update direto dos dados, condicionado à versão quando ela é informada
+    private int atualizarDados(Usuario usuario, Long versao) {
+        if (versao == null) {
+            return usuarioRepository.updateDadosById(usuario.getId(), usuario.getNome(), usuario.getNomeBusca(),
+                    usuario.getEmail(), usuario.getEmailBusca(), usuario.getDataHoraAtualizacao());
+        }
+        return usuarioRepository.updateDadosByIdAndVersao(usuario.getId(), versao, usuario.getNome(), usuario.getNomeBusca(),
+                usuario.getEmail(), usuario.getEmailBusca(), usuario.getDataHoraAtualizacao());
+    }
+
+    @Override
+    public List<UsuarioLoteItemResponse> saveOrUpdateAll(List<UsuarioRequest> usuarioRequests) {
+        return usuarioLoteService.saveOrUpdateAll(usuarioRequests);
     }
 
     @Override
@@ -69,35 +244,141 @@ public class UsuarioService implements UsuarioApiService {
         // Procura um usuario por id no banco, lança runtimeexception se não encontrado
         // Pode ser criada uma exceção customizada e criar retornos customizados usando classes de configuração @ExceptionHandler
         // não precisando ser feito tratamento nas camadas superiores, o proprio spring tratará as @ExceptionHandler configuradas
-        var usuario = usuarioRepository.findById(id).orElseThrow(() -> new NotFoundException("Usuário não encontrado"));
+        // O cache só vai ao banco quando o id não foi buscado recentemente, inclusive para ids que não existem
+        // A consulta já retorna o UsuarioResponse, sem carregar a entidade
+        // Se não estiver na tabela usuario, procura entre os arquivados
+        return usuarioCache.get(id, chave -> usuarioShards.noShardDo(chave, () -> usuarioRepository.findResponseById(chave)
+                        .or(() -> usuarioArquivamentoService.findResponseById(chave))))
+                .orElseThrow(() -> new NotFoundException("Usuário não encontrado"));
+    }
 
-        // Mapeia a entidade para um objeto de resposta
-        return usuarioResponseMapper.fromUsuario(usuario);
+    @Override
+    public UsuarioIdsResponse findAllById(List<Long> ids) {
+        return usuarioBuscaIdsService.findAllById(ids);
+    }
+
+    @Override
+    public boolean existsByEmail(String email) {
+        return usuarioEmailFiltro.buscarDono(email).isPresent();
     }
 
     @Override
     public List<UsuarioResponse> findAll(UsuarioFilter usuarioFilter, Pageable pageable) {
 
+        // Converte o filtro da api para o criterio usado nas consultas do repository
+        // Filtragens mais complexas dependem de queries criadas manualmente, seja usando @Query, queryByName
+        // ou uma implementação customizada (UsuarioRepositoryImpl), que é o caso aqui
+        var filtro = usuarioMapper.fromUsuarioFilter(usuarioFilter);
 
-        // Deve ser feita a configuração do funcionamento do filtro, baseado nos valores preenchidos no objeto Example.of criado abaixo
-        var exampleMatcher = ExampleMatcher.matchingAny() // Significa que deve usar uma OR para filtrar
-            .withIgnoreNullValues() // Os campos null não serão utilizados para filtragem, sem isso ele irá comparar se os valores dos campos são null
-            .withIgnoreCase(); // Ignora diferenças entre maiusculas e minusculas
+        // Executa a busca filtrada no banco
+        // findSlice ao inves de findAll(filtro, pageable): o findAll retorna um Page, que executa também um select count(*)
+        // com o mesmo filtro em toda chamada, e o total não é retornado por esse método
+        // Os itens já vem como UsuarioResponse da consulta, não é necessário mapear as entidades
+        if (!usuarioShards.isHabilitado()) {
+            return usuarioRepository.findSlice(filtro, pageable).getContent();
+        }
 
-        // Example.of faz parte do ExampleMatcher do spring data, que tem algumas opções de filtro nativas
-        // Filtragens mais complexas depende de queries criadas manualmente, seja usando @Query ou queryByName
-        // Para os dois casos haverão exemplos na UsuarioRepository
-        var filtro = Example.of(usuarioMapper.fromUsuarioFilter(usuarioFilter), exampleMatcher);
+        // Sem paginação não há ordem pedida, basta juntar o que cada shard encontrou
+        if (pageable.isUnpaged()) {
+            return usuarioShards.emTodos(() -> usuarioRepository.findSlice(filtro, pageable).getContent()).stream()
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        }
 
-        // Executa a busca filtrada no banco
-        var usuarioList = usuarioRepository.findAll(filtro, pageable);
+        // Com sharding a pagina N global não é a pagina N de cada shard: cada shard retorna as suas primeiras
+        // (N + 1) * tamanho linhas, e o intercalar junta as listas na ordem pedida e pula as N primeiras paginas
+        // O custo cresce com o numero da pagina, para percorrer tudo a paginação por cursor é mais barata
+        // Nome e email são ordenados pelas colunas em minusculas, que o banco e o intercalar comparam da mesma forma
+        var sort = UsuarioShards.ordemEntreShards(pageable.getSort());
+        var porShard = PageRequest.of(0, (int) (pageable.getOffset() + pageable.getPageSize()), sort);
+        var listas = usuarioShards.emTodos(() -> usuarioRepository.findSlice(filtro, porShard).getContent());
+        return UsuarioShards.intercalar(listas, UsuarioShards.comparador(sort), pageable.getOffset(), pageable.getPageSize());
+    }
+
+    @Override
+    public UsuarioCursorPage findAllByCursor(UsuarioFilter usuarioFilter, String cursor, int size) {
+
+        // Cursor vazio é a primeira pagina, do contrario continua a partir do (nome, id) codificado no cursor
+        var posicao = cursor.isEmpty() ? null : usuarioCursorMapper.fromCursor(cursor);
+
+        // Busca uma linha a mais do que o tamanho da pagina apenas para saber se existe uma proxima pagina
+        var filtro = usuarioMapper.fromUsuarioFilter(usuarioFilter);
+        List<UsuarioResponse> usuarioList;
+        if (!usuarioShards.isHabilitado()) {
+            usuarioList = usuarioRepository.findAllAfter(filtro,
+                    posicao == null ? null : posicao.getNome(),
+                    posicao == null ? null : posicao.getId(),
+                    size + 1);
+        } else {
+            // Com sharding cada shard continua do mesmo cursor e as listas são intercaladas na ordem (nome_busca, id)
+            var listas = usuarioShards.emTodos(() -> usuarioRepository.findAllAfterPorNomeBusca(filtro,
+                    posicao == null ? null : Usuario.normalizar(posicao.getNome()),
+                    posicao == null ? null : posicao.getId(),
+                    size + 1));
+            usuarioList = UsuarioShards.intercalar(listas, UsuarioShards.comparador(Sort.by("nomeBusca", "id")), 0, size + 1);
+        }
+
+        var usuarios = usuarioList.size() > size ? usuarioList.subList(0, size) : usuarioList;
 
-        // Agora usaremos a biblioteca de stream do java 8 para mapear a lista de usuarios para uma lista de usuarioResponse
-        return usuarioList.stream()
-                .map(usuario -> usuarioResponseMapper.fromUsuario(usuario))
+        return UsuarioCursorPage.builder()
+                .usuarios(usuarios)
+                .proximoCursor(usuarioList.size() > size ? usuarioCursorMapper.toCursor(usuarios.get(usuarios.size() - 1)) : null)
+                .build();
+    }
+
+    @Override
+    public long count(UsuarioFilter usuarioFilter) {
+        // Só vai ao banco se o mesmo filtro não foi contado nos ultimos segundos
+        // Com sharding é a soma da contagem de cada shard
+        return usuarioContagemCache.getOrCount(usuarioFilter, filtro -> usuarioShards.emTodos(() -> usuarioRepository.count(usuarioMapper.fromUsuarioFilter(filtro)))
+                .stream()
+                .mapToLong(Long::longValue)
+                .sum());
+    }
+
+    @Override
+    public List<UsuarioResponse> search(String texto, int limite) {
+
+        // O indice retorna apenas os ids, em ordem de relevância
+        var ids = usuarioBuscaIndice.buscar(texto, limite);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        // Carrega todos os usuarios em uma unica consulta (where id in (...)), que não garante a ordem,
+        // e depois recoloca na ordem do indice. Um id que não existe mais no banco é apenas ignorado
+        // Com sharding a mesma lista de ids é procurada em todos os shards, cada um encontra os seus
+        var usuarios = usuarioShards.emTodos(() -> usuarioRepository.findAllResponseByIdIn(ids)).stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toMap(UsuarioResponse::getId, Function.identity()));
+        return ids.stream()
+                .map(usuarios::get)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public void exportar(UsuarioFilter usuarioFilter, UsuarioFormatoArquivo formato, OutputStream outputStream) throws IOException {
+        // A exportação usa o mesmo filtro da listagem
+        usuarioExportacaoService.exportar(usuarioMapper.fromUsuarioFilter(usuarioFilter), formato, outputStream);
+    }
+
+    @Override
+    public UsuarioImportacaoResponse importar(UsuarioFormatoArquivo formato, InputStream inputStream) throws IOException {
+        return usuarioImportacaoService.importar(formato, inputStream);
+    }
+
+    @Override
+    public boolean agendarDeleteById(Long id) {
+        if (!usuarioDesativacaoFila.isHabilitada()) {
+            return false;
+        }
+
+        // Sem select: o id vai para a fila e a existencia só é verificada pelo update, que ignora ids inexistentes
+        // Com a aplicação parando a fila recusa o id, e a exclusão é feita na hora pelo deleteById
+        return usuarioDesativacaoFila.registrar(id);
+    }
+
     @Override
     @Transactional
     // Anotação que diz para executar uma transação
@@ -106,11 +387,36 @@ public class UsuarioService implements UsuarioApiService {
     // Transactional também diz que caso algum erro ocorra no meio da operação, tudo que foi feito sofrerá rollback
     // Se o método for concluído lançar sem exceção, as operações são commitadas
     public void deleteById(Long id) {
+        usuarioShards.noShardDo(id, () -> {
+            excluir(id);
+            return null;
+        });
+    }
+
+    private void excluir(Long id) {
 
         // Para esse caso será feita apenas uma deleção logica para exemplificação
         // caso queira fazer uma deleção fisica apenas chamar usuarioRepository.deleteById(id)
-        var usuario = usuarioRepository.findById(id).orElseThrow(() -> new NotFoundException("Usuário não encontrado"));
+        var usuario = usuarioRepository.findById(id).orElse(null);
+        if (usuario == null) {
+            // Um usuario arquivado já está excluido, a exclusão repetida não altera nada
+            if (usuarioArquivamentoService.isArquivado(id)) {
+                return;
+            }
+            throw new NotFoundException("Usuário não encontrado");
+        }
+
+        // A data da exclusão é usada pelo arquivamento, e não muda se o usuario já estava excluido
+        if (usuario.isAtivo()) {
+            usuario.setDataHoraInativacao(Usuario.agora());
+        }
         usuario.setAtivo(false);
         usuarioRepository.save(usuario);
+
+        // Remove do cache depois do commit, a proxima busca carrega o usuario inativo do banco
+        usuarioCache.evict(id);
+
+        // Usuarios inativos não aparecem na busca
+        usuarioBuscaIndice.remover(id);
     }
 }
@@ -0,0 +1,243 @@
+package com.example.demo.service;
+
+import com.example.demo.config.LeituraEscrita;
+import com.example.demo.config.Shards;
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.model.UsuarioIdGenerator;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Decide em qual shard cada operação de usuario é executada quando usuario.sharding.shards está configurado (ver ShardingConfig)
+// - por id: o shard está no proprio id (ver UsuarioIdGenerator.shardDe), apenas um banco é consultado
+// - inserção: os shards são usados em rodizio, e o id gerado já indica o shard escolhido
+// - listagens e contagens: a mesma consulta em todos os shards ao mesmo tempo, juntando os resultados depois (ver intercalar)
+// - lote, importação e fila de exclusões: os itens são separados por shard, com uma transação em cada um
+// - exportação e tarefas de manutenção: um shard depois do outro (ver emCada)
+// Sem sharding todos os métodos apenas executam a ação, uma unica vez
+@Service
+public class UsuarioShards {
+
+    // Ordem de cada campo aceito no sort, igual a do banco (nulos primeiro na ordem crescente)
+    private static final Comparator<String> TEXTO = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final int quantidade;
+
+    private final AtomicInteger proximo = new AtomicInteger();
+
+    // Uma thread por shard, para as consultas em todos os shards saírem em paralelo
+    private final ExecutorService executor;
+
+    public UsuarioShards(@Value("${usuario.sharding.shards:}") List<String> shards) {
+        this.quantidade = shards.size();
+        if (quantidade == 0) {
+            this.executor = null;
+            return;
+        }
+        var contador = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(quantidade, tarefa -> {
+            var thread = new Thread(tarefa, "usuario-shard-" + contador.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isHabilitado() {
+        return quantidade > 0;
+    }
+
+    // Shard do usuario com esse id, sempre 0 sem sharding
+    // Um id que não foi gerado com sharding (ex: digitado pelo cliente) cai em algum shard e simplesmente não é encontrado
+    public int shardDe(long id) {
+        return isHabilitado() ? UsuarioIdGenerator.shardDe(id) % quantidade : 0;
+    }
+
+    // Executa a ação no shard informado
+    public <T> T noShard(int shard, Supplier<T> acao) {
+        if (!isHabilitado()) {
+            return acao.get();
+        }
+        return Shards.noShard(shard, acao);
+    }
+
+    // Executa a ação no shard do usuario com esse id
+    public <T> T noShardDo(long id, Supplier<T> acao) {
+        return noShard(shardDe(id), acao);
+    }
+
+    // Executa a ação no proximo shard do rodizio, usado na inserção de usuarios novos
+    public <T> T noProximoShard(Supplier<T> acao) {
+        return noShard(proximoShard(), acao);
+    }
+
+    // Proximo shard do rodizio, sempre 0 sem sharding
+    public int proximoShard() {
+        return isHabilitado() ? Math.floorMod(proximo.getAndIncrement(), quantidade) : 0;
+    }
+
+    // Executa a ação em todos os shards em paralelo e retorna os resultados na ordem dos shards
+    // Cada execução roda em outra thread, então a ação não participa de uma transação aberta por quem chamou
+    // A leitura no primario (LeituraEscrita) de quem chamou continua valendo nas outras threads
+    public <T> List<T> emTodos(Supplier<T> acao) {
+        if (!isHabilitado()) {
+            return List.of(acao.get());
+        }
+        var execucoes = new ArrayList<CompletableFuture<T>>();
+        for (int i = 0; i < quantidade; i++) {
+            var shard = i;
+            execucoes.add(CompletableFuture.supplyAsync(LeituraEscrita.propagar(() -> Shards.noShard(shard, acao)), executor));
+        }
+        return aguardar(execucoes);
+    }
+
+    // Espera todas as execuções e retorna os resultados na mesma ordem
+    static <T> List<T> aguardar(List<CompletableFuture<T>> execucoes) {
+        try {
+            return execucoes.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException completionException) {
+            // Repassa a exceção original, assim um BadRequestException de outra thread continua virando 400
+            if (completionException.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) completionException.getCause();
+            }
+            throw completionException;
+        }
+    }
+
+    // Executa a ação em cada shard, um depois do outro, na thread atual
+    public void emCada(Runnable acao) {
+        if (!isHabilitado()) {
+            acao.run();
+            return;
+        }
+        for (int i = 0; i < quantidade; i++) {
+            Shards.noShard(i, () -> {
+                acao.run();
+                return null;
+            });
+        }
+    }
+
+    // Junta listas já ordenadas pelo mesmo comparador em uma unica lista ordenada (k-way merge), pulando os primeiros
+    // pular itens e retornando no maximo limite. Cada lista só é percorrida até onde a pagina pedida precisa
+    // A fila guarda apenas o item atual de cada lista, então cada passo custa log(quantidade de listas)
+    public static <T> List<T> intercalar(List<List<T>> listas, Comparator<? super T> comparador, long pular, int limite) {
+        var fila = new PriorityQueue<Posicao<T>>((a, b) -> comparador.compare(a.atual(), b.atual()));
+        listas.stream()
+                .filter(lista -> !lista.isEmpty())
+                .forEach(lista -> fila.add(new Posicao<>(lista)));
+
+        var resultado = new ArrayList<T>(limite);
+        for (long i = 0; resultado.size() < limite && !fila.isEmpty(); i++) {
+            var posicao = fila.poll();
+            if (i >= pular) {
+                resultado.add(posicao.atual());
+            }
+            if (posicao.avancar()) {
+                fila.add(posicao);
+            }
+        }
+        return resultado;
+    }
+
+    // Troca nome e email por nomeBusca e emailBusca, as colunas em minusculas, e termina a ordem pelo id
+    // É a ordem usada nas consultas de cada shard: com as colunas em minusculas o comparador abaixo ordena como o banco,
+    // o que não acontece com o nome e o email originais em bancos que não diferenciam maiusculas (ex: mysql)
+    // O id no fim dá ao empate entre shards sempre a mesma ordem
+    public static Sort ordemEntreShards(Sort sort) {
+        var ordens = sort.stream()
+                .map(ordem -> {
+                    switch (ordem.getProperty()) {
+                        case "nome":
+                            return ordem.withProperty("nomeBusca");
+                        case "email":
+                            return ordem.withProperty("emailBusca");
+                        default:
+                            return ordem;
+                    }
+                })
+                .collect(Collectors.toList());
+        var ordem = Sort.by(ordens);
+        return ordem.getOrderFor("id") == null ? ordem.and(Sort.by("id")) : ordem;
+    }
+
+    // Comparador equivalente ao order by gerado para o sort (ver UsuarioRepositoryImpl.orderBy)
+    // nomeBusca e emailBusca não estão na resposta, e são calculados do nome e do email como na gravação (Usuario.normalizar)
+    // Os textos são comparados como o java compara strings. Em um banco com collation que também ignora acentos,
+    // nomes que diferem só no acento ainda podem ter outra ordem no banco
+    public static Comparator<UsuarioResponse> comparador(Sort sort) {
+        Comparator<UsuarioResponse> comparador = (a, b) -> 0;
+        for (var ordem : sort) {
+            Comparator<UsuarioResponse> campo;
+            switch (ordem.getProperty()) {
+                case "id":
+                    campo = Comparator.comparing(UsuarioResponse::getId);
+                    break;
+                case "nome":
+                    campo = Comparator.comparing(UsuarioResponse::getNome, TEXTO);
+                    break;
+                case "email":
+                    campo = Comparator.comparing(UsuarioResponse::getEmail, TEXTO);
+                    break;
+                case "nomeBusca":
+                    campo = Comparator.comparing(usuario -> Usuario.normalizar(usuario.getNome()), TEXTO);
+                    break;
+                case "emailBusca":
+                    campo = Comparator.comparing(usuario -> Usuario.normalizar(usuario.getEmail()), TEXTO);
+                    break;
+                case "dataHoraCriacao":
+                    campo = Comparator.comparing(UsuarioResponse::getDataHoraCriacao);
+                    break;
+                case "ativo":
+                    campo = Comparator.comparing(UsuarioResponse::isAtivo);
+                    break;
+                default:
+                    // O repository já recusa o campo antes de chegar aqui
+                    throw new IllegalArgumentException("Não é possivel ordenar por " + ordem.getProperty());
+            }
+            comparador = comparador.thenComparing(ordem.isAscending() ? campo : campo.reversed());
+        }
+        return comparador;
+    }
+
+    // Posição de leitura em uma das listas do intercalar
+    private static class Posicao<T> {
+
+        private final List<T> lista;
+        private int indice;
+
+        private Posicao(List<T> lista) {
+            this.lista = lista;
+        }
+
+        private T atual() {
+            return lista.get(indice);
+        }
+
+        private boolean avancar() {
+            return ++indice < lista.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+-- Estrutura inicial, a mesma que o ddl-auto: update cria a partir das entidades Usuario e UsuarioArquivado
+-- Alterações nas entidades precisam de um novo arquivo V<n>__<descricao>.sql aqui e na pasta mysql,
+-- os arquivos já aplicados não podem mudar (o flyway guarda o checksum de cada um em flyway_schema_history)
+
+-- O incremento acompanha o increment_size do gerador de ids de Usuario
+create sequence usuario_seq start with 1 increment by 50;
+
+create table usuario (
+    id bigint not null,
+    ativo boolean not null,
+    data_hora_atualizacao timestamp not null,
+    data_hora_criacao timestamp not null,
+    data_hora_inativacao timestamp,
+    email varchar(255),
+    email_busca varchar(255),
+    nome_usuario varchar(255) not null,
+    nome_busca varchar(255),
+    versao bigint not null,
+    primary key (id)
+);
+
+create table usuario_archive (
+    id bigint not null,
+    ativo boolean not null,
+    data_hora_arquivamento timestamp not null,
+    data_hora_atualizacao timestamp not null,
+    data_hora_criacao timestamp not null,
+    data_hora_inativacao timestamp,
+    email varchar(255),
+    email_busca varchar(255),
+    nome_usuario varchar(255) not null,
+    nome_busca varchar(255),
+    versao bigint not null,
+    primary key (id)
+);
+
+create index idx_usuario_nome_id on usuario (nome_usuario, id);
+create index idx_usuario_ativo_nome_id on usuario (ativo, nome_usuario, id);
+create index idx_usuario_nome_busca on usuario (nome_busca);
+create index idx_usuario_ativo_inativacao on usuario (ativo, data_hora_inativacao);
+alter table usuario add constraint idx_usuario_email_busca unique (email_busca);
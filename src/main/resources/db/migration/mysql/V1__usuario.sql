@@ -0,0 +1,42 @@
+-- Estrutura inicial, a mesma que o ddl-auto: update cria a partir das entidades Usuario e UsuarioArquivado
+-- Alterações nas entidades precisam de um novo arquivo V<n>__<descricao>.sql aqui e na pasta h2,
+-- os arquivos já aplicados não podem mudar (o flyway guarda o checksum de cada um em flyway_schema_history)
+
+-- O mysql não tem sequences, o hibernate usa uma tabela com o proximo valor no lugar
+create table usuario_seq (next_val bigint) engine=InnoDB;
+insert into usuario_seq values (1);
+
+create table usuario (
+    id bigint not null,
+    ativo bit not null,
+    data_hora_atualizacao datetime(6) not null,
+    data_hora_criacao datetime(6) not null,
+    data_hora_inativacao datetime(6),
+    email varchar(255),
+    email_busca varchar(255),
+    nome_usuario varchar(255) not null,
+    nome_busca varchar(255),
+    versao bigint not null,
+    primary key (id)
+) engine=InnoDB;
+
+create table usuario_archive (
+    id bigint not null,
+    ativo bit not null,
+    data_hora_arquivamento datetime(6) not null,
+    data_hora_atualizacao datetime(6) not null,
+    data_hora_criacao datetime(6) not null,
+    data_hora_inativacao datetime(6),
+    email varchar(255),
+    email_busca varchar(255),
+    nome_usuario varchar(255) not null,
+    nome_busca varchar(255),
+    versao bigint not null,
+    primary key (id)
+) engine=InnoDB;
+
+create index idx_usuario_nome_id on usuario (nome_usuario, id);
+create index idx_usuario_ativo_nome_id on usuario (ativo, nome_usuario, id);
+create index idx_usuario_nome_busca on usuario (nome_busca);
+create index idx_usuario_ativo_inativacao on usuario (ativo, data_hora_inativacao);
+alter table usuario add constraint idx_usuario_email_busca unique (email_busca);
@@ -1,10 +1,19 @@
 package com.example.demo.rest;
 
+import com.example.demo.config.SqlContagemFilter;
 import com.example.demo.domain.model.Usuario;
 import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
 import com.example.demo.dto.usuario.UsuarioRequest;
 import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioArquivamentoService;
+import com.example.demo.service.UsuarioBuscaIndice;
+import com.example.demo.service.UsuarioCache;
+import com.example.demo.service.UsuarioEmailFiltro;
+import com.example.demo.service.UsuarioPreenchimentoService;
 import io.restassured.RestAssured;
+import io.restassured.path.json.JsonPath;
 import io.restassured.response.Response;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.entity.ContentType;
@@ -15,16 +24,29 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Slf4j // Anotação para logs do lombok, pode ser usada em qualquer classe, inclusive não testes, como log.info, log.error, log.warn e log.debug
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT, properties = "usuario.sql.contagem=true")
 // Indica que esse é um teste de integração. O sistema sobe um servidor e executa os testes descritos aqui
+// usuario.sql.contagem liga os headers X-Sql-*, usados para conferir os comandos sql de cada endpoint
 public class UsuarioApiTest {
 
     private static final String EMAIL_USUARIO = "joao_da_silva@email.com";
@@ -36,15 +58,39 @@ public class UsuarioApiTest {
 
     private static final String API_BASE = "/api/v1/usuario";
     private static final String API_BUSCA_ID = "/api/v1/usuario/%d";
+    private static final String API_LOTE = "/api/v1/usuario/batch";
+    private static final String API_BUSCA = "/api/v1/usuario/search";
+    private static final String API_EXISTE = "/api/v1/usuario/existe";
 
     private static final Long ID_NAO_ESPERADO = 1000000L;
 
     @LocalServerPort // Informa para a classe em qual porta o servidor de testes subiu
     private int port;
 
+    @Autowired
+    private UsuarioCache usuarioCache;
+
+    @Autowired
+    private UsuarioBuscaIndice usuarioBuscaIndice;
+
     @Autowired
     private UsuarioRepository usuarioRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UsuarioArquivamentoService usuarioArquivamentoService;
+
+    @Autowired
+    private UsuarioPreenchimentoService usuarioPreenchimentoService;
+
+    @Autowired
+    private UsuarioEmailFiltro usuarioEmailFiltro;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @BeforeEach // método que é chamado antes de cada teste
     public void beforeEach() {
         RestAssured.port = port; // Configura o rest-assured para usar a porta em que o servidor de testes subiu
@@ -54,6 +100,10 @@ public class UsuarioApiTest {
     public void afterEach() {
         // Limpa o banco após o teste
         usuarioRepository.deleteAll();
+        // O deleteAll vai direto ao banco, sem passar pelo cache e pelo indice de busca
+        usuarioCache.limpar();
+        usuarioBuscaIndice.limpar();
+        jdbcTemplate.update("delete from usuario_archive");
     }
 
     @Test // Um teste que será executado
@@ -110,6 +160,22 @@ public class UsuarioApiTest {
         Assertions.assertEquals(EMAIL_USUARIO, responseBody.getEmail()); // Verifica se o email é foi registrado
     }
 
+    @Test
+    public void deveNaoEncontrarAoAtualizarUsuarioInexistente() {
+        var request = UsuarioRequest.builder()
+                .id(ID_NAO_ESPERADO)
+                .nome(NOME_USUARIO)
+                .build();
+
+        var response = RestAssured.given()
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatusCode());
+        Assertions.assertEquals(0, usuarioRepository.count()); // Não deve ter criado um usuario novo
+    }
+
     @Test
     public void deveFalharAoTentarEnviarEmailInvalido() {
         var request = UsuarioRequest.builder()
@@ -164,6 +230,66 @@ public class UsuarioApiTest {
         Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatusCode());
     }
 
+    @Test
+    public void deveAtualizarCacheAoAlterarEExcluir() {
+
+        var response = criarUsuarioComNome();
+        var usuarioId = response.as(UsuarioResponse.class).getId();
+
+        // Primeira busca carrega no cache, a segunda deve vir dele
+        RestAssured.get(String.format(API_BUSCA_ID, usuarioId));
+        RestAssured.get(String.format(API_BUSCA_ID, usuarioId));
+
+        var request = UsuarioRequest.builder()
+                .id(usuarioId)
+                .nome(NOVO_NOME_USUARIO)
+                .build();
+        RestAssured.given()
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+
+        // A alteração deve aparecer mesmo com o usuario no cache
+        var responseBody = RestAssured.get(String.format(API_BUSCA_ID, usuarioId)).as(UsuarioResponse.class);
+        Assertions.assertEquals(NOVO_NOME_USUARIO, responseBody.getNome());
+
+        RestAssured.delete(String.format(API_BUSCA_ID, usuarioId));
+        responseBody = RestAssured.get(String.format(API_BUSCA_ID, usuarioId)).as(UsuarioResponse.class);
+        Assertions.assertFalse(responseBody.isAtivo());
+
+        var estatisticas = RestAssured.get("/api/v1/admin/cache").jsonPath();
+        Assertions.assertTrue(estatisticas.getLong("find { it.nome == 'usuario' }.acertos") > 0);
+    }
+
+    @Test
+    public void deveDevolverCopiasDoCache() {
+
+        var usuarioId = criarUsuarioComNome().as(UsuarioResponse.class).getId();
+        RestAssured.get(String.format(API_BUSCA_ID, usuarioId));
+
+        // Alterar a resposta recebida não altera o que está no cache
+        var emCache = usuarioCache.getIfPresent(usuarioId).orElseThrow();
+        emCache.setNome(NOVO_NOME_USUARIO);
+        Assertions.assertEquals(NOME_USUARIO, usuarioCache.getIfPresent(usuarioId).orElseThrow().getNome());
+        Assertions.assertEquals(NOME_USUARIO, RestAssured.get(String.format(API_BUSCA_ID, usuarioId)).as(UsuarioResponse.class).getNome());
+    }
+
+    @Test
+    public void naoDeveGuardarComoNaoEncontradoUmUsuarioSalvoDuranteABusca() {
+
+        // A busca não encontra o usuario, mas antes dela terminar ele é salvo e vai para o cache
+        var salvo = UsuarioResponse.builder().id(ID_NAO_ESPERADO).nome(NOME_USUARIO).ativo(true).build();
+        var resultado = usuarioCache.get(ID_NAO_ESPERADO, id -> {
+            usuarioCache.put(salvo);
+            return Optional.empty();
+        });
+        Assertions.assertTrue(resultado.isEmpty());
+
+        // As proximas leituras encontram o usuario salvo, sem ir ao banco
+        var encontrado = usuarioCache.get(ID_NAO_ESPERADO, id -> Assertions.fail("O usuario salvo deveria estar no cache"));
+        Assertions.assertEquals(NOME_USUARIO, encontrado.orElseThrow().getNome());
+    }
+
     @Test
     public void deveBuscarTodosPaginado() {
 
@@ -185,6 +311,433 @@ public class UsuarioApiTest {
         Assertions.assertEquals(size, responseBody.length);
         Assertions.assertEquals(usuario3, responseBody[0].getId());
         Assertions.assertEquals(usuario4, responseBody[1].getId());
+        Assertions.assertNull(response.getHeader("X-Total-Count")); // O total só é calculado quando pedido
+    }
+
+    @Test
+    public void deveRetornarTotalQuandoSolicitado() {
+
+        criaUsuarioNoBanco(NOME_USUARIO, null);
+        criaUsuarioNoBanco(NOVO_NOME_USUARIO, null);
+        criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+
+        // Filtro com nomes, para não reaproveitar o total cacheado por outros testes com o filtro padrão
+        var response = RestAssured.given()
+                .queryParam("size", 1)
+                .queryParam("total", true)
+                .queryParam("nome", NOME_USUARIO_OP_2)
+                .queryParam("email", "nenhum@email.com")
+                .get(API_BASE);
+
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals(1, response.as(UsuarioResponse[].class).length);
+        Assertions.assertEquals("1", response.getHeader("X-Total-Count")); // nome OU email, entre os ativos
+    }
+
+    @Test
+    public void deveReconstruirOIndiceDeBuscaComOsUsuariosDoBanco() {
+
+        // Um gravado pela api e outro direto no banco, como se tivesse sido gravado por outra instancia da aplicação
+        var daApi = enviar(UsuarioRequest.builder().nome("Gravado Pela Api").build()).as(UsuarioResponse.class).getId();
+        var doBanco = criaUsuarioNoBanco("Outra Instancia", null);
+        Assertions.assertEquals(0, buscar("instancia").size());
+
+        usuarioBuscaIndice.reconstruir();
+        Assertions.assertEquals(2, usuarioBuscaIndice.tamanho());
+        Assertions.assertEquals(List.of(doBanco), buscar("instancia"));
+        Assertions.assertEquals(List.of(daApi), buscar("gravado"));
+
+        // Um usuario da base alterado pela api é encontrado apenas pelo nome novo
+        enviar(UsuarioRequest.builder().id(doBanco).nome("Nome Trocado").build());
+        Assertions.assertEquals(0, buscar("instancia").size());
+        Assertions.assertEquals(List.of(doBanco), buscar("trocado"));
+        Assertions.assertEquals(2, usuarioBuscaIndice.tamanho());
+
+        // Excluido direto no banco: só sai do indice na reconstrução, que mantém a alteração feita pela api
+        jdbcTemplate.update("update usuario set ativo = false where id = ?", daApi);
+        Assertions.assertEquals(List.of(daApi), buscar("gravado"));
+        usuarioBuscaIndice.reconstruir();
+        Assertions.assertEquals(0, buscar("gravado").size());
+        Assertions.assertEquals(List.of(doBanco), buscar("trocado"));
+        Assertions.assertEquals(1, usuarioBuscaIndice.tamanho());
+    }
+
+    @Test
+    public void deveBuscarPorPrefixoEComErroDeDigitacao() {
+
+        // Criados pela api para que o indice de busca seja atualizado
+        var usuario1 = criarUsuarioComNome().as(UsuarioResponse.class).getId();
+        var usuario2 = RestAssured.given()
+                .body(UsuarioRequest.builder().nome(NOME_USUARIO_OP_2).email(EMAIL_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE)
+                .as(UsuarioResponse.class)
+                .getId();
+
+        // Prefixo, sem acento e em maiusculas
+        var responseBody = RestAssured.given()
+                .queryParam("q", "JOA")
+                .get(API_BUSCA)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(2, responseBody.length);
+
+        // O nome é mais parecido do que o email, então vem primeiro
+        responseBody = RestAssured.given()
+                .queryParam("q", "joao silav")
+                .get(API_BUSCA)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(usuario1, responseBody[0].getId());
+
+        responseBody = RestAssured.given()
+                .queryParam("q", "qualq")
+                .get(API_BUSCA)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(1, responseBody.length);
+        Assertions.assertEquals(usuario2, responseBody[0].getId());
+
+        // Usuarios excluidos saem do indice
+        RestAssured.delete(String.format(API_BUSCA_ID, usuario2));
+        Assertions.assertEquals(1, usuarioBuscaIndice.tamanho());
+        responseBody = RestAssured.given()
+                .queryParam("q", "qualq")
+                .get(API_BUSCA)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(0, responseBody.length);
+
+        var response = RestAssured.given()
+                .queryParam("q", "joao")
+                .queryParam("limit", 0)
+                .get(API_BUSCA);
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void deveRecusarEmailJaCadastradoEInformarSeOEmailExiste() {
+
+        var response = RestAssured.given()
+                .body(UsuarioRequest.builder().nome(NOME_USUARIO).email(EMAIL_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.CREATED.value(), response.getStatusCode());
+        var usuario1 = response.as(UsuarioResponse.class);
+
+        // O mesmo email, mesmo com outras maiusculas, não pode ser usado por outro usuario
+        response = RestAssured.given()
+                .body(UsuarioRequest.builder().nome(NOME_USUARIO_OP_2).email(EMAIL_USUARIO.toUpperCase()).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(), response.getStatusCode());
+
+        var usuario2 = criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+        response = RestAssured.given()
+                .body(UsuarioRequest.builder().id(usuario2).nome(NOME_USUARIO_OP_2).email(EMAIL_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(), response.getStatusCode());
+
+        // O proprio usuario continua podendo salvar o seu email
+        response = RestAssured.given()
+                .body(UsuarioRequest.builder().id(usuario1.getId()).nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+
+        // No lote o email repetido é recusado apenas no item
+        var itens = RestAssured.given()
+                .body(List.of(UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email(EMAIL_USUARIO).build(),
+                        UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email("outro@email.com").build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE)
+                .as(UsuarioLoteItemResponse[].class);
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(), itens[0].getStatus());
+        Assertions.assertEquals(HttpStatus.CREATED.value(), itens[1].getStatus());
+
+        // Os emails do pedaço são verificados em uma unica consulta
+        var lote = RestAssured.given()
+                .body(List.of(UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email(EMAIL_USUARIO.toUpperCase()).build(),
+                        UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email("outro@email.com").build(),
+                        UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email("terceiro@email.com").build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE);
+        assertSql(lote, 1, 1, 0, 0);
+        itens = lote.as(UsuarioLoteItemResponse[].class);
+        Assertions.assertEquals(List.of(HttpStatus.CONFLICT.value(), HttpStatus.CONFLICT.value(), HttpStatus.CREATED.value()),
+                List.of(itens).stream().map(UsuarioLoteItemResponse::getStatus).collect(Collectors.toList()));
+
+        // Email cadastrado: o filtro indica e o banco confirma
+        response = RestAssured.given().queryParam("email", EMAIL_USUARIO.toUpperCase()).get(API_EXISTE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        assertSql(response, 1, 0, 0, 0);
+        Assertions.assertEquals(HttpStatus.OK.value(), RestAssured.given().queryParam("email", "outro@email.com").head(API_EXISTE).getStatusCode());
+
+        // Email livre: respondido pelo filtro, sem consulta
+        response = RestAssured.given().queryParam("email", "ninguem@email.com").head(API_EXISTE);
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatusCode());
+        assertSql(response, 0, 0, 0, 0);
+
+        var metricas = RestAssured.get("/actuator/prometheus").asString();
+        Assertions.assertTrue(metricas.contains("usuario_email_filtro_memoria_bytes"));
+        Assertions.assertTrue(metricas.contains("usuario_email_filtro_falso_positivo_estimado"));
+        Assertions.assertTrue(metricas.contains("usuario_email_filtro_consultas_total{resultado=\"ausente\""));
+
+        // Um email gravado por outra instancia (aqui direto no banco) só entra no filtro na reconstrução
+        criaUsuarioNoBanco(NOME_USUARIO_OP_3, "outra-instancia@email.com");
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), RestAssured.given().queryParam("email", "outra-instancia@email.com").head(API_EXISTE).getStatusCode());
+        usuarioEmailFiltro.reconstruir();
+        Assertions.assertEquals(HttpStatus.OK.value(), RestAssured.given().queryParam("email", "outra-instancia@email.com").head(API_EXISTE).getStatusCode());
+
+        // Uma reconstrução feita antes do commit não vê o usuario novo, e o vetor dela substitui o que tinha o email
+        // O email é marcado de novo depois do commit
+        transactionTemplate.executeWithoutResult(status -> {
+            criaUsuarioNoBanco(NOME_USUARIO_OP_3, "durante-reconstrucao@email.com");
+            usuarioEmailFiltro.adicionar("durante-reconstrucao@email.com");
+            CompletableFuture.runAsync(usuarioEmailFiltro::reconstruir).join();
+        });
+        Assertions.assertEquals(HttpStatus.OK.value(), RestAssured.given().queryParam("email", "durante-reconstrucao@email.com").head(API_EXISTE).getStatusCode());
+    }
+
+    @Test
+    public void deveBuscarVariosUsuariosPorIdNaOrdemEnviada() {
+
+        var usuario1 = criaUsuarioNoBanco(NOME_USUARIO, EMAIL_USUARIO);
+        var usuario2 = criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+
+        // O usuario1 fica no cache, apenas o usuario2 e o inexistente vão ao banco, em um unico in
+        // O inexistente ainda é procurado entre os arquivados
+        RestAssured.get(String.format(API_BUSCA_ID, usuario1));
+        var response = RestAssured.given()
+                .queryParam("ids", usuario2 + "," + ID_NAO_ESPERADO + "," + usuario1 + "," + usuario2)
+                .get(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        assertSql(response, 2, 0, 0, 0);
+
+        var responseBody = response.as(UsuarioIdsResponse.class);
+        Assertions.assertEquals(List.of(usuario2, usuario1), responseBody.getUsuarios().stream().map(UsuarioResponse::getId).collect(Collectors.toList()));
+        Assertions.assertEquals(NOME_USUARIO_OP_2, responseBody.getUsuarios().get(0).getNome());
+        Assertions.assertEquals(List.of(ID_NAO_ESPERADO), responseBody.getNaoEncontrados());
+
+        // Mais ids que o tamanho do pedaço: as consultas são divididas e executadas em paralelo
+        var ids = new ArrayList<Long>();
+        for (long id = ID_NAO_ESPERADO; ids.size() < 600; id++) {
+            ids.add(id);
+        }
+        ids.add(300, usuario1);
+        ids.add(usuario2);
+        responseBody = RestAssured.given()
+                .queryParam("ids", ids.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .get(API_BASE)
+                .as(UsuarioIdsResponse.class);
+        Assertions.assertEquals(List.of(usuario1, usuario2), responseBody.getUsuarios().stream().map(UsuarioResponse::getId).collect(Collectors.toList()));
+        Assertions.assertEquals(600, responseBody.getNaoEncontrados().size());
+        Assertions.assertEquals(ID_NAO_ESPERADO, responseBody.getNaoEncontrados().get(0));
+
+        // Sem nenhum id a resposta é 400, assim como com mais de 1000
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), RestAssured.given().queryParam("ids", "").get(API_BASE).getStatusCode());
+    }
+
+    @Test
+    public void deveExporMetricasNoFormatoDoPrometheus() {
+
+        criarUsuarioComNome();
+        RestAssured.get(API_BASE);
+
+        var metricas = RestAssured.get("/actuator/prometheus")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .asString();
+
+        // Endpoints, repositories, hibernate, pool de conexões, caches e jvm
+        Assertions.assertTrue(metricas.contains("http_server_requests_seconds_bucket{"));
+        Assertions.assertTrue(metricas.contains("spring_data_repository_invocations_seconds_count{exception=\"none\",method=\"findSlice\",repository=\"UsuarioRepository\""));
+        Assertions.assertTrue(metricas.contains("hibernate_statements_total"));
+        Assertions.assertTrue(metricas.contains("hikaricp_connections_acquire_seconds_bucket{"));
+        Assertions.assertTrue(metricas.contains("cache_gets_total{cache=\"usuario\""));
+        Assertions.assertTrue(metricas.contains("jvm_gc_memory_allocated_bytes_total"));
+    }
+
+    @Test
+    public void deveFiltrarPorNomeOuEmailSemDiferenciarMaiusculas() {
+
+        var usuario1 = criaUsuarioNoBanco(NOME_USUARIO, null);
+        var usuario2 = criaUsuarioNoBanco(NOVO_NOME_USUARIO, EMAIL_USUARIO);
+        criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+
+        // Um unico campo
+        var responseBody = RestAssured.given()
+                .queryParam("nome", NOME_USUARIO.toUpperCase())
+                .get(API_BASE)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(1, responseBody.length);
+        Assertions.assertEquals(usuario1, responseBody[0].getId());
+
+        // Mais de um campo: usuarios com o nome OU o email informados
+        responseBody = RestAssured.given()
+                .queryParam("nome", NOME_USUARIO)
+                .queryParam("email", EMAIL_USUARIO.toUpperCase())
+                .queryParam("sort", "id")
+                .get(API_BASE)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(2, responseBody.length);
+        Assertions.assertEquals(usuario1, responseBody[0].getId());
+        Assertions.assertEquals(usuario2, responseBody[1].getId());
+
+        // O filtro de ativo restringe o resultado ao inves de ser mais uma alternativa
+        RestAssured.delete(String.format(API_BUSCA_ID, usuario1));
+        responseBody = RestAssured.given()
+                .queryParam("nome", NOME_USUARIO)
+                .get(API_BASE)
+                .as(UsuarioResponse[].class);
+        Assertions.assertEquals(0, responseBody.length);
+
+        // Ordenação por campo inexistente
+        var response = RestAssured.given()
+                .queryParam("sort", "senha")
+                .get(API_BASE);
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void devePreencherColunasDeBuscaDeUsuariosAntigos() {
+
+        // Um usuario gravado antes das colunas de busca existirem
+        var id = criaUsuarioNoBanco(NOME_USUARIO, EMAIL_USUARIO);
+        jdbcTemplate.update("update usuario set nome_busca = null, email_busca = null where id = ?", id);
+        Assertions.assertEquals(0, RestAssured.given().queryParam("nome", NOME_USUARIO).get(API_BASE).as(UsuarioResponse[].class).length);
+
+        usuarioPreenchimentoService.preencher();
+
+        Assertions.assertEquals(NOME_USUARIO.toLowerCase(), jdbcTemplate.queryForObject("select nome_busca from usuario where id = ?", String.class, id));
+        Assertions.assertEquals(1, RestAssured.given().queryParam("nome", NOME_USUARIO).get(API_BASE).as(UsuarioResponse[].class).length);
+        Assertions.assertEquals(1, RestAssured.given().queryParam("email", EMAIL_USUARIO.toUpperCase()).get(API_BASE).as(UsuarioResponse[].class).length);
+
+        // Um usuario excluido antes da data de inativação existir, criado há 60 dias: a data de criação passa a ser
+        // a de inativação, e assim ele é arquivado
+        var inativo = criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+        jdbcTemplate.update("update usuario set ativo = false, data_hora_inativacao = null, data_hora_criacao = ? where id = ?",
+                LocalDateTime.now().minusDays(60), inativo);
+        Assertions.assertEquals(0, usuarioArquivamentoService.arquivar());
+
+        usuarioPreenchimentoService.preencher();
+
+        Assertions.assertEquals(1, usuarioArquivamentoService.arquivar());
+        Assertions.assertEquals(1, jdbcTemplate.queryForObject("select count(*) from usuario_archive where id = ?", Integer.class, inativo));
+
+        // Usuarios antigos com o mesmo email em maiusculas diferentes: o indice unico recusa o preenchimento
+        // e a inicialização falha listando os emails repetidos
+        var repetido1 = criaUsuarioNoBanco(NOME_USUARIO_OP_2, "Repetido@email.com");
+        var repetido2 = criaUsuarioNoBanco(NOME_USUARIO_OP_3, null);
+        jdbcTemplate.update("update usuario set email = 'repetido@EMAIL.com', email_busca = null where id = ?", repetido2);
+        jdbcTemplate.update("update usuario set email_busca = null where id = ?", repetido1);
+        var exception = Assertions.assertThrows(IllegalStateException.class, () -> usuarioPreenchimentoService.preencher());
+        Assertions.assertTrue(exception.getMessage().contains("[repetido@email.com]"));
+    }
+
+    @Test
+    public void deveBuscarTodosPorCursor() {
+
+        var usuario1 = criaUsuarioNoBanco(NOME_USUARIO, null);
+        var usuario2 = criaUsuarioNoBanco(NOVO_NOME_USUARIO, null);
+        var usuario3 = criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+        var usuario4 = criaUsuarioNoBanco(NOME_USUARIO_OP_3, null);
+
+        // Primeira pagina, cursor vazio. Ordenação por nome: João da Silva, Qualquer nome, Qualquer nome mais um, Silva da João
+        var response = RestAssured
+                .get(String.format("%s?cursor=&size=%d", API_BASE, 3));
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+
+        var responseBody = response.as(UsuarioResponse[].class);
+        Assertions.assertEquals(3, responseBody.length);
+        Assertions.assertEquals(usuario1, responseBody[0].getId());
+        Assertions.assertEquals(usuario3, responseBody[1].getId());
+        Assertions.assertEquals(usuario4, responseBody[2].getId());
+
+        var cursor = response.getHeader("X-Next-Cursor");
+        Assertions.assertNotNull(cursor);
+
+        // Segunda e ultima pagina, não deve retornar um novo cursor
+        response = RestAssured.given()
+                .queryParam("cursor", cursor)
+                .queryParam("size", 3)
+                .get(API_BASE);
+        responseBody = response.as(UsuarioResponse[].class);
+        Assertions.assertEquals(1, responseBody.length);
+        Assertions.assertEquals(usuario2, responseBody[0].getId());
+        Assertions.assertNull(response.getHeader("X-Next-Cursor"));
+
+        // Cursor que não foi gerado pela api
+        response = RestAssured
+                .get(String.format("%s?cursor=%s", API_BASE, "invalido"));
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void deveExportarEmNdjsonECsv() {
+
+        criaUsuarioNoBanco(NOME_USUARIO, EMAIL_USUARIO);
+        criaUsuarioNoBanco("Silva, João", null); // Virgula no nome precisa de aspas no csv
+
+        var response = RestAssured
+                .get(API_BASE + "/export");
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertTrue(response.getContentType().startsWith("application/x-ndjson"));
+
+        var linhas = response.asString().split("\n");
+        Assertions.assertEquals(2, linhas.length);
+        Assertions.assertEquals(NOME_USUARIO, JsonPath.from(linhas[0]).getString("nome"));
+
+        response = RestAssured
+                .get(API_BASE + "/export?formato=csv");
+        linhas = response.asString().split("\n");
+        Assertions.assertEquals(3, linhas.length); // Cabeçalho mais dois usuarios
+        Assertions.assertEquals("id,nome,email,dataHoraCriacao,ativo", linhas[0]);
+        Assertions.assertTrue(linhas[2].contains("\"Silva, João\""));
+
+        response = RestAssured
+                .get(API_BASE + "/export?formato=xml");
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void deveImportarNdjsonECsvComRelatorioDeErros() {
+
+        var ndjson = "{\"nome\": \"" + NOME_USUARIO + "\", \"email\": \"" + EMAIL_USUARIO + "\"}\n"
+                + "{\"nome\": \"" + NOME_USUARIO_OP_2 + "\", \"email\": \"" + EMAIL_USUARIO_INVALIDO + "\"}\n"
+                + "\n" // Linhas em branco são ignoradas
+                + "{ isso não é json\n";
+
+        var response = RestAssured.given()
+                .body(ndjson.getBytes(StandardCharsets.UTF_8)) // Enviado como bytes, o rest-assured não sabe serializar esse content-type
+                .contentType("application/x-ndjson")
+                .post(API_BASE + "/import");
+
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        var importacao = response.jsonPath();
+        Assertions.assertEquals(3, importacao.getLong("linhas"));
+        Assertions.assertEquals(1, importacao.getLong("salvos"));
+        Assertions.assertEquals(2, importacao.getLong("erros"));
+        Assertions.assertEquals(List.of(2, 4), importacao.getList("pedacos[0].erros.linha"));
+
+        var csv = "nome,email\n"
+                + "\"Silva, João\",silva_joao@email.com\n" // Outro email, o email é unico entre os usuarios
+                + NOME_USUARIO_OP_3 + ",\n";
+
+        response = RestAssured.given()
+                .body(csv.getBytes(StandardCharsets.UTF_8))
+                .contentType("text/csv")
+                .post(API_BASE + "/import");
+
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals(2, response.jsonPath().getLong("salvos"));
+        Assertions.assertEquals(3, usuarioRepository.count());
+
+        // Sem a coluna nome o arquivo inteiro é recusado
+        response = RestAssured.given()
+                .body("email\nsem_nome@email.com\n".getBytes(StandardCharsets.UTF_8))
+                .contentType("text/csv")
+                .post(API_BASE + "/import");
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatusCode());
+        Assertions.assertEquals(3, usuarioRepository.count());
     }
 
     @Test
@@ -216,6 +769,351 @@ public class UsuarioApiTest {
         Assertions.assertFalse(responseBody.isAtivo());
     }
 
+    @Test
+    public void deveArquivarUsuarioInativoEContinuarEncontrandoPorId() {
+
+        var ativo = criaUsuarioNoBanco(NOME_USUARIO, null);
+        var inativo = criaUsuarioNoBanco(NOME_USUARIO_OP_2, null);
+        Assertions.assertEquals(HttpStatus.NO_CONTENT.value(), RestAssured.delete(String.format(API_BUSCA_ID, inativo)).getStatusCode());
+
+        // Nada é arquivado antes de usuario.arquivamento.inativo-ha, então a exclusão é movida para 60 dias atrás
+        Assertions.assertEquals(0, usuarioArquivamentoService.arquivar());
+        jdbcTemplate.update("update usuario set data_hora_inativacao = ? where id = ?", LocalDateTime.now().minusDays(60), inativo);
+        Assertions.assertEquals(1, usuarioArquivamentoService.arquivar());
+
+        Assertions.assertTrue(usuarioRepository.findById(ativo).isPresent());
+        Assertions.assertTrue(usuarioRepository.findById(inativo).isEmpty());
+        Assertions.assertEquals(1, jdbcTemplate.queryForObject("select count(*) from usuario_archive where id = ?", Integer.class, inativo));
+
+        // A busca por id continua encontrando o usuario arquivado, e excluir de novo não é erro
+        var responseBody = RestAssured
+                .get(String.format(API_BUSCA_ID, inativo))
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(UsuarioResponse.class);
+        Assertions.assertEquals(NOME_USUARIO_OP_2, responseBody.getNome());
+        Assertions.assertFalse(responseBody.isAtivo());
+        Assertions.assertEquals(HttpStatus.NO_CONTENT.value(), RestAssured.delete(String.format(API_BUSCA_ID, inativo)).getStatusCode());
+
+        // Atualizar traz o usuario de volta para a tabela usuario, reativado
+        responseBody = RestAssured.given()
+                .body(UsuarioRequest.builder().id(inativo).nome(NOVO_NOME_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE)
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(UsuarioResponse.class);
+        Assertions.assertTrue(responseBody.isAtivo());
+
+        var usuario = usuarioRepository.findById(inativo).orElseThrow(() -> new RuntimeException("Usuário não encontrado"));
+        Assertions.assertEquals(NOVO_NOME_USUARIO, usuario.getNome());
+        Assertions.assertNull(usuario.getDataHoraInativacao());
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject("select count(*) from usuario_archive", Integer.class));
+    }
+
+    @Test
+    public void deveAtualizarArquivadoCujoEmailFoiCadastradoPorOutroUsuario() {
+
+        var arquivado1 = criaUsuarioNoBanco(NOME_USUARIO, EMAIL_USUARIO);
+        var arquivado2 = criaUsuarioNoBanco(NOME_USUARIO_OP_2, "arquivado@email.com");
+        for (var id : List.of(arquivado1, arquivado2)) {
+            Assertions.assertEquals(HttpStatus.NO_CONTENT.value(), RestAssured.delete(String.format(API_BUSCA_ID, id)).getStatusCode());
+        }
+        jdbcTemplate.update("update usuario set data_hora_inativacao = ?", LocalDateTime.now().minusDays(60));
+        Assertions.assertEquals(2, usuarioArquivamentoService.arquivar());
+
+        // O arquivamento libera os emails, que são cadastrados por outros usuarios
+        Assertions.assertEquals(HttpStatus.CREATED.value(), enviar(UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email(EMAIL_USUARIO).build()).getStatusCode());
+        Assertions.assertEquals(HttpStatus.CREATED.value(), enviar(UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email("arquivado@email.com").build()).getStatusCode());
+
+        // Atualizar os arquivados com emails livres não esbarra nos emails antigos deles
+        var response = enviar(UsuarioRequest.builder().id(arquivado1).nome(NOVO_NOME_USUARIO).email("livre@email.com").build());
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals("livre@email.com", response.as(UsuarioResponse.class).getEmail());
+
+        var lote = RestAssured.given()
+                .body(List.of(UsuarioRequest.builder().id(arquivado2).nome(NOVO_NOME_USUARIO).email("outro.livre@email.com").build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE);
+        Assertions.assertEquals(List.of(HttpStatus.OK.value()), lote.jsonPath().getList("status"));
+        Assertions.assertEquals("outro.livre@email.com", usuarioRepository.findById(arquivado2).orElseThrow().getEmailBusca());
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject("select count(*) from usuario_archive", Integer.class));
+    }
+
+    @Test
+    public void deveResponderNaoModificadoQuandoClienteTemAVersaoAtual() {
+
+        var usuarioId = criaUsuarioNoBanco(NOME_USUARIO, null);
+
+        var response = RestAssured.get(String.format(API_BUSCA_ID, usuarioId));
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        var etag = response.getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(etag);
+        // Sem Last-Modified, a precisão de segundos do header não diferencia duas alterações no mesmo segundo
+        Assertions.assertNull(response.getHeader(HttpHeaders.LAST_MODIFIED));
+        Assertions.assertNotNull(response.as(UsuarioResponse.class).getDataHoraAtualizacao());
+
+        // Com a versão atual o servidor responde 304, sem corpo
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .get(String.format(API_BUSCA_ID, usuarioId));
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatusCode());
+        Assertions.assertEquals("", response.getBody().asString());
+
+        // Apenas o ETag decide o 304, uma data não é suficiente
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_MODIFIED_SINCE, DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1)))
+                .get(String.format(API_BUSCA_ID, usuarioId));
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+
+        var etagLista = RestAssured.get(API_BASE).getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(etagLista);
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_NONE_MATCH, etagLista)
+                .get(API_BASE);
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatusCode());
+
+        // Depois de uma alteração o ETag antigo não vale mais, e o usuario volta completo
+        RestAssured.given()
+                .body(UsuarioRequest.builder().id(usuarioId).nome(NOVO_NOME_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE)
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .get(String.format(API_BUSCA_ID, usuarioId));
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals(NOVO_NOME_USUARIO, response.as(UsuarioResponse.class).getNome());
+        Assertions.assertNotEquals(etag, response.getHeader(HttpHeaders.ETAG));
+
+        // A versão vinda do cache (resposta do update) e a vinda do banco geram o mesmo ETag
+        var etagAtual = response.getHeader(HttpHeaders.ETAG);
+        var usuario = usuarioRepository.findById(usuarioId).orElseThrow(() -> new RuntimeException("Usuário não encontrado"));
+        Assertions.assertEquals(usuario.getDataHoraAtualizacao(), response.as(UsuarioResponse.class).getDataHoraAtualizacao());
+
+        // A exclusão também é uma alteração, tanto do usuario quanto da lista
+        RestAssured.delete(String.format(API_BUSCA_ID, usuarioId));
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_NONE_MATCH, etagAtual)
+                .get(String.format(API_BUSCA_ID, usuarioId));
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_NONE_MATCH, etagLista)
+                .get(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void deveAtualizarApenasNaVersaoInformadaNoIfMatch() {
+
+        var usuarioId = criaUsuarioNoBanco(NOME_USUARIO, null);
+        var etag = RestAssured.get(String.format(API_BUSCA_ID, usuarioId)).getHeader(HttpHeaders.ETAG);
+        Assertions.assertEquals("\"0\"", etag);
+
+        var request = UsuarioRequest.builder().id(usuarioId).nome(NOVO_NOME_USUARIO).build();
+
+        // Com a versão atual a atualização é aplicada, e o ETag da resposta é a nova versão
+        var response = RestAssured.given()
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals("\"1\"", response.getHeader(HttpHeaders.ETAG));
+        Assertions.assertEquals(1, response.as(UsuarioResponse.class).getVersao());
+
+        // O mesmo If-Match de novo já é uma versão antiga, nada é alterado
+        request.setNome(NOME_USUARIO_OP_2);
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), response.getStatusCode());
+
+        // ETag fraco nunca é igual no If-Match
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_MATCH, "W/\"1\"")
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), response.getStatusCode());
+
+        var usuario = usuarioRepository.findById(usuarioId).orElseThrow(() -> new RuntimeException("Usuário não encontrado"));
+        Assertions.assertEquals(NOVO_NOME_USUARIO, usuario.getNome());
+        Assertions.assertEquals(1, usuario.getVersao());
+
+        // Um id que não existe continua sendo 404, com ou sem If-Match
+        response = RestAssured.given()
+                .header(HttpHeaders.IF_MATCH, "\"1\"")
+                .body(UsuarioRequest.builder().id(ID_NAO_ESPERADO).nome(NOME_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatusCode());
+
+        // Sem If-Match a ultima escrita vence, mesmo com o cache desatualizado
+        jdbcTemplate.update("update usuario set versao = versao + 5 where id = ?", usuarioId);
+        response = RestAssured.given()
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals(7, response.as(UsuarioResponse.class).getVersao());
+        Assertions.assertEquals("\"7\"", RestAssured.get(String.format(API_BUSCA_ID, usuarioId)).getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void deveSalvarLoteComResultadoPorItem() {
+
+        var usuarioExistente = criaUsuarioNoBanco(NOME_USUARIO, null);
+
+        var request = List.of(
+                UsuarioRequest.builder().nome(NOME_USUARIO_OP_2).email(EMAIL_USUARIO).build(), // Novo, valido
+                UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email(EMAIL_USUARIO_INVALIDO).build(), // Email invalido
+                UsuarioRequest.builder().id(usuarioExistente).nome(NOVO_NOME_USUARIO).build(), // Atualização
+                UsuarioRequest.builder().id(ID_NAO_ESPERADO).nome(NOVO_NOME_USUARIO).build()); // Atualização de id inexistente
+
+        var response = RestAssured.given()
+                .body(request)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE);
+
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+
+        var responseBody = response.as(UsuarioLoteItemResponse[].class);
+        Assertions.assertEquals(request.size(), responseBody.length);
+
+        Assertions.assertEquals(HttpStatus.CREATED.value(), responseBody[0].getStatus());
+        Assertions.assertNotNull(responseBody[0].getUsuario().getId());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), responseBody[1].getStatus());
+        Assertions.assertNotNull(responseBody[1].getErro());
+        Assertions.assertEquals(HttpStatus.OK.value(), responseBody[2].getStatus());
+        Assertions.assertEquals(NOVO_NOME_USUARIO, responseBody[2].getUsuario().getNome());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), responseBody[3].getStatus());
+
+        // Apenas o usuario criado no inicio e o novo item valido devem existir no banco
+        Assertions.assertEquals(2, usuarioRepository.count());
+        Assertions.assertEquals(NOVO_NOME_USUARIO, usuarioRepository.findById(usuarioExistente).orElseThrow().getNome());
+    }
+
+    @Test
+    public void deveLiberarNoLoteOEmailDeUmItemRecusado() {
+
+        // O item de id inexistente é recusado, então o email dele fica para o item seguinte
+        var lote = RestAssured.given()
+                .body(List.of(
+                        UsuarioRequest.builder().id(ID_NAO_ESPERADO).nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO).build(),
+                        UsuarioRequest.builder().nome(NOME_USUARIO_OP_2).email(EMAIL_USUARIO).build(),
+                        UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).email(EMAIL_USUARIO).build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE);
+
+        Assertions.assertEquals(List.of(HttpStatus.NOT_FOUND.value(), HttpStatus.CREATED.value(), HttpStatus.CONFLICT.value()),
+                lote.jsonPath().getList("status"));
+        Assertions.assertEquals(1, usuarioRepository.count());
+    }
+
+    @Test
+    public void deveExecutarApenasOsComandosSqlEsperadosPorEndpoint() {
+
+        // Criado direto no banco, então ainda não está no cache
+        var usuarioId = criaUsuarioNoBanco(NOME_USUARIO, null);
+
+        // Busca por id: um select, e nenhum na segunda vez (cache)
+        assertSql(RestAssured.get(String.format(API_BUSCA_ID, usuarioId)), 1, 0, 0, 0);
+        assertSql(RestAssured.get(String.format(API_BUSCA_ID, usuarioId)), 0, 0, 0, 0);
+
+        // Listagem: apenas a consulta dos dados, sem count
+        assertSql(RestAssured.get(API_BASE), 1, 0, 0, 0);
+
+        // Criação: apenas o insert (a sequence, quando necessária, conta como X-Sql-Other)
+        assertSql(criarUsuarioComNome(), 0, 1, 0, 0);
+
+        // Atualização: o update direto, a data de criação vem do cache
+        var atualizacao = RestAssured.given()
+                .body(UsuarioRequest.builder().id(usuarioId).nome(NOVO_NOME_USUARIO).build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        assertSql(atualizacao, 0, 0, 1, 0);
+
+        // Exclusão logica: busca o usuario e atualiza o ativo
+        assertSql(RestAssured.delete(String.format(API_BUSCA_ID, usuarioId)), 1, 0, 1, 0);
+
+        // Lote apenas com itens novos: sem buscar existentes, e os dois inserts vão em um unico batch jdbc
+        // O contador considera cada execução enviada ao banco, então o batch conta como um insert
+        var lote = RestAssured.given()
+                .body(List.of(UsuarioRequest.builder().nome(NOME_USUARIO_OP_2).build(), UsuarioRequest.builder().nome(NOME_USUARIO_OP_3).build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE);
+        assertSql(lote, 0, 1, 0, 0);
+    }
+
+    @Test
+    public void deveRegistrarConsultaLentaComPlanoDeExecucao() {
+
+        criaUsuarioNoBanco(NOME_USUARIO, null);
+
+        // O H2 não tem uma função de espera, então Thread.sleep é registrado como uma função sql
+        // A consulta demora mais que usuario.sql.lenta.limite (200ms)
+        jdbcTemplate.execute("create alias if not exists dormir for \"java.lang.Thread.sleep\"");
+        jdbcTemplate.queryForList("select id from usuario where nome_busca = ? or dormir(?) is null", "ninguem", 250);
+
+        var consultas = RestAssured.get("/api/v1/admin/sql/lentas")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath();
+
+        // Apenas o formato dos parametros é guardado, e o plano vem do EXPLAIN do banco
+        var consulta = "find { it.sql.contains('dormir') }";
+        Assertions.assertTrue(consultas.getLong(consulta + ".duracaoMs") >= 200);
+        Assertions.assertEquals(List.of("String", "Integer"), consultas.getList(consulta + ".parametros"));
+        Assertions.assertTrue(consultas.getString(consulta + ".plano").toUpperCase().contains("PUBLIC.USUARIO"));
+        // Executada pelo JdbcTemplate, fora de um repository
+        Assertions.assertNull(consultas.getString(consulta + ".origem"));
+    }
+
+    @Test
+    public void deveRegistrarOrigemDaConsultaLentaSemOsValores() throws Exception {
+
+        var id = criaUsuarioNoBanco(NOME_USUARIO, EMAIL_USUARIO);
+
+        // Outra transação segura a linha do usuario, e o update da api espera por ela mais que o limite de 200ms
+        var atualizacao = new CompletableFuture<Response>();
+        try (var conexao = jdbcTemplate.getDataSource().getConnection()) {
+            conexao.setAutoCommit(false);
+            try (var bloqueio = conexao.prepareStatement("update usuario set nome_usuario = nome_usuario where id = ?")) {
+                bloqueio.setLong(1, id);
+                bloqueio.executeUpdate();
+            }
+            CompletableFuture.runAsync(() -> atualizacao.complete(RestAssured.given()
+                    .body(UsuarioRequest.builder().id(id).nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO).build())
+                    .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                    .post(API_BASE)));
+            // Espera o update da api ficar bloqueado pela linha, e então o mantém esperando por mais 250ms
+            var limite = System.currentTimeMillis() + 5000;
+            while (jdbcTemplate.queryForObject("select count(*) from information_schema.sessions where blocker_id is not null", Integer.class) == 0
+                    && System.currentTimeMillis() < limite) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(250);
+            conexao.commit();
+        }
+        Assertions.assertEquals(HttpStatus.OK.value(), atualizacao.get(5, TimeUnit.SECONDS).getStatusCode());
+
+        // A origem tem o método e os tipos dos argumentos, sem o nome e o email
+        var origem = RestAssured.get("/api/v1/admin/sql/lentas")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath()
+                .getString("find { it.sql.startsWith('update usuario') }.origem");
+        Assertions.assertEquals("UsuarioRepository.updateDadosById(Long, String, String, String, String, LocalDateTime)", origem);
+    }
 
     private Response criarUsuarioComNome()
     {
@@ -236,6 +1134,23 @@ public class UsuarioApiTest {
         return response;
     }
 
+    // Ids encontrados pela busca, na ordem da resposta
+    private List<Long> buscar(String texto) {
+        return Arrays.stream(RestAssured.given()
+                        .queryParam("q", texto)
+                        .get(API_BUSCA)
+                        .as(UsuarioResponse[].class))
+                .map(UsuarioResponse::getId)
+                .collect(Collectors.toList());
+    }
+
+    private Response enviar(UsuarioRequest usuarioRequest) {
+        return RestAssured.given()
+                .body(usuarioRequest)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+    }
+
     private Long criaUsuarioNoBanco(String nome, String email) {
         var usuario = Usuario.builder()
                 .nome(nome)
@@ -246,4 +1161,12 @@ public class UsuarioApiTest {
         usuarioRepository.saveAndFlush(usuario);
         return usuario.getId();
     }
+
+    // Confere a quantidade de comandos sql executados pela requisição, informada nos headers X-Sql-* (usuario.sql.contagem)
+    private void assertSql(Response response, int select, int insert, int update, int delete) {
+        Assertions.assertEquals(String.valueOf(select), response.getHeader(SqlContagemFilter.HEADER_SELECT), "select");
+        Assertions.assertEquals(String.valueOf(insert), response.getHeader(SqlContagemFilter.HEADER_INSERT), "insert");
+        Assertions.assertEquals(String.valueOf(update), response.getHeader(SqlContagemFilter.HEADER_UPDATE), "update");
+        Assertions.assertEquals(String.valueOf(delete), response.getHeader(SqlContagemFilter.HEADER_DELETE), "delete");
+    }
 }
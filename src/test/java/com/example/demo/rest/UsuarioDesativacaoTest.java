@@ -0,0 +1,126 @@
+package com.example.demo.rest;
+
+import com.example.demo.domain.model.Usuario;
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioBuscaIndice;
+import com.example.demo.service.UsuarioCache;
+import io.restassured.RestAssured;
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+
+// Exclusão assincrona (usuario.desativacao.assincrona), em um contexto separado do UsuarioApiTest
+// pois muda a resposta do DELETE
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "usuario.desativacao.assincrona=true",
+        "usuario.desativacao.arquivo=target/desativacoes-teste.log",
+        "usuario.desativacao.intervalo=100ms"
+})
+public class UsuarioDesativacaoTest {
+
+    private static final String API_BASE = "/api/v1/usuario";
+    private static final String API_BUSCA_ID = "/api/v1/usuario/%d";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UsuarioCache usuarioCache;
+
+    @Autowired
+    private UsuarioBuscaIndice usuarioBuscaIndice;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @AfterEach
+    public void afterEach() {
+        usuarioRepository.deleteAll();
+        // O deleteAll vai direto ao banco, sem passar pelo cache e pelo indice de busca
+        usuarioCache.limpar();
+        usuarioBuscaIndice.limpar();
+    }
+
+    @Test
+    public void deveAceitarAExclusaoEAplicarDepois() throws InterruptedException {
+        var usuario = usuarioRepository.save(Usuario.builder().nome("Fila").build());
+
+        // Carrega no cache, que precisa ser limpo quando a exclusão for aplicada
+        Assertions.assertTrue(RestAssured.get(String.format(API_BUSCA_ID, usuario.getId())).as(UsuarioResponse.class).isAtivo());
+
+        // Repetições do mesmo id entram uma vez só na fila
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(HttpStatus.ACCEPTED.value(), RestAssured.delete(String.format(API_BUSCA_ID, usuario.getId())).getStatusCode());
+        }
+
+        Assertions.assertFalse(aguardarAtivo(usuario.getId(), false).isAtivo());
+        Assertions.assertFalse(RestAssured.get(String.format(API_BUSCA_ID, usuario.getId())).as(UsuarioResponse.class).isAtivo());
+
+        // Atraso da fila nas metricas
+        var metricas = RestAssured.get("/actuator/prometheus").asString();
+        Assertions.assertTrue(metricas.contains("usuario_desativacao_pendentes"));
+        Assertions.assertTrue(metricas.contains("usuario_desativacao_atraso_seconds"));
+        Assertions.assertTrue(metricas.contains("usuario_desativacao_aplicadas_total"));
+    }
+
+    @Test
+    public void deveManterAtivoQuandoAtualizadoDepoisDaExclusao() throws InterruptedException {
+        var usuario = usuarioRepository.save(Usuario.builder().nome("Fila").build());
+
+        Assertions.assertEquals(HttpStatus.ACCEPTED.value(), RestAssured.delete(String.format(API_BUSCA_ID, usuario.getId())).getStatusCode());
+
+        // A atualização reativa o usuario, a exclusão que ainda estava na fila não pode desfazer isso
+        var response = RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .body(UsuarioRequest.builder().id(usuario.getId()).nome("Fila atualizada").build())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+
+        // Tempo suficiente para varias execuções da fila
+        Thread.sleep(500);
+        Assertions.assertTrue(usuarioRepository.findById(usuario.getId()).orElseThrow().isAtivo());
+    }
+
+    @Test
+    public void deveManterAExclusaoQuandoAAtualizacaoFalha() throws InterruptedException {
+        var usuario = usuarioRepository.save(Usuario.builder().nome("Fila").build());
+
+        Assertions.assertEquals(HttpStatus.ACCEPTED.value(), RestAssured.delete(String.format(API_BUSCA_ID, usuario.getId())).getStatusCode());
+
+        // A atualização cancela a exclusão, mas é recusada (versão errada) e a transação sofre rollback
+        var response = RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .header("If-Match", "\"99\"")
+                .body(UsuarioRequest.builder().id(usuario.getId()).nome("Fila atualizada").build())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), response.getStatusCode());
+
+        // A exclusão já foi confirmada ao cliente, então volta para a fila e é aplicada
+        Assertions.assertFalse(aguardarAtivo(usuario.getId(), false).isAtivo());
+    }
+
+    private Usuario aguardarAtivo(Long id, boolean ativo) throws InterruptedException {
+        for (int tentativa = 0; tentativa < 50; tentativa++) {
+            var usuario = usuarioRepository.findById(id).orElseThrow();
+            if (usuario.isAtivo() == ativo) {
+                return usuario;
+            }
+            Thread.sleep(100);
+        }
+        return usuarioRepository.findById(id).orElseThrow();
+    }
+
+}
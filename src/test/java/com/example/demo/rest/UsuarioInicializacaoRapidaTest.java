@@ -0,0 +1,80 @@
+package com.example.demo.rest;
+
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import io.restassured.RestAssured;
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+// Profile rapido: estrutura criada pelas migrações do flyway e beans criados no primeiro uso
+// Um banco proprio, vazio, para as migrações criarem tudo. O ddl-auto validate faz o hibernate recusar subir se a
+// estrutura das migrações não for a mesma das entidades
+@ActiveProfiles("rapido")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=" + UsuarioInicializacaoRapidaTest.URL,
+        "spring.jpa.hibernate.ddl-auto=validate"
+})
+public class UsuarioInicializacaoRapidaTest {
+
+    static final String URL = "jdbc:h2:mem:rapido;DB_CLOSE_DELAY=-1";
+
+    private static final String API_BASE = "/api/v1/usuario";
+    private static final String API_BUSCA_ID = "/api/v1/usuario/%d";
+    private static final String API_INICIALIZACAO = "/api/v1/admin/inicializacao";
+
+    @LocalServerPort
+    private int port;
+
+    private final JdbcTemplate banco = new JdbcTemplate(new DriverManagerDataSource(URL, "root", "root"));
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void deveSubirPelasMigracoesEMedirAInicializacao() {
+
+        // A versão 1 foi aplicada pelo flyway
+        Assertions.assertEquals(List.of("1"),
+                banco.queryForList("select \"version\" from \"flyway_schema_history\" where \"type\" = 'SQL' and \"success\" = true", String.class));
+
+        // Essa é a primeira requisição, ela só é registrada quando termina
+        var relatorio = RestAssured.given().queryParam("limite", 1000).get(API_INICIALIZACAO);
+        Assertions.assertEquals(HttpStatus.OK.value(), relatorio.getStatusCode());
+        Assertions.assertEquals(List.of("jvm", "ambiente", "contexto", "fontes", "beans", "runners", "eventos-pronto"),
+                relatorio.jsonPath().getList("fases.nome"));
+        Assertions.assertNotNull(relatorio.jsonPath().get("prontoMs"));
+        Assertions.assertNull(relatorio.jsonPath().get("primeiraRequisicaoMs"));
+        Assertions.assertTrue(relatorio.jsonPath().getInt("beansCriados") > 0);
+
+        // Os beans adiados são criados no primeiro uso
+        var response = RestAssured.given()
+                .body(UsuarioRequest.builder().nome("Rapido").email("rapido@email.com").build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.CREATED.value(), response.getStatusCode());
+        var id = response.as(UsuarioResponse.class).getId();
+        Assertions.assertEquals(HttpStatus.OK.value(), RestAssured.get(String.format(API_BUSCA_ID, id)).getStatusCode());
+
+        relatorio = RestAssured.given().queryParam("limite", 1000).get(API_INICIALIZACAO);
+        Assertions.assertTrue(relatorio.jsonPath().getLong("primeiraRequisicaoMs") >= relatorio.jsonPath().getLong("prontoMs"));
+        // O controller só foi criado pela requisição, o arquivamento agenda a sua tarefa e é criado ao subir mesmo assim
+        Assertions.assertEquals(List.of(true), relatorio.jsonPath().getList("beans.findAll { it.nome == 'usuarioApiController' }.depoisDeSubir"));
+        Assertions.assertEquals(List.of(false), relatorio.jsonPath().getList("beans.findAll { it.nome == 'usuarioArquivamentoService' }.depoisDeSubir"));
+
+        Assertions.assertEquals(HttpStatus.OK.value(),
+                RestAssured.given().queryParam("tag", "marco:primeira-requisicao").get("/actuator/metrics/aplicacao.inicializacao.marco").getStatusCode());
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.example.demo.rest;
+
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioEmailFiltro;
+import io.restassured.RestAssured;
+import io.restassured.response.Response;
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.stream.Collectors;
+
+// Mesmos cenarios principais do UsuarioApiTest, com a aplicação no profile reactive (webflux + R2DBC)
+// Porta aleatoria para não conflitar com o servidor do UsuarioApiTest, que pode continuar de pé no cache de contextos
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("reactive")
+public class UsuarioReativoApiTest {
+
+    private static final String NOME_USUARIO = "João da Silva";
+    private static final String NOVO_NOME_USUARIO = "Silva da João";
+    private static final String EMAIL_USUARIO = "joao_da_silva@email.com";
+
+    private static final String API_BASE = "/api/v1/usuario";
+    private static final String API_BUSCA_ID = "/api/v1/usuario/%d";
+
+    private static final Long ID_NAO_ESPERADO = 1000000L;
+
+    @LocalServerPort
+    private int port;
+
+    // O JPA continua ativo no profile reactive, é usado aqui para limpar e conferir o banco
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private UsuarioEmailFiltro usuarioEmailFiltro;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @AfterEach
+    public void afterEach() {
+        usuarioRepository.deleteAll();
+    }
+
+    @Test
+    public void deveCriarAtualizarBuscarEExcluirUsuario() {
+
+        var criado = salvar(UsuarioRequest.builder().nome(NOME_USUARIO).build(), HttpStatus.CREATED);
+        Assertions.assertNotNull(criado.getId());
+        Assertions.assertNotNull(criado.getDataHoraCriacao());
+        Assertions.assertTrue(criado.isAtivo());
+
+        // O id vem da mesma sequence do hibernate, e a linha pode ser lida pelo JPA
+        Assertions.assertEquals(NOME_USUARIO, usuarioRepository.findById(criado.getId()).orElseThrow().getNome());
+
+        var atualizado = salvar(UsuarioRequest.builder().id(criado.getId()).nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO).build(), HttpStatus.OK);
+        Assertions.assertEquals(NOVO_NOME_USUARIO, atualizado.getNome());
+        Assertions.assertEquals(EMAIL_USUARIO, atualizado.getEmail());
+        Assertions.assertEquals(criado.getDataHoraCriacao(), atualizado.getDataHoraCriacao());
+
+        var buscado = RestAssured.get(String.format(API_BUSCA_ID, criado.getId()));
+        Assertions.assertEquals(HttpStatus.OK.value(), buscado.getStatusCode());
+        Assertions.assertEquals(NOVO_NOME_USUARIO, buscado.as(UsuarioResponse.class).getNome());
+
+        Assertions.assertEquals(HttpStatus.NO_CONTENT.value(), RestAssured.delete(String.format(API_BUSCA_ID, criado.getId())).getStatusCode());
+        Assertions.assertFalse(RestAssured.get(String.format(API_BUSCA_ID, criado.getId())).as(UsuarioResponse.class).isAtivo());
+    }
+
+    @Test
+    public void deveRetornarNaoEncontradoParaIdInexistente() {
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), RestAssured.get(String.format(API_BUSCA_ID, ID_NAO_ESPERADO)).getStatusCode());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), RestAssured.delete(String.format(API_BUSCA_ID, ID_NAO_ESPERADO)).getStatusCode());
+
+        var response = RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .body(UsuarioRequest.builder().id(ID_NAO_ESPERADO).nome(NOME_USUARIO).build())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void deveListarEmJsonEEmStreamComPaginacao() {
+        for (var i = 0; i < 5; i++) {
+            salvar(UsuarioRequest.builder().nome(NOME_USUARIO + " " + i).build(), HttpStatus.CREATED);
+        }
+
+        // Lista comum, com o total no header
+        var response = RestAssured.given()
+                .queryParam("size", 2)
+                .queryParam("page", 1)
+                .queryParam("total", true)
+                .get(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals("5", response.getHeader("X-Total-Count"));
+        Assertions.assertEquals(2, response.jsonPath().getList("$").size());
+        Assertions.assertEquals(NOME_USUARIO + " 2", response.jsonPath().getString("[0].nome"));
+
+        // Em stream cada usuario vem em uma linha
+        var stream = RestAssured.given()
+                .accept("application/stream+json")
+                .queryParam("size", 10)
+                .get(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), stream.getStatusCode());
+        var linhas = stream.asString().lines().filter(linha -> !linha.isBlank()).collect(Collectors.toList());
+        Assertions.assertEquals(5, linhas.size());
+
+        // Paginação por cursor
+        var primeiraPagina = RestAssured.given()
+                .queryParam("cursor", "")
+                .queryParam("size", 3)
+                .get(API_BASE);
+        Assertions.assertEquals(3, primeiraPagina.jsonPath().getList("$").size());
+        var segundaPagina = RestAssured.given()
+                .queryParam("cursor", primeiraPagina.getHeader("X-Next-Cursor"))
+                .queryParam("size", 3)
+                .get(API_BASE);
+        Assertions.assertEquals(2, segundaPagina.jsonPath().getList("$").size());
+        Assertions.assertNull(segundaPagina.getHeader("X-Next-Cursor"));
+
+        // Ordenação por um campo que não existe
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), RestAssured.given().queryParam("sort", "senha").get(API_BASE).getStatusCode());
+    }
+
+    @Test
+    public void deveUsarAVersaoNoETagENoIfMatch() {
+
+        var criado = salvar(UsuarioRequest.builder().nome(NOME_USUARIO).build(), HttpStatus.CREATED);
+
+        var buscado = RestAssured.get(String.format(API_BUSCA_ID, criado.getId()));
+        var etag = buscado.getHeader(HttpHeaders.ETAG);
+        Assertions.assertEquals("\"" + criado.getVersao() + "\"", etag);
+
+        // Com a versão atual a resposta é 304, sem corpo
+        var response = RestAssured.given()
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .get(String.format(API_BUSCA_ID, criado.getId()));
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatusCode());
+
+        // A atualização na versão lida é aceita e devolve o ETag da nova versão
+        response = RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(UsuarioRequest.builder().id(criado.getId()).nome(NOVO_NOME_USUARIO).build())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertNotEquals(etag, response.getHeader(HttpHeaders.ETAG));
+
+        // Repetir o mesmo If-Match é usar uma versão antiga
+        response = RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(UsuarioRequest.builder().id(criado.getId()).nome(NOME_USUARIO).build())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), response.getStatusCode());
+        Assertions.assertEquals(NOVO_NOME_USUARIO, usuarioRepository.findById(criado.getId()).orElseThrow().getNome());
+
+        // Um id inexistente continua sendo 404, mesmo com If-Match
+        response = RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(UsuarioRequest.builder().id(ID_NAO_ESPERADO).nome(NOME_USUARIO).build())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatusCode());
+    }
+
+    @Test
+    public void deveRecusarEmailJaCadastrado() {
+
+        var criado = salvar(UsuarioRequest.builder().nome(NOME_USUARIO).email(EMAIL_USUARIO).build(), HttpStatus.CREATED);
+
+        // O mesmo email, com outras maiusculas, em um usuario novo e na atualização de outro usuario
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(),
+                enviar(UsuarioRequest.builder().nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO.toUpperCase()).build()).getStatusCode());
+        var outro = salvar(UsuarioRequest.builder().nome(NOVO_NOME_USUARIO).build(), HttpStatus.CREATED);
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(),
+                enviar(UsuarioRequest.builder().id(outro.getId()).nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO).build()).getStatusCode());
+
+        // O proprio usuario pode manter o seu email, e o email gravado aqui foi marcado no filtro
+        salvar(UsuarioRequest.builder().id(criado.getId()).nome(NOVO_NOME_USUARIO).email(EMAIL_USUARIO).build(), HttpStatus.OK);
+        Assertions.assertTrue(usuarioEmailFiltro.buscarDono(EMAIL_USUARIO).isPresent());
+    }
+
+    private UsuarioResponse salvar(UsuarioRequest usuarioRequest, HttpStatus statusEsperado) {
+        var response = enviar(usuarioRequest);
+        Assertions.assertEquals(statusEsperado.value(), response.getStatusCode());
+        return response.as(UsuarioResponse.class);
+    }
+
+    private Response enviar(UsuarioRequest usuarioRequest) {
+        return RestAssured.given()
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .body(usuarioRequest)
+                .post(API_BASE);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.example.demo.rest;
+
+import com.example.demo.config.LeituraEscritaFilter;
+import com.example.demo.domain.repository.UsuarioRepository;
+import com.example.demo.dto.usuario.UsuarioIdsResponse;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioBuscaIndice;
+import com.example.demo.service.UsuarioCache;
+import io.restassured.RestAssured;
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+// Leituras nas replicas (usuario.leitura.replicas), com dois H2 em memória: um primario e uma replica
+// O H2 não replica dados, então o teste copia o primario para a replica quando quer simular a replicação em dia
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=" + UsuarioReplicaTest.URL_PRIMARIO,
+        "usuario.leitura.replicas=" + UsuarioReplicaTest.URL_REPLICA,
+        "usuario.leitura.janela-primario=1m"
+})
+public class UsuarioReplicaTest {
+
+    static final String URL_PRIMARIO = "jdbc:h2:mem:primario;DB_CLOSE_DELAY=-1";
+    static final String URL_REPLICA = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+    private static final String API_BASE = "/api/v1/usuario";
+    private static final String API_BUSCA_ID = "/api/v1/usuario/%d";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UsuarioCache usuarioCache;
+
+    @Autowired
+    private UsuarioBuscaIndice usuarioBuscaIndice;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    private final JdbcTemplate primario = new JdbcTemplate(new DriverManagerDataSource(URL_PRIMARIO, "root", "root"));
+
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(URL_REPLICA, "root", "root"));
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+        replicar();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        usuarioRepository.deleteAll();
+        // O deleteAll vai direto ao banco, sem passar pelo cache e pelo indice de busca
+        usuarioCache.limpar();
+        usuarioBuscaIndice.limpar();
+    }
+
+    @Test
+    public void deveLerDaReplicaELerDoPrimarioLogoDepoisDeEscrever() {
+
+        var response = RestAssured.given()
+                .body(UsuarioRequest.builder().nome("Replica").build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.CREATED.value(), response.getStatusCode());
+        var id = response.as(UsuarioResponse.class).getId();
+        var cookie = response.getCookie(LeituraEscritaFilter.COOKIE);
+        Assertions.assertNotNull(cookie);
+
+        // A escrita foi no primario, a replica ainda não tem o usuario
+        Assertions.assertEquals(1, primario.queryForObject("select count(*) from usuario where id = ?", Integer.class, id));
+        Assertions.assertEquals(0, replica.queryForObject("select count(*) from usuario where id = ?", Integer.class, id));
+
+        // Sem o cookie a listagem vai para a replica, que está atrasada
+        Assertions.assertEquals(0, RestAssured.get(API_BASE).as(List.class).size());
+
+        // Com o cookie da escrita o cliente lê do primario e enxerga o que acabou de gravar
+        Assertions.assertEquals(1, RestAssured.given().cookie(LeituraEscritaFilter.COOKIE, cookie).get(API_BASE).as(List.class).size());
+
+        // A busca de varios ids divide os ids em pedaços consultados por outras threads, que também leem do primario
+        usuarioCache.limpar();
+        var ids = LongStream.range(1, 600).boxed().collect(Collectors.toList());
+        ids.add(id);
+        var texto = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+        Assertions.assertEquals(List.of(id), RestAssured.given().cookie(LeituraEscritaFilter.COOKIE, cookie).queryParam("ids", texto).get(API_BASE)
+                .as(UsuarioIdsResponse.class).getUsuarios().stream().map(UsuarioResponse::getId).collect(Collectors.toList()));
+        Assertions.assertTrue(RestAssured.given().queryParam("ids", texto).get(API_BASE).as(UsuarioIdsResponse.class).getUsuarios().isEmpty());
+
+        // O findById guarda o resultado em cache, então sempre busca no primario
+        Assertions.assertEquals(HttpStatus.OK.value(), RestAssured.get(String.format(API_BUSCA_ID, id)).getStatusCode());
+
+        // Com a replicação em dia a replica também encontra
+        replicar();
+        Assertions.assertEquals(1, RestAssured.get(API_BASE).as(List.class).size());
+    }
+
+    // Recria a replica com o conteudo atual do primario. O SCRIPT do H2 retorna os comandos que recriam o banco
+    private void replicar() {
+        var comandos = primario.queryForList("script nopasswords nosettings", String.class);
+        replica.execute("drop all objects");
+        comandos.forEach(replica::execute);
+    }
+
+}
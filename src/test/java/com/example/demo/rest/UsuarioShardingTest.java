@@ -0,0 +1,208 @@
+package com.example.demo.rest;
+
+import com.example.demo.domain.model.UsuarioIdGenerator;
+import com.example.demo.dto.usuario.UsuarioLoteItemResponse;
+import com.example.demo.dto.usuario.UsuarioRequest;
+import com.example.demo.dto.usuario.UsuarioResponse;
+import com.example.demo.service.UsuarioBuscaIndice;
+import com.example.demo.service.UsuarioCache;
+import io.restassured.RestAssured;
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Usuarios distribuidos entre dois H2 em memória (usuario.sharding.shards)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "usuario.sharding.shards=" + UsuarioShardingTest.URL_SHARD_0 + "," + UsuarioShardingTest.URL_SHARD_1
+})
+public class UsuarioShardingTest {
+
+    static final String URL_SHARD_0 = "jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1";
+    static final String URL_SHARD_1 = "jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1";
+
+    private static final String API_BASE = "/api/v1/usuario";
+    private static final String API_BUSCA_ID = "/api/v1/usuario/%d";
+    private static final String API_LOTE = "/api/v1/usuario/batch";
+    private static final String API_EXPORTACAO = "/api/v1/usuario/export";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UsuarioCache usuarioCache;
+
+    @Autowired
+    private UsuarioBuscaIndice usuarioBuscaIndice;
+
+    private final List<JdbcTemplate> shards = List.of(
+            new JdbcTemplate(new DriverManagerDataSource(URL_SHARD_0, "root", "root")),
+            new JdbcTemplate(new DriverManagerDataSource(URL_SHARD_1, "root", "root")));
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @AfterEach
+    public void afterEach() {
+        shards.forEach(shard -> shard.update("delete from usuario"));
+        usuarioCache.limpar();
+        usuarioBuscaIndice.limpar();
+    }
+
+    @Test
+    public void deveDistribuirOsUsuariosEListarNaOrdemGlobal() {
+
+        // Inseridos fora de ordem, em rodizio entre os shards
+        var ids = new HashMap<String, Long>();
+        for (var nome : List.of("Fabio", "Bruna", "Daniel", "Ana", "Eva", "Carlos")) {
+            var response = RestAssured.given()
+                    .body(UsuarioRequest.builder().nome(nome).build())
+                    .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                    .post(API_BASE);
+            Assertions.assertEquals(HttpStatus.CREATED.value(), response.getStatusCode());
+            ids.put(nome, response.as(UsuarioResponse.class).getId());
+        }
+
+        // Cada usuario está apenas no shard indicado pelo id
+        ids.values().forEach(id -> {
+            var shard = UsuarioIdGenerator.shardDe(id);
+            Assertions.assertEquals(1, shards.get(shard).queryForObject("select count(*) from usuario where id = ?", Integer.class, id));
+            Assertions.assertEquals(0, shards.get(1 - shard).queryForObject("select count(*) from usuario where id = ?", Integer.class, id));
+        });
+        Assertions.assertEquals(3, shards.get(0).queryForObject("select count(*) from usuario", Integer.class));
+        Assertions.assertEquals(3, shards.get(1).queryForObject("select count(*) from usuario", Integer.class));
+
+        // A pagina é da ordem global (nome, id), não a mesma pagina de cada shard
+        Assertions.assertEquals(List.of("Ana", "Bruna"), nomes(RestAssured.given().queryParam("size", 2).queryParam("page", 0).get(API_BASE).as(UsuarioResponse[].class)));
+        Assertions.assertEquals(List.of("Carlos", "Daniel"), nomes(RestAssured.given().queryParam("size", 2).queryParam("page", 1).get(API_BASE).as(UsuarioResponse[].class)));
+        Assertions.assertEquals(List.of("Fabio", "Eva", "Daniel"),
+                nomes(RestAssured.given().queryParam("size", 3).queryParam("sort", "nome,DESC").get(API_BASE).as(UsuarioResponse[].class)));
+
+        // A contagem soma os shards
+        var response = RestAssured.given().queryParam("size", 1).queryParam("total", true).get(API_BASE);
+        Assertions.assertEquals("6", response.getHeader("X-Total-Count"));
+
+        // A paginação por cursor também segue a ordem global
+        response = RestAssured.given().queryParam("cursor", "").queryParam("size", 4).get(API_BASE);
+        Assertions.assertEquals(List.of("Ana", "Bruna", "Carlos", "Daniel"), nomes(response.as(UsuarioResponse[].class)));
+        response = RestAssured.given().queryParam("cursor", response.getHeader("X-Next-Cursor")).queryParam("size", 4).get(API_BASE);
+        Assertions.assertEquals(List.of("Eva", "Fabio"), nomes(response.as(UsuarioResponse[].class)));
+        Assertions.assertNull(response.getHeader("X-Next-Cursor"));
+
+        // Busca, alteração e exclusão por id vão ao shard do usuario
+        var idAna = ids.get("Ana");
+        Assertions.assertEquals("Ana", RestAssured.get(String.format(API_BUSCA_ID, idAna)).as(UsuarioResponse.class).getNome());
+
+        response = RestAssured.given()
+                .body(UsuarioRequest.builder().id(idAna).nome("Ana Maria").build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+        Assertions.assertEquals("Ana Maria", shards.get(UsuarioIdGenerator.shardDe(idAna))
+                .queryForObject("select nome_usuario from usuario where id = ?", String.class, idAna));
+
+        Assertions.assertEquals(HttpStatus.NO_CONTENT.value(), RestAssured.delete(String.format(API_BUSCA_ID, ids.get("Bruna"))).getStatusCode());
+        Assertions.assertFalse(RestAssured.get(String.format(API_BUSCA_ID, ids.get("Bruna"))).as(UsuarioResponse.class).isAtivo());
+        Assertions.assertEquals(List.of("Ana Maria", "Carlos"), nomes(RestAssured.given().queryParam("size", 2).get(API_BASE).as(UsuarioResponse[].class)));
+    }
+
+    @Test
+    public void deveSalvarOLoteEExportarEmTodosOsShards() {
+
+        // Os usuarios novos do lote são distribuidos entre os shards
+        var itens = RestAssured.given()
+                .body(List.of(UsuarioRequest.builder().nome("Lote 1").build(), UsuarioRequest.builder().nome("Lote 2").build(),
+                        UsuarioRequest.builder().nome("Lote 3").build(), UsuarioRequest.builder().nome("Lote 4").build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE)
+                .as(UsuarioLoteItemResponse[].class);
+        Assertions.assertEquals(List.of(0, 1, 2, 3), List.of(itens).stream().map(UsuarioLoteItemResponse::getIndice).collect(Collectors.toList()));
+        for (var item : itens) {
+            Assertions.assertEquals(HttpStatus.CREATED.value(), item.getStatus());
+            var id = item.getUsuario().getId();
+            Assertions.assertEquals(1, shards.get(UsuarioIdGenerator.shardDe(id)).queryForObject("select count(*) from usuario where id = ?", Integer.class, id));
+        }
+        Assertions.assertEquals(2, shards.get(0).queryForObject("select count(*) from usuario", Integer.class));
+        Assertions.assertEquals(2, shards.get(1).queryForObject("select count(*) from usuario", Integer.class));
+
+        // As atualizações do lote encontram cada usuario no seu shard
+        var atualizacoes = List.of(itens).stream()
+                .map(item -> UsuarioRequest.builder().id(item.getUsuario().getId()).nome(item.getUsuario().getNome() + " alterado").build())
+                .collect(Collectors.toList());
+        itens = RestAssured.given()
+                .body(atualizacoes)
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE)
+                .as(UsuarioLoteItemResponse[].class);
+        for (var item : itens) {
+            Assertions.assertEquals(HttpStatus.OK.value(), item.getStatus());
+        }
+        Assertions.assertEquals(4, shards.get(0).queryForObject("select count(*) from usuario where nome_usuario like '% alterado'", Integer.class)
+                + shards.get(1).queryForObject("select count(*) from usuario where nome_usuario like '% alterado'", Integer.class));
+
+        // A exportação traz os usuarios de todos os shards
+        var linhas = RestAssured.given().queryParam("formato", "csv").get(API_EXPORTACAO).asString().split("\n");
+        Assertions.assertEquals(5, linhas.length);
+    }
+
+    @Test
+    public void deveOrdenarEntreShardsSemDiferenciarMaiusculas() {
+
+        // Com sharding o nome é ordenado pelo nome_busca, em minusculas, tanto no banco quanto ao intercalar os shards
+        for (var nome : List.of("carla", "Bruno", "ana", "Daniel")) {
+            Assertions.assertEquals(HttpStatus.CREATED.value(), RestAssured.given()
+                    .body(UsuarioRequest.builder().nome(nome).build())
+                    .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                    .post(API_BASE)
+                    .getStatusCode());
+        }
+
+        Assertions.assertEquals(List.of("ana", "Bruno", "carla", "Daniel"), nomes(RestAssured.get(API_BASE).as(UsuarioResponse[].class)));
+        Assertions.assertEquals(List.of("Bruno", "ana"),
+                nomes(RestAssured.given().queryParam("size", 2).queryParam("page", 1).queryParam("sort", "nome,DESC").get(API_BASE).as(UsuarioResponse[].class)));
+
+        var response = RestAssured.given().queryParam("cursor", "").queryParam("size", 3).get(API_BASE);
+        Assertions.assertEquals(List.of("ana", "Bruno", "carla"), nomes(response.as(UsuarioResponse[].class)));
+        response = RestAssured.given().queryParam("cursor", response.getHeader("X-Next-Cursor")).queryParam("size", 3).get(API_BASE);
+        Assertions.assertEquals(List.of("Daniel"), nomes(response.as(UsuarioResponse[].class)));
+    }
+
+    @Test
+    public void deveRecusarEmailDeOutroShardMesmoForaDoFiltro() {
+
+        // Gravado por outra instancia, direto no shard 1: o filtro de emails desta instancia não o conhece
+        shards.get(1).update("insert into usuario (id, nome_usuario, nome_busca, email, email_busca, data_hora_criacao, ativo, versao, data_hora_atualizacao)"
+                + " values (?, 'Outra', 'outra', 'outra@email.com', 'outra@email.com', current_timestamp, true, 0, current_timestamp)", 1L << 14);
+
+        // Não há indice unico entre os shards, então a verificação antes de gravar consulta todos eles
+        var response = RestAssured.given()
+                .body(UsuarioRequest.builder().nome("Outra").email("OUTRA@email.com").build())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_BASE);
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(), response.getStatusCode());
+        var itens = RestAssured.given()
+                .body(List.of(UsuarioRequest.builder().nome("Outra").email("outra@email.com").build()))
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .post(API_LOTE)
+                .as(UsuarioLoteItemResponse[].class);
+        Assertions.assertEquals(HttpStatus.CONFLICT.value(), itens[0].getStatus());
+    }
+
+    private static List<String> nomes(UsuarioResponse[] usuarios) {
+        return List.of(usuarios).stream().map(UsuarioResponse::getNome).collect(Collectors.toList());
+    }
+
+}